@@ -0,0 +1,216 @@
+#!/usr/bin/env bash
+#
+# Builds AppCDS (application class data sharing) archives for the JVM modules and measures the startup gain.
+#
+# Build all modules first (mvn install in the repository root), then run:
+#   ./appcds.sh [runs] [module...]
+# modules: example-api spring-boot micronaut quarkus plain-java (all by default)
+#
+# For every module:
+#   1. training - the module is started with -XX:DumpLoadedClassList while a training workload runs through it:
+#      the standard Main scenario for example-api and plain-java, every GET endpoint plus POST /users for the
+#      proxies, so that cVurl, HttpClient and Jackson classes are loaded and listed, not only the framework ones
+#   2. dump - -Xshare:dump writes target/cds/app.jsa for the listed classes
+#   3. measurement - time from launch to the first successful GET /users/1 (to exit for plain-java) is measured
+#      runs times without and with the archive
+# The CDS launch arguments are written to target/cds/java-args, CDS=1 ./startup-benchmark.sh uses them.
+#
+# Java 11 only archives classes loaded from jar files of the class path, so Spring Boot fat jars are exploded
+# into target/cds and their BOOT-INF/classes are packed into app.jar. Runs without the archive use the same
+# layout, the difference measured is only due to the archive.
+#
+set -euo pipefail
+
+RUNS=${1:-5}
+shift || true
+if (( $# )); then
+  MODULES=("$@")
+else
+  MODULES=(example-api spring-boot micronaut quarkus plain-java)
+fi
+API_PORT=7000
+PORT=8080
+
+cd "$(dirname "$0")"
+ROOT=$PWD
+
+API_PID=""
+APP_PID=""
+cleanup() {
+  [[ -n "$APP_PID" ]] && kill "$APP_PID" 2>/dev/null || true
+  [[ -n "$API_PID" ]] && kill "$API_PID" 2>/dev/null || true
+}
+trap cleanup EXIT
+
+now_ms() {
+  echo $(( $(date +%s%N) / 1000000 ))
+}
+
+wait_for() {
+  until curl -sf -o /dev/null "$1"; do
+    sleep 0.005
+  done
+}
+
+main_class_of() {
+  unzip -p "$1" META-INF/MANIFEST.MF | awk -F': ' "/^$2:/ {print \$2}" | tr -d '\r'
+}
+
+jar_of() {
+  ls "$1"/target/*.jar 2>/dev/null | grep -v -e '\.original$' -e 'original-' -e 'sources' | head -n 1
+}
+
+module_dir() {
+  case $1 in
+    example-api) echo example-api ;;
+    *) echo "cvurl-usage-$1" ;;
+  esac
+}
+
+# Prints class path and main class of the module, separated by space
+launch_args() {
+  local module=$1 dir cds jar
+  dir=$(module_dir "$module")
+  cds="$ROOT/$dir/target/cds"
+  mkdir -p "$cds"
+  case $module in
+    example-api | spring-boot)
+      jar=$(jar_of "$dir")
+      rm -rf "$cds/exploded" && mkdir -p "$cds/exploded"
+      (cd "$cds/exploded" && jar xf "$ROOT/$jar")
+      jar cf "$cds/app.jar" -C "$cds/exploded/BOOT-INF/classes" .
+      echo "$cds/app.jar:$(ls "$cds"/exploded/BOOT-INF/lib/*.jar | paste -sd:) $(main_class_of "$jar" Start-Class)"
+      ;;
+    micronaut)
+      jar=$(jar_of "$dir")
+      echo "$ROOT/$jar $(main_class_of "$jar" Main-Class)"
+      ;;
+    quarkus)
+      jar=$(ls "$dir"/target/*-runner.jar | head -n 1)
+      echo "$ROOT/$jar:$(ls "$ROOT/$dir"/target/lib/*.jar | paste -sd:) $(main_class_of "$jar" Main-Class)"
+      ;;
+    plain-java)
+      if [[ ! -f $dir/target/classpath.txt ]]; then
+        (cd "$dir" && mvn -q dependency:build-classpath -Dmdep.outputFile=target/classpath.txt)
+      fi
+      jar cf "$cds/app.jar" -C "$dir/target/classes" .
+      echo "$cds/app.jar:$(cat "$dir/target/classpath.txt") cvurl.usage.plain.java.Main"
+      ;;
+  esac
+}
+
+port_of() {
+  [[ $1 == example-api ]] && echo $API_PORT || echo $PORT
+}
+
+# Main scenario of plain-java, it reads test photo relative to the module directory
+run_plain_main() {
+  [[ -n ${PLAIN_ARGS:-} ]] || PLAIN_ARGS=$(launch_args plain-java)
+  local classpath main
+  read -r classpath main <<< "$PLAIN_ARGS"
+  (cd cvurl-usage-plain-java && java -cp "$classpath" "$main" >/dev/null 2>&1) || true
+}
+
+training_workload() {
+  local module=$1 base="http://localhost:$PORT"
+  for _ in 1 2 3; do
+    if [[ $module == example-api ]]; then
+      run_plain_main
+      continue
+    fi
+    for path in "/users?page=1" /users/all /users/1 /user-not-found /user-as-string/1 \
+      /user-as-string-compressed/1 /user-as-is/1 /users/list; do
+      curl -s -o /dev/null "$base$path" || true
+    done
+    curl -s -o /dev/null -H 'Content-Type: application/json' -d '{"name":"name","email":"email"}' "$base/users" || true
+  done
+}
+
+# Starts the module and waits for the first successful GET /users/1, elapsed ms are stored in ELAPSED
+start_server() {
+  local port=$1; shift
+  local start
+  start=$(now_ms)
+  java "$@" >/dev/null 2>&1 &
+  APP_PID=$!
+  wait_for "http://localhost:$port/users/1"
+  ELAPSED=$(( $(now_ms) - start ))
+}
+
+stop_server() {
+  kill "$APP_PID"
+  wait "$APP_PID" 2>/dev/null || true
+  APP_PID=""
+}
+
+# Average ms to first request, or to exit for plain-java, over RUNS runs is stored in AVERAGE
+measure() {
+  local module=$1; shift
+  local total=0 start
+  for ((run = 1; run <= RUNS; run++)); do
+    if [[ $module == plain-java ]]; then
+      start=$(now_ms)
+      (cd cvurl-usage-plain-java && java "$@" >/dev/null 2>&1) || true
+      ELAPSED=$(( $(now_ms) - start ))
+    else
+      start_server "$(port_of "$module")" "$@"
+      stop_server
+    fi
+    total=$((total + ELAPSED))
+  done
+  AVERAGE=$((total / RUNS))
+}
+
+build_archive() {
+  local module=$1 classpath=$2 main=$3 cds=$4 port
+  port=$(port_of "$module")
+  rm -f "$cds/classes.lst" "$cds/app.jsa"
+  if [[ $module == plain-java ]]; then
+    (cd cvurl-usage-plain-java \
+      && java -Xshare:off -XX:DumpLoadedClassList="$cds/classes.lst" -cp "$classpath" "$main" >/dev/null 2>&1) || true
+  else
+    java -Xshare:off -XX:DumpLoadedClassList="$cds/classes.lst" -cp "$classpath" "$main" >/dev/null 2>&1 &
+    APP_PID=$!
+    wait_for "http://localhost:$port/users/1"
+    training_workload "$module"
+    stop_server
+  fi
+  java -Xshare:dump -XX:SharedClassListFile="$cds/classes.lst" -XX:SharedArchiveFile="$cds/app.jsa" \
+    -cp "$classpath" >/dev/null
+  echo "-XX:SharedArchiveFile=$cds/app.jsa -Xshare:auto -cp $classpath $main" > "$cds/java-args"
+}
+
+ensure_api_running() {
+  curl -s -o /dev/null "http://localhost:$API_PORT/users/1" && return
+  local args_file="$ROOT/example-api/target/cds/java-args"
+  if [[ -f $args_file ]]; then
+    # shellcheck disable=SC2046
+    java $(cat "$args_file") >/dev/null 2>&1 &
+  else
+    java -jar "$(jar_of example-api)" >/dev/null 2>&1 &
+  fi
+  API_PID=$!
+  wait_for "http://localhost:$API_PORT/users/1"
+}
+
+printf "%-12s %16s %16s %10s\n" "module" "default, ms" "AppCDS, ms" "reduction"
+for module in "${MODULES[@]}"; do
+  dir=$(module_dir "$module")
+  if [[ $module == example-api ]]; then
+    if curl -s -o /dev/null "http://localhost:$API_PORT/users/1"; then
+      echo "example-api: port $API_PORT is busy, stop running example-api to measure it" >&2
+      continue
+    fi
+  else
+    ensure_api_running
+  fi
+  read -r classpath main < <(launch_args "$module")
+  cds="$ROOT/$dir/target/cds"
+  build_archive "$module" "$classpath" "$main" "$cds"
+  measure "$module" -cp "$classpath" "$main"
+  default=$AVERAGE
+  # shellcheck disable=SC2046
+  measure "$module" $(cat "$cds/java-args")
+  shared=$AVERAGE
+  printf "%-12s %16d %16d %9d%%\n" "$module" "$default" "$shared" $(( (default - shared) * 100 / default ))
+done
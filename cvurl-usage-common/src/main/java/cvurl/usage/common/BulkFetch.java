@@ -0,0 +1,182 @@
+package cvurl.usage.common;
+
+import coresearch.cvurl.io.exception.ResponseMappingException;
+
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Fetches a batch of users by id, at most parallelism upstream calls of one batch are in flight at a time.
+ * <p>
+ * Every id gets its own {@link ResultFactory result} in request order. Failure of one id, e.g. NOT_FOUND, timeout or
+ * call rejected by {@link UpstreamGuard}, is reported in its result and does not fail the rest of the batch.
+ * Every id is fetched within {@link Deadline} of the request that started the batch.
+ */
+public class BulkFetch {
+
+    /**
+     * Creates result of one id, user is set if status is OK, error otherwise.
+     */
+    @FunctionalInterface
+    public interface ResultFactory<U, R> {
+
+        R create(Integer id, int status, U user, String error);
+    }
+
+    private final int parallelism;
+    private final int maxIds;
+    private final Duration timeout;
+
+    /**
+     * @param parallelism max number of concurrent upstream calls of one batch
+     * @param maxIds      max number of ids in one batch
+     * @param timeout     time limit of a single id, counted from the start of its upstream call
+     */
+    public BulkFetch(int parallelism, int maxIds, Duration timeout) {
+        this.parallelism = Math.max(1, parallelism);
+        this.maxIds = maxIds;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Parse comma separated ids, order and duplicates are kept.
+     *
+     * @throws IllegalArgumentException if an id is not a number or there are more than maxIds of them
+     */
+    public List<Integer> parseIds(String ids) {
+        List<Integer> result = new ArrayList<>();
+        for (String id : ids.split(",")) {
+            if (!id.isBlank()) {
+                try {
+                    result.add(Integer.valueOf(id.strip()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid user id: " + id.strip());
+                }
+            }
+        }
+        if (result.isEmpty()) {
+            throw new IllegalArgumentException("No user ids given");
+        }
+        if (result.size() > maxIds) {
+            throw new IllegalArgumentException("At most " + maxIds + " user ids are allowed, got " + result.size());
+        }
+        return result;
+    }
+
+    /**
+     * Load every id with given call, next id is started as soon as one of the in flight calls completes.
+     * Returned future never completes exceptionally.
+     */
+    public <U, R> CompletableFuture<List<R>> fetch(List<Integer> ids, Function<Integer, CompletableFuture<U>> load,
+                                                   ResultFactory<U, R> resultFactory) {
+        if (ids.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        Batch<U, R> batch = new Batch<>(ids, load, resultFactory, Deadline.current());
+        batch.drain();
+        return batch.merged;
+    }
+
+    /**
+     * Calls of one {@link #fetch} are started by {@link #drain()}, which every completed call enters again.
+     * Only one thread drains at a time: a call that completes while it is being started, e.g. one served from
+     * cache, makes the draining thread loop once more instead of nesting another drain, so the stack does not
+     * grow with the number of ids.
+     */
+    private final class Batch<U, R> {
+
+        private final List<Integer> ids;
+        private final Function<Integer, CompletableFuture<U>> load;
+        private final ResultFactory<U, R> resultFactory;
+        private final Deadline deadline;
+        private final AtomicReferenceArray<R> results;
+        private final AtomicInteger pending;
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger drains = new AtomicInteger();
+        private final CompletableFuture<List<R>> merged = new CompletableFuture<>();
+        // only read and written by the draining thread
+        private int next;
+
+        Batch(List<Integer> ids, Function<Integer, CompletableFuture<U>> load, ResultFactory<U, R> resultFactory,
+              Deadline deadline) {
+            this.ids = ids;
+            this.load = load;
+            this.resultFactory = resultFactory;
+            this.deadline = deadline;
+            this.results = new AtomicReferenceArray<>(ids.size());
+            this.pending = new AtomicInteger(ids.size());
+        }
+
+        void drain() {
+            if (drains.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (next < ids.size() && running.get() < parallelism) {
+                    running.incrementAndGet();
+                    start(next++);
+                }
+            } while (drains.decrementAndGet() != 0);
+        }
+
+        private void start(int index) {
+            Integer id = ids.get(index);
+            Deadline.with(deadline, () -> call(id, load)).orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS)
+                    .whenComplete((user, error) -> {
+                        results.set(index, result(id, user, error, resultFactory));
+                        if (pending.decrementAndGet() == 0) {
+                            List<R> list = new ArrayList<>(ids.size());
+                            for (int i = 0; i < ids.size(); i++) {
+                                list.add(results.get(i));
+                            }
+                            merged.complete(list);
+                        } else {
+                            running.decrementAndGet();
+                            drain();
+                        }
+                    });
+        }
+    }
+
+    private static <U> CompletableFuture<U> call(Integer id, Function<Integer, CompletableFuture<U>> load) {
+        try {
+            return load.apply(id);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static <U, R> R result(Integer id, U user, Throwable error, ResultFactory<U, R> resultFactory) {
+        if (error == null) {
+            return resultFactory.create(id, HttpURLConnection.HTTP_OK, user, null);
+        }
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof ResponseMappingException) {
+            var response = ((ResponseMappingException) cause).getResponse();
+            return resultFactory.create(id, response.status(), null, String.valueOf(response.getBody()));
+        }
+        if (cause instanceof DeadlineExceededException) {
+            return resultFactory.create(id, HttpURLConnection.HTTP_GATEWAY_TIMEOUT, null, cause.getMessage());
+        }
+        if (cause instanceof TimeoutException) {
+            return resultFactory.create(id, HttpURLConnection.HTTP_GATEWAY_TIMEOUT, null, "Upstream call timed out");
+        }
+        if (cause instanceof UpstreamUnavailableException) {
+            return resultFactory.create(id, HttpURLConnection.HTTP_UNAVAILABLE, null, cause.getMessage());
+        }
+        return resultFactory.create(id, HttpURLConnection.HTTP_BAD_GATEWAY, null, String.valueOf(cause.getMessage()));
+    }
+}
@@ -0,0 +1,131 @@
+package cvurl.usage.common;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free circuit breaker. Outcomes are counted in a tumbling window of windowSize calls, when failure rate
+ * or slow call rate in it reaches the threshold circuit is opened and calls are rejected. After waitInOpen
+ * circuit becomes half-open and lets halfOpenCalls probe calls through: if all of them succeed it is closed
+ * again, any failure opens it once more.
+ * <p>
+ * Calls, failures and slow calls of the window are packed into a single long, so they are updated
+ * with one CAS and are always consistent with each other.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+    private static final long ONE_CALL = 1L;
+    private static final long ONE_FAILURE = 1L << BITS;
+    private static final long ONE_SLOW = 1L << (2 * BITS);
+
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final int windowSize;
+    private final long waitInOpenNanos;
+    private final int halfOpenCalls;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicLong window = new AtomicLong();
+    private final AtomicInteger halfOpenPermits = new AtomicInteger();
+    private final AtomicInteger halfOpenSuccesses = new AtomicInteger();
+    private volatile long openedAt;
+
+    public CircuitBreaker(double failureRateThreshold, double slowCallRateThreshold, Duration slowCallDuration,
+                          int windowSize, Duration waitInOpen, int halfOpenCalls) {
+        if (windowSize <= 0 || windowSize > MASK) {
+            throw new IllegalArgumentException("Window size should be between 1 and " + MASK);
+        }
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.windowSize = windowSize;
+        this.waitInOpenNanos = waitInOpen.toNanos();
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * @return true if call may be executed, in that case its outcome must be reported with {@link #onResult}
+     * or the permission given back with {@link #releasePermission()}
+     */
+    public boolean tryAcquirePermission() {
+        State current = state.get();
+        if (current == State.OPEN) {
+            if (System.nanoTime() - openedAt < waitInOpenNanos) {
+                return false;
+            }
+            if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                halfOpenSuccesses.set(0);
+                halfOpenPermits.set(halfOpenCalls);
+            }
+            current = state.get();
+        }
+        if (current == State.HALF_OPEN) {
+            return halfOpenPermits.getAndUpdate(permits -> permits > 0 ? permits - 1 : 0) > 0;
+        }
+        return current == State.CLOSED;
+    }
+
+    /**
+     * Record outcome of the permitted call.
+     */
+    public void onResult(long durationNanos, boolean success) {
+        boolean slow = durationNanos >= slowCallNanos;
+        State current = state.get();
+
+        if (current == State.HALF_OPEN) {
+            if (!success || slow) {
+                open(State.HALF_OPEN);
+            } else if (halfOpenSuccesses.incrementAndGet() >= halfOpenCalls
+                    && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                window.set(0);
+            }
+            return;
+        }
+        if (current != State.CLOSED) {
+            return;
+        }
+
+        long delta = ONE_CALL + (success ? 0 : ONE_FAILURE) + (slow ? ONE_SLOW : 0);
+        long updated = window.addAndGet(delta);
+        long calls = updated & MASK;
+        if (calls < windowSize) {
+            return;
+        }
+
+        long failures = (updated >>> BITS) & MASK;
+        long slowCalls = (updated >>> (2 * BITS)) & MASK;
+        if (window.compareAndSet(updated, 0)
+                && (failures >= failureRateThreshold * calls || slowCalls >= slowCallRateThreshold * calls)) {
+            open(State.CLOSED);
+        }
+    }
+
+    /**
+     * Give back permission of a call whose outcome tells nothing about upstream health, e.g. one abandoned
+     * at the client deadline. It is counted neither as success nor as failure, in half-open state the probe
+     * is handed to the next call.
+     */
+    public void releasePermission() {
+        if (state.get() == State.HALF_OPEN) {
+            halfOpenPermits.incrementAndGet();
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    private void open(State from) {
+        openedAt = System.nanoTime();
+        state.compareAndSet(from, State.OPEN);
+    }
+}
@@ -0,0 +1,152 @@
+package cvurl.usage.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.PushPromiseHandler;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HttpClient that cVurl is built on, it sends JSON and form bodies of at least minSize bytes compressed with
+ * Content-Encoding: gzip. Smaller bodies are sent as they are, for them the gzip header and CPU time cost more
+ * than the bytes saved. Other content types, e.g. multipart photos that are compressed already, and bodies of
+ * unknown length are never compressed.
+ * <p>
+ * Body is compressed on the sending thread before the request is handed over, upstream has to accept
+ * Content-Encoding: gzip on requests.
+ */
+public class CompressingHttpClient extends ForwardingHttpClient {
+
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String GZIP = "gzip";
+    private static final List<String> COMPRESSIBLE_TYPES = List.of("application/json", "application/x-www-form-urlencoded");
+
+    private final long minSize;
+
+    /**
+     * @param minSize bodies shorter than this number of bytes are not compressed
+     */
+    public CompressingHttpClient(HttpClient delegate, long minSize) {
+        super(delegate);
+        this.minSize = minSize;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        return delegate.send(compress(request), responseBodyHandler);
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> responseBodyHandler,
+                                                            PushPromiseHandler<T> pushPromiseHandler) {
+        HttpRequest compressed;
+        try {
+            compressed = compress(request);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return delegate.sendAsync(compressed, responseBodyHandler, pushPromiseHandler);
+    }
+
+    private HttpRequest compress(HttpRequest request) throws IOException {
+        BodyPublisher body = request.bodyPublisher().orElse(null);
+        if (body == null || body.contentLength() < Math.max(1, minSize)
+                || request.headers().firstValue(CONTENT_ENCODING).isPresent() || !isCompressible(request)) {
+            return request;
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.uri())
+                .method(request.method(), HttpRequest.BodyPublishers.ofByteArray(gzip(body)))
+                .expectContinue(request.expectContinue());
+        request.version().ifPresent(builder::version);
+        request.timeout().ifPresent(builder::timeout);
+        request.headers().map().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+        return builder.header(CONTENT_ENCODING, GZIP).build();
+    }
+
+    private static boolean isCompressible(HttpRequest request) {
+        return request.headers().firstValue(CONTENT_TYPE)
+                .map(type -> type.toLowerCase(Locale.ROOT))
+                .map(type -> COMPRESSIBLE_TYPES.stream().anyMatch(type::startsWith))
+                .orElse(false);
+    }
+
+    /**
+     * Compress everything the publisher emits. Publishers of known length, such as those of String, byte[] or
+     * file bodies, emit their content synchronously when it is requested.
+     */
+    public static byte[] gzip(BodyPublisher body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GzipSubscriber subscriber = new GzipSubscriber(new GZIPOutputStream(compressed));
+        body.subscribe(subscriber);
+        try {
+            subscriber.completion.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Request body can't be compressed", e.getCause());
+        }
+        return compressed.toByteArray();
+    }
+
+    private static final class GzipSubscriber implements Flow.Subscriber<ByteBuffer> {
+
+        private final GZIPOutputStream gzip;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        private GzipSubscriber(GZIPOutputStream gzip) {
+            this.gzip = gzip;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            try {
+                if (item.hasArray()) {
+                    gzip.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+                } else {
+                    byte[] bytes = new byte[item.remaining()];
+                    item.get(bytes);
+                    gzip.write(bytes);
+                }
+            } catch (IOException e) {
+                subscription.cancel();
+                completion.completeExceptionally(new UncheckedIOException(e));
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            completion.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                gzip.close();
+                completion.complete(null);
+            } catch (IOException e) {
+                completion.completeExceptionally(new UncheckedIOException(e));
+            }
+        }
+    }
+}
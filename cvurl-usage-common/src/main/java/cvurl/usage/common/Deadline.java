@@ -0,0 +1,155 @@
+package cvurl.usage.common;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Time budget of one proxied request, bound to the thread handling it.
+ * <p>
+ * Upstream request sent while deadline is bound gets the remaining budget as its timeout and in
+ * {@link #HEADER}, so that upstream work is abandoned once the client stopped waiting, see
+ * {@link LoadBalancingHttpClient}. Code running on other threads on behalf of the request has to bind it again.
+ * Calls shared by several requests, single flight and cache loads, are not bound to the deadline of the request
+ * that started them, {@link SingleFlight} runs them under a shared timeout of its own. Each request only stops
+ * waiting for them at its own deadline with {@link #limit(CompletableFuture)}.
+ * <p>
+ * Deadline may be cancelled once nobody waits for the work done under it. Upstream exchanges sent under it are
+ * registered with {@link #register(CompletableFuture)} and cancelled with it, further ones are not sent at all.
+ * HttpClient aborts a cancelled exchange since JDK 16, on older ones cancelling only releases its waiters.
+ */
+public final class Deadline {
+
+    /**
+     * Incoming and propagated request header, remaining budget in milliseconds.
+     */
+    public static final String HEADER = "X-Request-Timeout";
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long timeoutMillis;
+    private final long deadlineNanos;
+    private final LongAdder exceededCounter;
+    private final AtomicBoolean exceeded = new AtomicBoolean();
+    private final Queue<CompletableFuture<?>> calls = new ConcurrentLinkedQueue<>();
+    private volatile boolean cancelled;
+
+    /**
+     * @param exceededCounter incremented once if this deadline is exceeded
+     */
+    public Deadline(Duration timeout, LongAdder exceededCounter) {
+        this.timeoutMillis = timeout.toMillis();
+        this.deadlineNanos = System.nanoTime() + timeout.toNanos();
+        this.exceededCounter = exceededCounter;
+    }
+
+    /**
+     * @return deadline bound to the current thread or null
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Bind deadline to the current thread, null unbinds.
+     *
+     * @return previously bound deadline, to be restored with another bind
+     */
+    public static Deadline bind(Deadline deadline) {
+        Deadline previous = CURRENT.get();
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+        return previous;
+    }
+
+    /**
+     * Run call with given deadline bound, null runs it without deadline.
+     */
+    public static <T> T with(Deadline deadline, Supplier<T> call) {
+        Deadline previous = bind(deadline);
+        try {
+            return call.get();
+        } finally {
+            bind(previous);
+        }
+    }
+
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Cancel upstream calls registered with this deadline and those registered later, when nobody waits for
+     * their result any more.
+     */
+    public void cancel() {
+        cancelled = true;
+        CompletableFuture<?> call;
+        while ((call = calls.poll()) != null) {
+            call.cancel(true);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Register upstream call sent under this deadline, to be cancelled by {@link #cancel()} until it completes.
+     */
+    public void register(CompletableFuture<?> call) {
+        calls.add(call);
+        call.whenComplete((value, error) -> calls.remove(call));
+        if (cancelled) {
+            cancel();
+        }
+    }
+
+    /**
+     * Count this deadline as exceeded, only the first call counts.
+     *
+     * @return exception to fail the request with
+     */
+    public DeadlineExceededException exceeded() {
+        if (exceeded.compareAndSet(false, true)) {
+            exceededCounter.increment();
+        }
+        return new DeadlineExceededException("Request deadline of " + timeoutMillis + " ms exceeded");
+    }
+
+    /**
+     * Copy of the future that fails with {@link DeadlineExceededException} once deadline passes.
+     * Given future is not cancelled, other requests may wait for it.
+     */
+    public <T> CompletableFuture<T> limit(CompletableFuture<T> future) {
+        if (future.isDone()) {
+            return future;
+        }
+        CompletableFuture<T> limited = new CompletableFuture<>();
+        future.thenApply(value -> value)
+                .orTimeout(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)
+                .whenComplete((value, error) -> {
+                    if (error == null) {
+                        limited.complete(value);
+                    } else if (error instanceof TimeoutException) {
+                        limited.completeExceptionally(exceeded());
+                    } else {
+                        limited.completeExceptionally(error);
+                    }
+                });
+        return limited;
+    }
+}
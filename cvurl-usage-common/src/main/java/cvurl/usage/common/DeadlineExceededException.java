@@ -0,0 +1,11 @@
+package cvurl.usage.common;
+
+/**
+ * Thrown when time budget of the proxied request ran out before upstream answered, see {@link Deadline}.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
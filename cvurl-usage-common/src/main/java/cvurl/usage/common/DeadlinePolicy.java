@@ -0,0 +1,57 @@
+package cvurl.usage.common;
+
+import cvurl.usage.common.UpstreamGuard.Route;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Creates {@link Deadline} of every proxied request and counts exceeded ones per route.
+ * Budget is taken from {@link Deadline#HEADER} of the incoming request, or is the default of its route.
+ */
+public class DeadlinePolicy {
+
+    private final Map<Route, Duration> defaults = new EnumMap<>(Route.class);
+    private final Map<Route, LongAdder> exceeded = new EnumMap<>(Route.class);
+
+    public DeadlinePolicy(Duration usersTimeout, Duration photosTimeout) {
+        defaults.put(Route.USERS, usersTimeout);
+        defaults.put(Route.PHOTOS, photosTimeout);
+        for (Route route : Route.values()) {
+            exceeded.put(route, new LongAdder());
+        }
+    }
+
+    /**
+     * @param path   path of the incoming request
+     * @param header value of {@link Deadline#HEADER}, ignored unless it is a positive number of milliseconds
+     */
+    public Deadline start(String path, String header) {
+        Route route = Route.forPath(path);
+        Duration timeout = defaults.get(route);
+        if (header != null) {
+            try {
+                long millis = Long.parseLong(header.strip());
+                if (millis > 0) {
+                    timeout = Duration.ofMillis(millis);
+                }
+            } catch (NumberFormatException e) {
+                // malformed header, route default is used
+            }
+        }
+        return new Deadline(timeout, exceeded.get(route));
+    }
+
+    public Duration getDefault(Route route) {
+        return defaults.get(route);
+    }
+
+    /**
+     * @return number of requests of the route whose deadline was exceeded
+     */
+    public long getExceededCount(Route route) {
+        return exceeded.get(route).sum();
+    }
+}
@@ -0,0 +1,87 @@
+package cvurl.usage.common;
+
+import cvurl.usage.common.LoadBalancer.Endpoint;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses endpoint of the next upstream call, see {@link LoadBalancer}.
+ */
+public interface EndpointSelector {
+
+    /**
+     * @param endpoints available endpoints, never empty
+     */
+    Endpoint select(List<Endpoint> endpoints);
+
+    /**
+     * Endpoints take turns, the same number of calls goes to each of them.
+     */
+    static EndpointSelector roundRobin() {
+        AtomicInteger next = new AtomicInteger();
+        return endpoints -> endpoints.get(Math.floorMod(next.getAndIncrement(), endpoints.size()));
+    }
+
+    /**
+     * Endpoint with the fewest calls in flight, ties are broken starting from a random endpoint so that
+     * they are not all resolved to the first one.
+     */
+    static EndpointSelector leastOutstanding() {
+        return endpoints -> {
+            int size = endpoints.size();
+            int start = ThreadLocalRandom.current().nextInt(size);
+            Endpoint best = endpoints.get(start);
+            for (int i = 1; i < size; i++) {
+                Endpoint candidate = endpoints.get((start + i) % size);
+                if (candidate.getOutstanding() < best.getOutstanding()) {
+                    best = candidate;
+                }
+            }
+            return best;
+        };
+    }
+
+    /**
+     * Of two random endpoints the one with fewer calls in flight. Close to least outstanding, but stale
+     * counts do not send every concurrent call to the same endpoint, and only two counts are read.
+     */
+    static EndpointSelector powerOfTwoChoices() {
+        return endpoints -> {
+            int size = endpoints.size();
+            if (size == 1) {
+                return endpoints.get(0);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            int second = (first + 1 + random.nextInt(size - 1)) % size;
+            Endpoint a = endpoints.get(first);
+            Endpoint b = endpoints.get(second);
+            return b.getOutstanding() < a.getOutstanding() ? b : a;
+        };
+    }
+
+    enum Type {
+        ROUND_ROBIN {
+            @Override
+            public EndpointSelector create() {
+                return roundRobin();
+            }
+        },
+        LEAST_OUTSTANDING {
+            @Override
+            public EndpointSelector create() {
+                return leastOutstanding();
+            }
+        },
+        POWER_OF_TWO_CHOICES {
+            @Override
+            public EndpointSelector create() {
+                return powerOfTwoChoices();
+            }
+        };
+
+        public abstract EndpointSelector create();
+    }
+}
@@ -0,0 +1,80 @@
+package cvurl.usage.common;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Kind of executor used by HttpClient for asynchronous tasks and dependent actions of cVurl futures.
+ */
+public enum ExecutorType {
+
+    /**
+     * Thread pool with fixed number of threads.
+     */
+    FIXED {
+        @Override
+        protected ExecutorService create(int size) {
+            return Executors.newFixedThreadPool(size, ExecutorType::daemonThread);
+        }
+    },
+
+    /**
+     * Fork-join pool with given parallelism, threads steal tasks from each other's queues.
+     */
+    WORK_STEALING {
+        @Override
+        protected ExecutorService create(int size) {
+            return Executors.newWorkStealingPool(size);
+        }
+    },
+
+    /**
+     * New virtual thread per task, size is ignored. Requires Java 21, on older runtimes falls back to cached thread pool.
+     */
+    VIRTUAL {
+        @Override
+        protected ExecutorService create(int size) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                return Executors.newCachedThreadPool(ExecutorType::daemonThread);
+            }
+        }
+    };
+
+    /**
+     * @param size number of threads, or parallelism level, if it is not positive number of available processors is used
+     */
+    public ExecutorService createExecutor(int size) {
+        return create(size > 0 ? size : Runtime.getRuntime().availableProcessors());
+    }
+
+    protected abstract ExecutorService create(int size);
+
+    /**
+     * @return number of tasks waiting for a thread of executor created by {@link #createExecutor(int)},
+     * always 0 for executors that start a thread per task
+     */
+    public static long queuedTasks(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        if (executor instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool) executor;
+            return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+        }
+        return 0;
+    }
+
+    /**
+     * Same as default HttpClient executor, threads do not prevent JVM from exiting.
+     */
+    private static Thread daemonThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "cvurl-client");
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,164 @@
+package cvurl.usage.common;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.PushPromiseHandler;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * HttpClient that cVurl is built on, it emits {@link UpstreamCallEvent} for every request while the event is
+ * enabled in a running flight recording, e.g. with cvurl.jfc. While it is disabled requests are passed through
+ * untouched, only a check of the event state is added to them.
+ * <p>
+ * Bytes in and queue time are taken from the body subscriber, for streaming body handlers they cover only
+ * the part of the body received before the response is handed over.
+ */
+public class FlightRecorderHttpClient extends ForwardingHttpClient {
+
+    public FlightRecorderHttpClient(HttpClient delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        UpstreamCallEvent event = new UpstreamCallEvent();
+        if (!event.isEnabled()) {
+            return delegate.send(request, responseBodyHandler);
+        }
+        event.begin();
+        CountingBodyHandler<T> handler = new CountingBodyHandler<>(responseBodyHandler);
+        try {
+            HttpResponse<T> response = delegate.send(request, handler);
+            commit(event, request, handler, response, null);
+            return response;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            commit(event, request, handler, null, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> responseBodyHandler,
+                                                            PushPromiseHandler<T> pushPromiseHandler) {
+        UpstreamCallEvent event = new UpstreamCallEvent();
+        if (!event.isEnabled()) {
+            return delegate.sendAsync(request, responseBodyHandler, pushPromiseHandler);
+        }
+        event.begin();
+        CountingBodyHandler<T> handler = new CountingBodyHandler<>(responseBodyHandler);
+        CompletableFuture<HttpResponse<T>> response;
+        try {
+            response = delegate.sendAsync(request, handler, pushPromiseHandler);
+        } catch (RuntimeException e) {
+            commit(event, request, handler, null, e);
+            throw e;
+        }
+        return response.whenComplete((value, error) -> commit(event, request, handler, value, error));
+    }
+
+    private static void commit(UpstreamCallEvent event, HttpRequest request, CountingBodyHandler<?> handler,
+                               HttpResponse<?> response, Throwable error) {
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        URI uri = response == null ? request.uri() : response.uri();
+        event.method = request.method();
+        event.uriTemplate = uriTemplate(request.uri().getRawPath());
+        event.endpoint = uri.getScheme() + "://" + uri.getRawAuthority();
+        if (response != null) {
+            event.status = response.statusCode();
+        }
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            event.error = cause.getClass().getName();
+        }
+        event.bytesOut = request.bodyPublisher().map(BodyPublisher::contentLength).orElse(0L);
+        event.bytesIn = handler.bytes;
+        if (handler.receivedAt != 0) {
+            event.queueTime = Math.max(0, System.nanoTime() - handler.receivedAt);
+        }
+        event.commit();
+    }
+
+    /**
+     * @return path with numeric segments replaced by {id}, e.g. /users/{id} for /users/1
+     */
+    private static String uriTemplate(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        String[] segments = path.split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (!segments[i].isEmpty() && segments[i].chars().allMatch(Character::isDigit)) {
+                segments[i] = "{id}";
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    /**
+     * Counts bytes of the response body and notes when the body was received.
+     */
+    private static final class CountingBodyHandler<T> implements BodyHandler<T> {
+
+        private final BodyHandler<T> delegate;
+        // written only by the single subscriber of the response body
+        private volatile long bytes;
+        private volatile long receivedAt;
+
+        private CountingBodyHandler(BodyHandler<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public BodySubscriber<T> apply(ResponseInfo responseInfo) {
+            BodySubscriber<T> subscriber = delegate.apply(responseInfo);
+            return new BodySubscriber<>() {
+                @Override
+                public CompletionStage<T> getBody() {
+                    return subscriber.getBody();
+                }
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscriber.onSubscribe(subscription);
+                }
+
+                @Override
+                public void onNext(List<ByteBuffer> items) {
+                    long received = 0;
+                    for (ByteBuffer item : items) {
+                        received += item.remaining();
+                    }
+                    bytes += received;
+                    subscriber.onNext(items);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    subscriber.onError(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    receivedAt = System.nanoTime();
+                    subscriber.onComplete();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package cvurl.usage.common;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Hedging policy for idempotent requests. If request has not completed after a delay equal to the configured
+ * percentile of recently observed latencies, a duplicate request is sent, whichever completes first wins and
+ * the other one is cancelled. Number of duplicates is limited by a token bucket: every request adds budget tokens,
+ * a duplicate takes one, and the balance is capped at maxBurst, so a quiet period does not save up credit for
+ * more than maxBurst duplicates in a row.
+ * <p>
+ * Latency of every attempt is sampled from its own start, the losing one included: it is cancelled when the
+ * other one wins, and time until then is recorded as its latency, so that the percentile is not computed from
+ * the winners only.
+ * <p>
+ * Must only be used for idempotent requests, both copies may reach upstream.
+ */
+public class HedgedRequests {
+
+    private static final int SAMPLES = 1024;
+    private static final int RECALCULATE_EVERY = 64;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final double budget;
+    private final double maxBurst;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLongArray latencies = new AtomicLongArray(SAMPLES);
+    private final AtomicLong samplesCount = new AtomicLong();
+    private volatile long hedgeDelayNanos;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private double tokens;
+
+    /**
+     * @param enabled      when false requests are executed as is
+     * @param percentile   latency percentile after which duplicate is sent, e.g. 0.95
+     * @param budget       max ratio of duplicates to all requests, e.g. 0.05 for at most 5% extra load
+     * @param maxBurst     max number of duplicates the unused budget may add up to
+     * @param initialDelay delay used until enough latencies are observed
+     */
+    public HedgedRequests(boolean enabled, double percentile, double budget, int maxBurst, Duration initialDelay) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("Percentile should be between 0 and 1");
+        }
+        if (budget < 0 || budget > 1) {
+            throw new IllegalArgumentException("Budget should be between 0 and 1");
+        }
+        if (maxBurst < 1) {
+            throw new IllegalArgumentException("Max burst should be at least 1");
+        }
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.budget = budget;
+        this.maxBurst = maxBurst;
+        this.hedgeDelayNanos = initialDelay.toNanos();
+        this.scheduler = enabled ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hedged-requests");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Execute asynchronous call, hedging it if it is slow, and wait for the result.
+     * Exception thrown by the call is rethrown unwrapped.
+     */
+    public <T> T execute(Supplier<CompletableFuture<T>> call) {
+        try {
+            return executeAsync(call).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+
+        requests.increment();
+        deposit();
+        Deadline deadline = Deadline.current();
+        long start = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+
+        CompletableFuture<T> primary = call.get();
+        subscribe(primary, result, pending, start, false);
+
+        ScheduledFuture<?> hedgeTask = scheduler.schedule(() -> {
+            if (result.isDone() || !tryAcquireHedge()) {
+                return;
+            }
+            pending.incrementAndGet();
+            long hedgeStart = System.nanoTime();
+            CompletableFuture<T> hedge = Deadline.with(deadline, call);
+            subscribe(hedge, result, pending, hedgeStart, true);
+            result.whenComplete((value, error) -> hedge.cancel(true));
+        }, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+
+        result.whenComplete((value, error) -> {
+            hedgeTask.cancel(false);
+            primary.cancel(true);
+        });
+        return result;
+    }
+
+    private <T> void subscribe(CompletableFuture<T> attempt, CompletableFuture<T> result, AtomicInteger pending,
+                               long start, boolean hedge) {
+        attempt.whenComplete((value, error) -> {
+            if (error == null) {
+                recordLatency(System.nanoTime() - start);
+                if (result.complete(value) && hedge) {
+                    hedgeWins.increment();
+                }
+            } else if (error instanceof CancellationException && result.isDone()) {
+                // lost to the other attempt, it would have taken at least this long
+                recordLatency(System.nanoTime() - start);
+            } else if (pending.decrementAndGet() == 0) {
+                // fail only when no other attempt can still succeed
+                result.completeExceptionally(error);
+            }
+        });
+    }
+
+    private synchronized void deposit() {
+        tokens = Math.min(tokens + budget, maxBurst);
+    }
+
+    private synchronized boolean tryAcquireHedge() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        hedges.increment();
+        return true;
+    }
+
+    private void recordLatency(long nanos) {
+        long sample = samplesCount.getAndIncrement();
+        latencies.set((int) (sample % SAMPLES), nanos);
+        if (sample >= RECALCULATE_EVERY && sample % RECALCULATE_EVERY == 0) {
+            long[] snapshot = new long[(int) Math.min(sample + 1, SAMPLES)];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = latencies.get(i);
+            }
+            Arrays.sort(snapshot);
+            hedgeDelayNanos = snapshot[(int) (percentile * (snapshot.length - 1))];
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Duration getHedgeDelay() {
+        return Duration.ofNanos(hedgeDelayNanos);
+    }
+
+    public long getRequestsCount() {
+        return requests.sum();
+    }
+
+    public long getHedgesCount() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return number of requests where duplicate completed before the original one
+     */
+    public long getHedgeWinsCount() {
+        return hedgeWins.sum();
+    }
+}
@@ -0,0 +1,63 @@
+package cvurl.usage.common;
+
+import cvurl.usage.common.UpstreamGuard.Route;
+import cvurl.usage.common.UpstreamMetrics.Outcome;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.PushPromiseHandler;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HttpClient that cVurl is built on, it reports every request to {@link UpstreamMetrics}. Call is over once the
+ * response body is received by its body handler, before cVurl maps it, for streaming body handlers once headers
+ * are received.
+ */
+public class InstrumentedHttpClient extends ForwardingHttpClient {
+
+    private final UpstreamMetrics metrics;
+
+    public InstrumentedHttpClient(HttpClient delegate, UpstreamMetrics metrics) {
+        super(delegate);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        Route route = Route.forPath(request.uri().getPath());
+        metrics.callStarted(route);
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            HttpResponse<T> response = delegate.send(request, responseBodyHandler);
+            outcome = Outcome.of(response.statusCode());
+            return response;
+        } catch (IOException | RuntimeException e) {
+            outcome = Outcome.of(e);
+            throw e;
+        } finally {
+            metrics.callCompleted(route, outcome, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> responseBodyHandler,
+                                                            PushPromiseHandler<T> pushPromiseHandler) {
+        Route route = Route.forPath(request.uri().getPath());
+        metrics.callStarted(route);
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<T>> response;
+        try {
+            response = delegate.sendAsync(request, responseBodyHandler, pushPromiseHandler);
+        } catch (RuntimeException e) {
+            metrics.callCompleted(route, Outcome.of(e), System.nanoTime() - start);
+            throw e;
+        }
+        return response.whenComplete((value, error) -> metrics.callCompleted(route,
+                error == null ? Outcome.of(value.statusCode()) : Outcome.of(error), System.nanoTime() - start));
+    }
+}
@@ -0,0 +1,199 @@
+package cvurl.usage.common;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Client side load balancing over several instances of one upstream service.
+ * <p>
+ * Endpoint of every call is chosen by {@link EndpointSelector} among endpoints that passed their last active
+ * health check and are not ejected. Endpoint whose calls fail consecutiveFailures times in a row (5xx, timeout or
+ * connection error) is ejected for baseEjectionTime times number of its ejections in a row, at most
+ * maxEjectionPercent of endpoints are ejected at a time, rounded down but at least one endpoint of several unless
+ * the percent is zero. Single endpoint is never ejected. When no endpoint is available all of them are candidates,
+ * so that calls fail on the upstream instead of being rejected here.
+ */
+public class LoadBalancer implements AutoCloseable {
+
+    private static final System.Logger logger = System.getLogger(LoadBalancer.class.getName());
+    private static final int MAX_EJECTION_MULTIPLIER = 10;
+
+    private final List<Endpoint> endpoints;
+    private final EndpointSelector selector;
+    private final int consecutiveFailures;
+    private final long baseEjectionNanos;
+    private final int maxEjected;
+    private final ScheduledExecutorService healthChecks;
+
+    /**
+     * @param endpoints           scheme, host and port of every instance, e.g. http://localhost:7001
+     * @param healthCheckPath     path requested by active health checks, endpoint is healthy while it responds 2xx
+     * @param healthCheckInterval time between health checks of an endpoint, zero disables them
+     * @param healthCheckTimeout  time limit of one health check, should be less than the interval
+     * @param consecutiveFailures number of failed calls in a row that ejects endpoint
+     * @param baseEjectionTime    ejection time of the first ejection, it grows with every ejection in a row
+     * @param maxEjectionPercent  max share of endpoints ejected at a time, at least one of several unless zero
+     */
+    public LoadBalancer(List<URI> endpoints, EndpointSelector selector, String healthCheckPath,
+                        Duration healthCheckInterval, Duration healthCheckTimeout, int consecutiveFailures,
+                        Duration baseEjectionTime, int maxEjectionPercent) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one upstream endpoint is required");
+        }
+        this.endpoints = endpoints.stream().map(Endpoint::new).collect(Collectors.toUnmodifiableList());
+        this.selector = selector;
+        this.consecutiveFailures = consecutiveFailures;
+        this.baseEjectionNanos = baseEjectionTime.toNanos();
+        // with a small percent of few endpoints the share rounds down to none, eject at least one of them
+        this.maxEjected = endpoints.size() > 1 && maxEjectionPercent > 0
+                ? Math.max(1, endpoints.size() * maxEjectionPercent / 100)
+                : 0;
+
+        if (healthCheckInterval.isZero()) {
+            this.healthChecks = null;
+        } else {
+            this.healthChecks = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "upstream-health-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            HttpClient client = HttpClient.newBuilder()
+                    .connectTimeout(healthCheckTimeout)
+                    .build();
+            for (Endpoint endpoint : this.endpoints) {
+                HttpRequest request = HttpRequest.newBuilder(endpoint.uri.resolve(healthCheckPath))
+                        .timeout(healthCheckTimeout)
+                        .build();
+                healthChecks.scheduleWithFixedDelay(() -> check(client, request, endpoint),
+                        0, healthCheckInterval.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Choose endpoint of a call, the call must be reported with {@link #release(Endpoint, boolean)}.
+     */
+    public Endpoint acquire() {
+        Endpoint endpoint = endpoints.size() == 1 ? endpoints.get(0) : selector.select(available());
+        endpoint.outstanding.incrementAndGet();
+        return endpoint;
+    }
+
+    /**
+     * @param failed whether the call failed with 5xx, timeout or connection error
+     */
+    public void release(Endpoint endpoint, boolean failed) {
+        endpoint.outstanding.decrementAndGet();
+        if (!failed) {
+            endpoint.failures.set(0);
+            if (!endpoint.isEjected()) {
+                endpoint.ejections.set(0);
+            }
+        } else if (endpoint.failures.incrementAndGet() >= consecutiveFailures) {
+            eject(endpoint);
+        }
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    @Override
+    public void close() {
+        if (healthChecks != null) {
+            healthChecks.shutdownNow();
+        }
+    }
+
+    private List<Endpoint> available() {
+        long now = System.nanoTime();
+        List<Endpoint> available = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.healthy && !endpoint.isEjected(now)) {
+                available.add(endpoint);
+            }
+        }
+        return available.isEmpty() ? endpoints : available;
+    }
+
+    private synchronized void eject(Endpoint endpoint) {
+        long now = System.nanoTime();
+        if (endpoint.isEjected(now) || endpoints.stream().filter(e -> e.isEjected(now)).count() >= maxEjected) {
+            return;
+        }
+        int multiplier = Math.min(endpoint.ejections.incrementAndGet(), MAX_EJECTION_MULTIPLIER);
+        endpoint.ejectedUntil = now + baseEjectionNanos * multiplier;
+        endpoint.ejected = true;
+        endpoint.failures.set(0);
+        logger.log(System.Logger.Level.WARNING, "Ejected upstream {0} for {1} ms after {2} failed calls in a row",
+                endpoint.uri, TimeUnit.NANOSECONDS.toMillis(baseEjectionNanos * multiplier), consecutiveFailures);
+    }
+
+    private void check(HttpClient client, HttpRequest request, Endpoint endpoint) {
+        client.sendAsync(request, BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    boolean healthy = error == null && response.statusCode() / 100 == 2;
+                    if (healthy != endpoint.healthy) {
+                        endpoint.healthy = healthy;
+                        logger.log(System.Logger.Level.WARNING, "Upstream {0} is {1}", endpoint.uri,
+                                healthy ? "healthy" : "unhealthy");
+                    }
+                });
+    }
+
+    public static final class Endpoint {
+
+        private final URI uri;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger ejections = new AtomicInteger();
+        private volatile boolean healthy = true;
+        private volatile boolean ejected;
+        private volatile long ejectedUntil;
+
+        private Endpoint(URI uri) {
+            this.uri = uri;
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        /**
+         * @return number of calls in flight
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * @return result of the last active health check, true until the first one completes
+         */
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public boolean isEjected() {
+            return isEjected(System.nanoTime());
+        }
+
+        private boolean isEjected(long now) {
+            return ejected && now - ejectedUntil < 0;
+        }
+
+        @Override
+        public String toString() {
+            return uri.toString();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package cvurl.usage.common;
+
+import cvurl.usage.common.LoadBalancer.Endpoint;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.PushPromiseHandler;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * HttpClient that cVurl is built on, it sends requests to the service address to an endpoint chosen by
+ * {@link LoadBalancer}, e.g. with service http://localhost:7000 request http://localhost:7000/users/1 may go to
+ * http://localhost:7001/users/1. Requests to other hosts and ports are sent as they are, so callers keep using
+ * the real base URL of the service and only the balancer knows about its instances.
+ * <p>
+ * Response with 5xx status and timeout or connection error count as failed calls of the endpoint. Call of
+ * streaming body handler is over once headers are received, time of reading the body is not accounted.
+ * <p>
+ * If {@link Deadline} is bound to the sending thread, request timeout is cut to its remaining budget, which is
+ * also propagated in {@link Deadline#HEADER}. Request is not sent at all once deadline has passed. Timeout caused
+ * by the deadline fails with {@link DeadlineExceededException} and is not held against the endpoint.
+ * Asynchronous exchange is registered with the deadline, so that cancelling the deadline cancels it, see
+ * {@link Deadline#cancel()}.
+ */
+public class LoadBalancingHttpClient extends ForwardingHttpClient {
+
+    private static final int SERVER_ERROR = 500;
+
+    private final String serviceHost;
+    private final int servicePort;
+    private final LoadBalancer loadBalancer;
+
+    /**
+     * @param service scheme, host and port of the balanced service, e.g. http://localhost:7000
+     */
+    public LoadBalancingHttpClient(HttpClient delegate, URI service, LoadBalancer loadBalancer) {
+        super(delegate);
+        this.serviceHost = service.getHost();
+        this.servicePort = port(service);
+        this.loadBalancer = loadBalancer;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        Deadline deadline = Deadline.current();
+        boolean balanced = isBalanced(request);
+        if (!balanced && deadline == null) {
+            return delegate.send(request, responseBodyHandler);
+        }
+        if (deadline != null && deadline.isExpired()) {
+            throw deadline.exceeded();
+        }
+        Endpoint endpoint = balanced ? loadBalancer.acquire() : null;
+        Upstream upstream = new Upstream(request, endpoint, deadline);
+        boolean failed = false;
+        try {
+            HttpResponse<T> response = delegate.send(upstream.request, responseBodyHandler);
+            failed = response.statusCode() >= SERVER_ERROR;
+            return response;
+        } catch (HttpTimeoutException e) {
+            if (upstream.limitedByDeadline) {
+                throw deadline.exceeded();
+            }
+            failed = true;
+            throw e;
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        } finally {
+            if (endpoint != null) {
+                loadBalancer.release(endpoint, failed);
+            }
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> responseBodyHandler,
+                                                            PushPromiseHandler<T> pushPromiseHandler) {
+        Deadline deadline = Deadline.current();
+        boolean balanced = isBalanced(request);
+        if (!balanced && deadline == null) {
+            return delegate.sendAsync(request, responseBodyHandler, pushPromiseHandler);
+        }
+        if (deadline != null && deadline.isCancelled()) {
+            return CompletableFuture.failedFuture(new CancellationException("Upstream call abandoned"));
+        }
+        if (deadline != null && deadline.isExpired()) {
+            return CompletableFuture.failedFuture(deadline.exceeded());
+        }
+        Endpoint endpoint = balanced ? loadBalancer.acquire() : null;
+        Upstream upstream = new Upstream(request, endpoint, deadline);
+        CompletableFuture<HttpResponse<T>> response;
+        try {
+            response = delegate.sendAsync(upstream.request, responseBodyHandler, pushPromiseHandler);
+        } catch (RuntimeException e) {
+            if (endpoint != null) {
+                loadBalancer.release(endpoint, false);
+            }
+            throw e;
+        }
+        if (deadline != null) {
+            deadline.register(response);
+        }
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        response.whenComplete((value, error) -> {
+            Throwable cause = error == null ? null : unwrap(error);
+            boolean deadlineExceeded = cause instanceof HttpTimeoutException && upstream.limitedByDeadline;
+            if (endpoint != null) {
+                loadBalancer.release(endpoint, cause == null
+                        ? value.statusCode() >= SERVER_ERROR
+                        : cause instanceof IOException && !deadlineExceeded);
+            }
+            if (cause == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(deadlineExceeded ? deadline.exceeded() : cause);
+            }
+        });
+        return result;
+    }
+
+    private boolean isBalanced(HttpRequest request) {
+        URI uri = request.uri();
+        return serviceHost.equalsIgnoreCase(uri.getHost()) && servicePort == port(uri);
+    }
+
+    private static int port(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Same request with scheme, host and port of the endpoint if it is balanced, and timeout of the deadline
+     * if it is shorter than timeout of the request.
+     */
+    private static final class Upstream {
+
+        private final HttpRequest request;
+        private final boolean limitedByDeadline;
+
+        private Upstream(HttpRequest request, Endpoint endpoint, Deadline deadline) {
+            URI uri = request.uri();
+            if (endpoint != null) {
+                URI target = endpoint.getUri();
+                String query = uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery();
+                uri = URI.create(target.getScheme() + "://" + target.getRawAuthority() + uri.getRawPath() + query);
+            }
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                    .method(request.method(), request.bodyPublisher().orElseGet(HttpRequest.BodyPublishers::noBody))
+                    .expectContinue(request.expectContinue());
+            request.version().ifPresent(builder::version);
+            request.headers().map().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+
+            Duration remaining = deadline == null ? null : deadline.remaining();
+            this.limitedByDeadline = remaining != null
+                    && request.timeout().map(timeout -> remaining.compareTo(timeout) < 0).orElse(true);
+            if (limitedByDeadline) {
+                builder.timeout(Duration.ofNanos(Math.max(1, remaining.toNanos())));
+            } else {
+                request.timeout().ifPresent(builder::timeout);
+            }
+            if (remaining != null) {
+                builder.setHeader(Deadline.HEADER, String.valueOf(Math.max(1, remaining.toMillis())));
+            }
+            this.request = builder.build();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package cvurl.usage.common;
+
+import cvurl.usage.common.UpstreamMetrics.Operation;
+import coresearch.cvurl.io.exception.MappingException;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Times one read or write of a body by a cVurl mapper. Time is reported to {@link UpstreamMetrics} and, while it is
+ * enabled in a flight recording, as {@link UpstreamMappingEvent}. IOException of the call is rethrown as
+ * {@link MappingException}.
+ */
+public final class MappingTimer {
+
+    @FunctionalInterface
+    public interface MappingCall<T> {
+        T call() throws IOException;
+    }
+
+    private MappingTimer() {
+    }
+
+    public static <T> T time(UpstreamMetrics metrics, Operation operation, Type type, MappingCall<T> call) {
+        UpstreamMappingEvent event = new UpstreamMappingEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            return call.call();
+        } catch (IOException e) {
+            throw new MappingException(e.getMessage(), e);
+        } finally {
+            metrics.mapped(operation, System.nanoTime() - start);
+            event.commit(operation == Operation.READ ? "read" : "write", type);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package cvurl.usage.common;
+
+import cvurl.usage.common.UpstreamGuard.Route;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link UpstreamMetrics} recorded as Micrometer meters:
+ * <ul>
+ * <li>upstream.calls - timer with percentile histogram per route and outcome</li>
+ * <li>upstream.calls.active - gauge of calls in flight per route</li>
+ * <li>upstream.mapping - timer with percentile histogram of reading and writing bodies</li>
+ * </ul>
+ * Meters are registered up front, recording a call looks up no meter by name and tags.
+ */
+public class MicrometerUpstreamMetrics implements UpstreamMetrics {
+
+    private final Map<Route, Map<Outcome, Timer>> calls = new EnumMap<>(Route.class);
+    private final Map<Route, AtomicInteger> active = new EnumMap<>(Route.class);
+    private final Map<Operation, Timer> mappings = new EnumMap<>(Operation.class);
+
+    public MicrometerUpstreamMetrics(MeterRegistry registry) {
+        for (Route route : Route.values()) {
+            String routeTag = route.name().toLowerCase();
+            Map<Outcome, Timer> timers = new EnumMap<>(Outcome.class);
+            for (Outcome outcome : Outcome.values()) {
+                timers.put(outcome, Timer.builder("upstream.calls")
+                        .tag("route", routeTag)
+                        .tag("outcome", outcome.name())
+                        .publishPercentileHistogram()
+                        .register(registry));
+            }
+            calls.put(route, timers);
+            active.put(route, registry.gauge("upstream.calls.active", Tags.of("route", routeTag), new AtomicInteger()));
+        }
+        for (Operation operation : Operation.values()) {
+            mappings.put(operation, Timer.builder("upstream.mapping")
+                    .tag("operation", operation.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+    }
+
+    @Override
+    public void callStarted(Route route) {
+        active.get(route).incrementAndGet();
+    }
+
+    @Override
+    public void callCompleted(Route route, Outcome outcome, long nanos) {
+        active.get(route).decrementAndGet();
+        calls.get(route).get(outcome).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void mapped(Operation operation, long nanos) {
+        mappings.get(operation).record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
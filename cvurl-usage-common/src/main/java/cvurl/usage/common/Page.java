@@ -0,0 +1,20 @@
+package cvurl.usage.common;
+
+import java.util.List;
+
+/**
+ * One page of a paginated upstream list, as walked by {@link UsersSpliterator}.
+ *
+ * @param <T> type of the listed elements
+ */
+public interface Page<T> {
+
+    List<T> getData();
+
+    /**
+     * @return number of pages of the whole list, null if upstream does not tell
+     */
+    Integer getTotalPages();
+
+    Integer getPerPage();
+}
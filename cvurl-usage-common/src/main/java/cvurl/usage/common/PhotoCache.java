@@ -0,0 +1,430 @@
+package cvurl.usage.common;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of proxied photos with bodies kept off-heap, so cached bytes are neither scanned nor copied by GC.
+ * All bodies live in one direct slab of capacity bytes allocated up front and split into fixed pages, which is a
+ * hard bound of the direct memory the cache uses. Entries are evicted by W-TinyLFU (LRU window in front of
+ * frequency filtered main space) once they weigh capacity less max entry size, so that pages are left for photos
+ * being stored and for evicted photos still being written to clients. Photo which finds no free pages is not cached.
+ * <p>
+ * Entry of a title is valid only for the upstream ETag it was stored with. For freshFor after it was stored or last
+ * revalidated it is served without asking upstream, after that controllers revalidate it with If-None-Match and
+ * serve it on NOT_MODIFIED, photo with another ETag replaces it.
+ * Entries are reference counted, pages of replaced or evicted entry return to the slab once no response
+ * is writing it anymore.
+ * <p>
+ * Servlet and JAX-RS responses are written from byte arrays only, so Spring and Quarkus copy cached body from
+ * the pages through the transfer buffer of {@link InputStream#transferTo} a chunk at a time, the photo as a whole
+ * is never on heap. Micronaut hands the pages to Netty as they are, without copying.
+ */
+public class PhotoCache {
+
+    private final PagePool pool;
+    private final long maxEntryBytes;
+    private final long freshForNanos;
+    private final Cache<String, CachedPhoto> cache;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param capacityBytes max total size of photo bodies, allocated off-heap up front
+     * @param maxEntryBytes photos larger than this are not cached
+     * @param pageBytes     size of the pages bodies are stored in, last page of every body is partly wasted
+     * @param freshFor      time after storing or revalidation a photo is served without revalidation
+     */
+    public PhotoCache(long capacityBytes, long maxEntryBytes, int pageBytes, Duration freshFor) {
+        if (pageBytes <= 0 || capacityBytes > Integer.MAX_VALUE || maxEntryBytes >= capacityBytes) {
+            throw new IllegalArgumentException("Photo cache capacity " + capacityBytes + " must fit in a direct buffer"
+                    + " and exceed max entry size " + maxEntryBytes + ", page size " + pageBytes + " must be positive");
+        }
+        this.pool = new PagePool((int) (capacityBytes / pageBytes), pageBytes);
+        this.maxEntryBytes = maxEntryBytes;
+        this.freshForNanos = freshFor.toNanos();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(capacityBytes - maxEntryBytes)
+                .weigher((String title, CachedPhoto photo) -> photo.pages.length * pageBytes)
+                // eviction and removal run on the caller, so pages are back as soon as cache gives them up
+                .executor(Runnable::run)
+                .removalListener((String title, CachedPhoto photo, RemovalCause cause) -> photo.release())
+                .build();
+    }
+
+    /**
+     * @return cached photo or null, unless {@link CachedPhoto#isFresh()} it has to be revalidated with its ETag.
+     * Returned photo is retained, so its pages stay valid until caller calls {@link CachedPhoto#release()}.
+     */
+    public CachedPhoto get(String title) {
+        CachedPhoto photo = cache.getIfPresent(title);
+        return photo != null && photo.tryRetain() ? photo : null;
+    }
+
+    /**
+     * Wrap upstream body so that photo is stored as it is streamed to the client. Photo is stored once body
+     * is read to the end, photo without ETag or length, larger than max entry size, or finding no free pages,
+     * is not stored. Pages of a photo which is not stored are returned when the stream ends or is closed.
+     *
+     * @param etag   upstream ETag, may be null
+     * @param length upstream Content-Length, negative if unknown
+     */
+    public InputStream caching(String title, String etag, String contentType, long length, InputStream body) {
+        if (etag == null || length < 0 || length > maxEntryBytes) {
+            return body;
+        }
+        int[] pages = pool.allocate(pool.pagesFor((int) length));
+        if (pages == null) {
+            rejected.increment();
+            return body;
+        }
+        CachedPhoto photo = new CachedPhoto(pool, etag, contentType, pages, (int) length, freshForNanos);
+        return new CachingInputStream(body, photo, () -> cache.put(title, photo));
+    }
+
+    public void invalidate(String title) {
+        cache.invalidate(title);
+    }
+
+    /**
+     * @return bytes of the slab not held by cached photos, photos being stored or photos being written
+     */
+    public long getFreeBytes() {
+        return (long) pool.getFreePages() * pool.pageBytes;
+    }
+
+    /**
+     * @return number of photos which were not stored because no pages were free
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public static final class CachedPhoto {
+
+        private final PagePool pool;
+        private final String etag;
+        private final String contentType;
+        private final int[] pages;
+        private final int size;
+        private final long freshForNanos;
+        private volatile long validatedAt = System.nanoTime();
+        /**
+         * Reference of the cache plus one per response or stream using the pages, 0 once pages are returned.
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private CachedPhoto(PagePool pool, String etag, String contentType, int[] pages, int size,
+                            long freshForNanos) {
+            this.pool = pool;
+            this.etag = etag;
+            this.contentType = contentType;
+            this.pages = pages;
+            this.size = size;
+            this.freshForNanos = freshForNanos;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return true if photo may be served without revalidating its ETag
+         */
+        public boolean isFresh() {
+            return System.nanoTime() - validatedAt < freshForNanos;
+        }
+
+        /**
+         * Upstream confirmed the ETag, photo is fresh again.
+         */
+        public void revalidated() {
+            validatedAt = System.nanoTime();
+        }
+
+        /**
+         * @return read-only views of the off-heap body in order, valid while photo is retained
+         */
+        public ByteBuffer[] getContent() {
+            ByteBuffer[] content = views();
+            for (int i = 0; i < content.length; i++) {
+                content[i] = content[i].asReadOnlyBuffer();
+            }
+            return content;
+        }
+
+        /**
+         * Stream over the off-heap body, retaining the photo until the stream is closed.
+         */
+        public InputStream openStream() {
+            retain();
+            return new PagesInputStream(this);
+        }
+
+        /**
+         * Take one more reference of a photo already retained by the caller.
+         */
+        public void retain() {
+            if (!tryRetain()) {
+                throw new IllegalStateException("Photo " + etag + " was already released");
+            }
+        }
+
+        public void release() {
+            if (references.decrementAndGet() == 0) {
+                pool.free(pages);
+            }
+        }
+
+        /**
+         * @return writable views of the pages, each limited to the part of the body it holds
+         */
+        private ByteBuffer[] views() {
+            ByteBuffer[] content = new ByteBuffer[pages.length];
+            int remaining = size;
+            for (int i = 0; i < pages.length; i++) {
+                ByteBuffer page = pool.page(pages[i]);
+                page.limit(Math.min(remaining, page.capacity()));
+                remaining -= page.limit();
+                content[i] = page;
+            }
+            return content;
+        }
+
+        private boolean tryRetain() {
+            int current;
+            do {
+                current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(current, current + 1));
+            return true;
+        }
+    }
+
+    /**
+     * Fixed pages of one direct slab, free pages are kept as a stack of their indexes.
+     */
+    private static final class PagePool {
+
+        private final ByteBuffer slab;
+        private final int pageBytes;
+        private final int[] free;
+        private int freeCount;
+
+        private PagePool(int pageCount, int pageBytes) {
+            this.slab = ByteBuffer.allocateDirect(pageCount * pageBytes);
+            this.pageBytes = pageBytes;
+            this.free = new int[pageCount];
+            for (int i = 0; i < pageCount; i++) {
+                free[i] = pageCount - 1 - i;
+            }
+            this.freeCount = pageCount;
+        }
+
+        private int pagesFor(int bytes) {
+            return Math.max(1, (bytes + pageBytes - 1) / pageBytes);
+        }
+
+        /**
+         * @return indexes of the pages or null if fewer are free
+         */
+        private synchronized int[] allocate(int count) {
+            if (count > freeCount) {
+                return null;
+            }
+            int[] pages = new int[count];
+            for (int i = 0; i < count; i++) {
+                pages[i] = free[--freeCount];
+            }
+            return pages;
+        }
+
+        private synchronized void free(int[] pages) {
+            for (int page : pages) {
+                free[freeCount++] = page;
+            }
+        }
+
+        private synchronized int getFreePages() {
+            return freeCount;
+        }
+
+        private ByteBuffer page(int index) {
+            return slab.duplicate().position(index * pageBytes).limit((index + 1) * pageBytes).slice();
+        }
+    }
+
+    private static final class PagesInputStream extends InputStream {
+
+        private final CachedPhoto photo;
+        private final ByteBuffer[] content;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private int current;
+
+        private PagesInputStream(CachedPhoto photo) {
+            this.photo = photo;
+            this.content = photo.getContent();
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer page = page();
+            return page == null ? -1 : page.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            ByteBuffer page = page();
+            if (page == null) {
+                return -1;
+            }
+            int count = Math.min(length, page.remaining());
+            page.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            ByteBuffer page = page();
+            return page == null ? 0 : page.remaining();
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                photo.release();
+            }
+        }
+
+        /**
+         * @return page with bytes left or null at the end of the body
+         */
+        private ByteBuffer page() {
+            if (closed.get()) {
+                return null;
+            }
+            while (current < content.length && !content[current].hasRemaining()) {
+                current++;
+            }
+            return current < content.length ? content[current] : null;
+        }
+    }
+
+    /**
+     * Copies every byte read into the pages of the photo, stores it once the stream ends with every page filled.
+     * Photo which is not stored releases its pages when the stream ends or is closed.
+     */
+    private static final class CachingInputStream extends FilterInputStream {
+
+        private final CachedPhoto photo;
+        private final Runnable store;
+        private final ByteBuffer[] content;
+        private int current;
+        private boolean copying = true;
+        private boolean done;
+
+        private CachingInputStream(InputStream in, CachedPhoto photo, Runnable store) {
+            super(in);
+            this.photo = photo;
+            this.store = store;
+            this.content = photo.views();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value < 0) {
+                complete();
+            } else {
+                copy(new byte[]{(byte) value}, 0, 1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int count = super.read(bytes, offset, length);
+            if (count < 0) {
+                complete();
+            } else {
+                copy(bytes, offset, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes would be missing from the cached body
+            copying = false;
+            return super.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                finish(false);
+            }
+        }
+
+        private void copy(byte[] bytes, int offset, int count) {
+            while (copying && count > 0) {
+                while (current < content.length && !content[current].hasRemaining()) {
+                    current++;
+                }
+                if (current == content.length) {
+                    // body is longer than its Content-Length
+                    copying = false;
+                    return;
+                }
+                int chunk = Math.min(count, content[current].remaining());
+                content[current].put(bytes, offset, chunk);
+                offset += chunk;
+                count -= chunk;
+            }
+        }
+
+        private void complete() {
+            int copied = 0;
+            for (ByteBuffer page : content) {
+                copied += page.position();
+            }
+            finish(copying && copied == photo.getSize());
+        }
+
+        private void finish(boolean complete) {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (complete) {
+                store.run();
+            } else {
+                photo.release();
+            }
+        }
+    }
+}
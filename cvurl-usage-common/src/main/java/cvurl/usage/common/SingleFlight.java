@@ -0,0 +1,259 @@
+package cvurl.usage.common;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical requests: the first caller for a key executes the request, every caller
+ * that arrives while it is in flight waits on the same {@link CompletableFuture} and gets the same result.
+ * Nothing is cached, the key is released as soon as the request completes.
+ * <p>
+ * Asynchronous request is not only the first caller's, so it does not run under the first caller's {@link Deadline}.
+ * Every caller stops waiting at its own deadline and the request is cancelled once the last caller stopped waiting,
+ * so it lasts until the latest deadline of its callers. It runs under a deadline of its own, shared timeout, which
+ * caps it when some caller waits without deadline or with a longer one. Cancelling the request cancels that deadline
+ * too, which cancels upstream exchanges sent under it, see {@link Deadline#cancel()}.
+ * <p>
+ * Calls in flight when {@link #invalidate()} is called are not joined any more, they may have read state
+ * which a write has changed since.
+ */
+public class SingleFlight {
+
+    private final ConcurrentMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final Duration sharedTimeout;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * @param sharedTimeout deadline of asynchronous request, however long its callers wait for it
+     */
+    public SingleFlight(Duration sharedTimeout) {
+        if (sharedTimeout.isNegative() || sharedTimeout.isZero()) {
+            throw new IllegalArgumentException("Shared timeout must be positive: " + sharedTimeout);
+        }
+        this.sharedTimeout = sharedTimeout;
+    }
+
+    /**
+     * Build key from request method, uri and headers that affect response content, e.g. Accept of a request
+     * whose representation is negotiated. Headers are sorted by name so that their order does not matter.
+     */
+    public static String key(String method, String uri, Map<String, String> headers) {
+        return method + ' ' + uri + ' ' + new TreeMap<>(headers);
+    }
+
+    /**
+     * Build key of request whose response depends on method and uri only.
+     */
+    public static String key(String method, String uri) {
+        return method + ' ' + uri;
+    }
+
+    /**
+     * Execute given call or join the one which is already in flight for the same key.
+     * Exception or error thrown by the call is rethrown to every caller waiting for it. Call is executed on the
+     * calling thread, under its deadline, callers joining it stop waiting at their own deadline.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> call) {
+        Flight own = new Flight(generation.get(), null);
+        Flight flight = enter(key, own);
+        if (flight != own) {
+            coalesced.increment();
+            try {
+                return (T) join(limit(Deadline.current(), flight.result));
+            } finally {
+                leave(key, flight);
+            }
+        }
+
+        // caller executing the call stays a waiter until it completes, so the call is never abandoned
+        executed.increment();
+        try {
+            T result = call.get();
+            own.result.complete(result);
+            return result;
+        } catch (Throwable e) {
+            own.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #execute(String, Supplier)}: start given call or join the one which is
+     * already in flight for the same key, without blocking the caller. Returned future fails with
+     * {@link DeadlineExceededException} at the caller's deadline, cancelling it only stops this caller waiting.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> executeAsync(String key, Supplier<CompletableFuture<T>> call) {
+        Deadline deadline = Deadline.current();
+        Flight own = new Flight(generation.get(), new Deadline(sharedTimeout, timedOut));
+        Flight flight = enter(key, own);
+        // copy, so that one caller cancelling its future does not affect the others
+        CompletableFuture<T> waiter = limit(deadline, flight.result.thenApply(value -> (T) value));
+        waiter.whenComplete((value, error) -> leave(key, flight));
+        if (flight != own) {
+            coalesced.increment();
+            return waiter;
+        }
+
+        executed.increment();
+        CompletableFuture<T> result;
+        try {
+            result = Objects.requireNonNull(Deadline.with(own.deadline, call),
+                    "Call returned no future");
+        } catch (Throwable e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        // key is released and waiters are completed however the call ends, thrown, failed or cancelled
+        result.whenComplete((value, error) -> {
+            inFlight.remove(key, own);
+            if (error == null) {
+                own.result.complete(value);
+            } else {
+                own.result.completeExceptionally(error);
+            }
+        });
+        own.start(result);
+        return waiter;
+    }
+
+    /**
+     * Stop callers from joining calls which are in flight now, those arriving later start a new call.
+     * To be called after a write which may change results of the calls, their current callers still get them.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return number of calls which actually went upstream
+     */
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+
+    /**
+     * @return number of calls which were served by joining a request already in flight
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return number of asynchronous calls cancelled because every caller stopped waiting for them
+     */
+    public long getAbandonedCount() {
+        return abandoned.sum();
+    }
+
+    /**
+     * @return number of asynchronous calls which exceeded the shared timeout
+     */
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Join flight in progress for the key or register given one, either way as one more waiter.
+     * Flight started before the last invalidation is replaced, its waiters keep waiting for it.
+     */
+    private Flight enter(String key, Flight own) {
+        return inFlight.compute(key, (k, existing) -> {
+            Flight flight = existing == null || existing.generation != generation.get() ? own : existing;
+            flight.waiters++;
+            return flight;
+        });
+    }
+
+    /**
+     * Stop waiting for the flight, the last waiter releases its key and cancels its call.
+     * Waiters are counted inside compute of the key, also those of a replaced flight, so nobody can join a flight
+     * after its last waiter left.
+     */
+    private void leave(String key, Flight flight) {
+        boolean[] last = new boolean[1];
+        inFlight.compute(key, (k, current) -> {
+            last[0] = --flight.waiters == 0;
+            return last[0] && current == flight ? null : current;
+        });
+        if (last[0] && !flight.result.isDone()) {
+            abandoned.increment();
+            flight.abandon();
+        }
+    }
+
+    private static <T> CompletableFuture<T> limit(Deadline deadline, CompletableFuture<T> future) {
+        return deadline == null ? future : deadline.limit(future);
+    }
+
+    private static Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static final class Flight {
+
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+        private final long generation;
+        /**
+         * Shared deadline of asynchronous call, null for synchronous one.
+         */
+        private final Deadline deadline;
+        /**
+         * Callers waiting for the result, only changed inside compute of its key in the in-flight map.
+         */
+        private int waiters;
+        private CompletableFuture<?> call;
+        private boolean abandoned;
+
+        private Flight(long generation, Deadline deadline) {
+            this.generation = generation;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Remember started asynchronous call, it is cancelled right away if every waiter already left.
+         */
+        private synchronized void start(CompletableFuture<?> call) {
+            this.call = call;
+            if (abandoned) {
+                call.cancel(false);
+            }
+        }
+
+        private synchronized void abandon() {
+            abandoned = true;
+            if (deadline != null) {
+                deadline.cancel();
+            }
+            if (call != null) {
+                call.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package cvurl.usage.common;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import coresearch.cvurl.io.mapper.BodyType;
+import coresearch.cvurl.io.mapper.GenericMapper;
+import cvurl.usage.common.UpstreamMetrics.Operation;
+
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link GenericMapper} for Smile, binary JSON of Jackson, negotiated with example-api by Accept and Content-Type.
+ * Smile needs no escaping and no number formatting, property names repeated in a list are written once and
+ * referenced afterwards.
+ * <p>
+ * cVurl passes bodies to its mapper as Strings and sends and decodes them as UTF-8 text, which Smile is not, so
+ * the String contract is served as JSON by the given {@link StreamingMapper}. Smile is written to bytes and
+ * read from bytes or stream of the response, format of the response is picked by its Content-Type, so JSON answer
+ * of an upstream without Smile support is read as well.
+ * <p>
+ * Modules such as Afterburner are registered by the caller on the Smile ObjectMapper, where they are supported.
+ */
+public class SmileMapper extends GenericMapper {
+
+    public static final String CONTENT_TYPE = "application/x-jackson-smile";
+
+    private static final String JSON_CONTENT_TYPE = "application/json";
+
+    private final StreamingMapper json;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final UpstreamMetrics metrics;
+    private final Map<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    public SmileMapper(StreamingMapper json, boolean enabled, UpstreamMetrics metrics) {
+        this(json, new ObjectMapper(new SmileFactory()), enabled, metrics);
+    }
+
+    /**
+     * @param json         mapper of the String contract and of JSON responses
+     * @param objectMapper mapper created with {@link SmileFactory}, unknown properties are ignored by it
+     * @param enabled      whether Smile is asked for in {@link #accept()}, JSON only otherwise
+     */
+    public SmileMapper(StreamingMapper json, ObjectMapper objectMapper, boolean enabled, UpstreamMetrics metrics) {
+        this.json = json;
+        this.objectMapper = objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.enabled = enabled;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return value of Accept header of upstream reads, Smile preferred over JSON if enabled
+     */
+    public String accept() {
+        return enabled ? CONTENT_TYPE + ", " + JSON_CONTENT_TYPE + ";q=0.9" : JSON_CONTENT_TYPE;
+    }
+
+    public static boolean isSmile(String contentType) {
+        return contentType != null && contentType.regionMatches(true, 0, CONTENT_TYPE, 0, CONTENT_TYPE.length());
+    }
+
+    @Override
+    public <T> T readValue(String value, Class<T> type) {
+        return json.readValue(value, type);
+    }
+
+    @Override
+    public String writeValue(Object obj) {
+        return json.writeValue(obj);
+    }
+
+    @Override
+    public <T> T readValue(String str, BodyType<T> bodyType) {
+        return json.readValue(str, bodyType);
+    }
+
+    /**
+     * Write value as Smile, body of request sent with Content-Type {@link #CONTENT_TYPE}.
+     */
+    public byte[] writeBytes(Object obj) {
+        return MappingTimer.time(metrics, Operation.WRITE, obj == null ? null : obj.getClass(), () -> {
+            if (obj == null) {
+                return objectMapper.writeValueAsBytes(null);
+            }
+            return writers.computeIfAbsent(obj.getClass(), objectMapper::writerFor).writeValueAsBytes(obj);
+        });
+    }
+
+    /**
+     * Parse value of given type from the stream in format of given Content-Type and close it.
+     */
+    public <T> T readValue(String contentType, InputStream stream, Class<T> type) {
+        return isSmile(contentType) ? read(stream, type) : json.readValue(stream, type);
+    }
+
+    /**
+     * Parse value of type described by bodyType from the stream in format of given Content-Type and close it.
+     */
+    public <T> T readValue(String contentType, InputStream stream, BodyType<T> bodyType) {
+        return isSmile(contentType) ? read(stream, bodyType.getType()) : json.readValue(stream, bodyType);
+    }
+
+    private <T> T read(InputStream stream, Type type) {
+        return MappingTimer.time(metrics, Operation.READ, type, () -> {
+            try (JsonParser parser = objectMapper.getFactory().createParser(stream)) {
+                return readers.computeIfAbsent(type, key -> objectMapper.readerFor(objectMapper.constructType(key)))
+                        .readValue(parser);
+            }
+        });
+    }
+}
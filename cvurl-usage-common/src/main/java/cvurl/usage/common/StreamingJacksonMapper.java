@@ -0,0 +1,93 @@
+package cvurl.usage.common;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import coresearch.cvurl.io.mapper.BodyType;
+import cvurl.usage.common.UpstreamMetrics.Operation;
+
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Jackson based {@link StreamingMapper}. The parser decodes UTF-8 bytes of the stream itself.
+ * <p>
+ * {@link ObjectReader} and {@link ObjectWriter} are created once per type and reused, so root type is
+ * resolved and root (de)serializer is looked up only on the first call for that type.
+ * <p>
+ * Time of every read and write is reported to {@link UpstreamMetrics} and, while it is enabled in a flight
+ * recording, as {@link UpstreamMappingEvent}.
+ */
+public class StreamingJacksonMapper extends StreamingMapper {
+
+    private final ObjectMapper objectMapper;
+    private final UpstreamMetrics metrics;
+    private final Map<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    /**
+     * Create mapper with own ObjectMapper, which uses Afterburner generated accessors instead of reflection.
+     */
+    public StreamingJacksonMapper() {
+        this(new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .registerModule(new AfterburnerModule()));
+    }
+
+    public StreamingJacksonMapper(ObjectMapper objectMapper) {
+        this(objectMapper, UpstreamMetrics.NONE);
+    }
+
+    public StreamingJacksonMapper(ObjectMapper objectMapper, UpstreamMetrics metrics) {
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public <T> T readValue(String value, Class<T> type) {
+        return MappingTimer.time(metrics, Operation.READ, type, () -> reader(type).readValue(value));
+    }
+
+    @Override
+    public String writeValue(Object obj) {
+        return MappingTimer.time(metrics, Operation.WRITE, obj == null ? null : obj.getClass(), () -> {
+            if (obj == null) {
+                return objectMapper.writeValueAsString(null);
+            }
+            return writers.computeIfAbsent(obj.getClass(), objectMapper::writerFor).writeValueAsString(obj);
+        });
+    }
+
+    @Override
+    public <T> T readValue(String str, BodyType<T> bodyType) {
+        return MappingTimer.time(metrics, Operation.READ, bodyType.getType(),
+                () -> reader(bodyType.getType()).readValue(str));
+    }
+
+    @Override
+    public <T> T readValue(InputStream stream, Class<T> type) {
+        return MappingTimer.time(metrics, Operation.READ, type, () -> {
+            try (JsonParser parser = objectMapper.getFactory().createParser(stream)) {
+                return reader(type).readValue(parser);
+            }
+        });
+    }
+
+    @Override
+    public <T> T readValue(InputStream stream, BodyType<T> bodyType) {
+        return MappingTimer.time(metrics, Operation.READ, bodyType.getType(), () -> {
+            try (JsonParser parser = objectMapper.getFactory().createParser(stream)) {
+                return reader(bodyType.getType()).readValue(parser);
+            }
+        });
+    }
+
+    private ObjectReader reader(Type type) {
+        return readers.computeIfAbsent(type, key -> objectMapper.readerFor(objectMapper.constructType(key)));
+    }
+}
@@ -0,0 +1,23 @@
+package cvurl.usage.common;
+
+import coresearch.cvurl.io.mapper.BodyType;
+import coresearch.cvurl.io.mapper.GenericMapper;
+
+import java.io.InputStream;
+
+/**
+ * {@link GenericMapper} which in addition to the String based contract of cVurl can parse response body directly
+ * from the {@link InputStream} returned by asStream, so that the body is never materialized as a String.
+ */
+public abstract class StreamingMapper extends GenericMapper {
+
+    /**
+     * Parse value of given type from the stream and close it.
+     */
+    public abstract <T> T readValue(InputStream stream, Class<T> type);
+
+    /**
+     * Parse value of type described by bodyType from the stream and close it.
+     */
+    public abstract <T> T readValue(InputStream stream, BodyType<T> bodyType);
+}
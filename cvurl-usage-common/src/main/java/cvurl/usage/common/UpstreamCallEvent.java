@@ -0,0 +1,50 @@
+package cvurl.usage.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of one request sent through the HttpClient cVurl is built on, see
+ * {@link FlightRecorderHttpClient}. Duration of the event is the duration of the call.
+ */
+@Name("cvurl.UpstreamCall")
+@Label("cVurl Request")
+@Category("cVurl")
+@Description("HTTP request sent by cVurl, from sending it until its body is received")
+public class UpstreamCallEvent extends Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("URI Template")
+    @Description("Path of the request with numeric segments replaced by {id}")
+    String uriTemplate;
+
+    @Label("Endpoint")
+    @Description("Scheme, host and port the request was sent to")
+    String endpoint;
+
+    @Label("Status")
+    int status;
+
+    @Label("Error")
+    String error;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Queue Time")
+    @Description("Time the received response waited for a thread of the client executor")
+    @Timespan
+    long queueTime;
+}
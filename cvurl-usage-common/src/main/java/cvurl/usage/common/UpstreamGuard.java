@@ -0,0 +1,221 @@
+package cvurl.usage.common;
+
+import coresearch.cvurl.io.exception.ResponseMappingException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Protects server threads from slow or unavailable upstream. Every upstream call goes through a per-route
+ * bulkhead, which limits concurrent calls of the route, and a circuit breaker shared by all routes.
+ * Rejected calls fail fast with {@link UpstreamUnavailableException} instead of waiting for upstream.
+ * Calls abandoned with {@link DeadlineExceededException} or cancelled are not counted by the circuit breaker,
+ * running out of the client's budget or interest tells nothing about upstream.
+ */
+public class UpstreamGuard {
+
+    public enum Route {
+        USERS, PHOTOS;
+
+        /**
+         * @param path path of a proxied or upstream request
+         */
+        public static Route forPath(String path) {
+            return path != null && path.contains("/photos") ? PHOTOS : USERS;
+        }
+    }
+
+    @FunctionalInterface
+    public interface UpstreamCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private static final int SERVER_ERROR = 500;
+
+    private final CircuitBreaker circuitBreaker;
+    private final Map<Route, Semaphore> bulkheads = new EnumMap<>(Route.class);
+
+    public UpstreamGuard(CircuitBreaker circuitBreaker, int usersConcurrency, int photosConcurrency) {
+        this.circuitBreaker = circuitBreaker;
+        this.bulkheads.put(Route.USERS, new Semaphore(usersConcurrency));
+        this.bulkheads.put(Route.PHOTOS, new Semaphore(photosConcurrency));
+    }
+
+    public <T, E extends Exception> T execute(Route route, UpstreamCall<T, E> call) throws E {
+        Semaphore bulkhead = acquire(route);
+        try {
+            return guarded(call);
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Version of {@link #execute(Route, UpstreamCall)} for calls whose result streams upstream body, e.g. a photo.
+     * Bulkhead permit is held until the body is closed rather than released once the call returns, as upstream
+     * connection stays busy until then. Circuit breaker accounts the call until it returns only.
+     *
+     * @param body stream of the result, only the one of returned {@link Streaming} is to be read and closed
+     */
+    public <T, E extends Exception> Streaming<T> executeStreaming(Route route, UpstreamCall<T, E> call,
+                                                                 Function<T, InputStream> body) throws E {
+        Semaphore bulkhead = acquire(route);
+        boolean streaming = false;
+        try {
+            T result = guarded(call);
+            InputStream stream = body.apply(result);
+            streaming = stream != null;
+            return new Streaming<>(result, streaming ? new ReleasingInputStream(stream, bulkhead) : null);
+        } finally {
+            if (!streaming) {
+                bulkhead.release();
+            }
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #execute(Route, UpstreamCall)}, bulkhead permit is held until returned
+     * future completes, not by the calling thread. Rejection is reported as failed future.
+     */
+    public <T> CompletableFuture<T> executeAsync(Route route, Supplier<CompletableFuture<T>> call) {
+        Semaphore bulkhead = bulkheads.get(route);
+        if (!bulkhead.tryAcquire()) {
+            return CompletableFuture.failedFuture(
+                    new UpstreamUnavailableException("Too many concurrent upstream calls for " + route));
+        }
+        if (!circuitBreaker.tryAcquirePermission()) {
+            bulkhead.release();
+            return CompletableFuture.failedFuture(
+                    new UpstreamUnavailableException("Upstream circuit breaker is " + circuitBreaker.getState()));
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            circuitBreaker.onResult(System.nanoTime() - start, false);
+            bulkhead.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((value, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            onResult(start, isSuccess(cause),
+                    cause instanceof DeadlineExceededException || cause instanceof CancellationException);
+            bulkhead.release();
+        });
+    }
+
+    private Semaphore acquire(Route route) {
+        Semaphore bulkhead = bulkheads.get(route);
+        if (!bulkhead.tryAcquire()) {
+            throw new UpstreamUnavailableException("Too many concurrent upstream calls for " + route);
+        }
+        return bulkhead;
+    }
+
+    private <T, E extends Exception> T guarded(UpstreamCall<T, E> call) throws E {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            throw new UpstreamUnavailableException("Upstream circuit breaker is " + circuitBreaker.getState());
+        }
+
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean deadlineExceeded = false;
+        try {
+            T result = call.call();
+            success = true;
+            return result;
+        } catch (ResponseMappingException e) {
+            // upstream answered, it is only a failure if it answered with server error
+            success = e.getResponse().status() < SERVER_ERROR;
+            throw e;
+        } catch (DeadlineExceededException e) {
+            // client ran out of time, upstream has neither failed nor proven healthy
+            deadlineExceeded = true;
+            throw e;
+        } finally {
+            onResult(start, success, deadlineExceeded);
+        }
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public int getAvailableConcurrency(Route route) {
+        return bulkheads.get(route).availablePermits();
+    }
+
+    private void onResult(long start, boolean success, boolean abandoned) {
+        if (abandoned) {
+            circuitBreaker.releasePermission();
+        } else {
+            circuitBreaker.onResult(System.nanoTime() - start, success);
+        }
+    }
+
+    private static boolean isSuccess(Throwable cause) {
+        if (cause instanceof ResponseMappingException) {
+            return ((ResponseMappingException) cause).getResponse().status() < SERVER_ERROR;
+        }
+        return cause == null;
+    }
+
+    /**
+     * Result of a streaming call with its body, closing the body releases bulkhead permit of the call.
+     */
+    public static final class Streaming<T> {
+
+        private final T result;
+        private final InputStream body;
+
+        private Streaming(T result, InputStream body) {
+            this.result = result;
+            this.body = body;
+        }
+
+        public T getResult() {
+            return result;
+        }
+
+        /**
+         * @return body of the result to read instead of its own, null if result had none
+         */
+        public InputStream getBody() {
+            return body;
+        }
+    }
+
+    private static final class ReleasingInputStream extends FilterInputStream {
+
+        private final Semaphore bulkhead;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private ReleasingInputStream(InputStream in, Semaphore bulkhead) {
+            super(in);
+            this.bulkhead = bulkhead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    bulkhead.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package cvurl.usage.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.lang.reflect.Type;
+
+/**
+ * Flight recorder event of reading or writing one body by the cVurl mapper. Duration of the event is
+ * the mapping time, it directly follows {@link UpstreamCallEvent} of the response it reads on the same thread.
+ */
+@Name("cvurl.UpstreamMapping")
+@Label("cVurl Body Mapping")
+@Category("cVurl")
+@Description("Body of a cVurl request or response read or written by the mapper")
+public class UpstreamMappingEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Type")
+    String type;
+
+    /**
+     * End the event and commit it if it is enabled and passes its threshold, fields are only filled in then.
+     */
+    public void commit(String operation, Type type) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation;
+            this.type = type == null ? null : type.getTypeName();
+            commit();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package cvurl.usage.common;
+
+import cvurl.usage.common.UpstreamGuard.Route;
+
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Receives measurements of upstream calls made through cVurl. {@link InstrumentedHttpClient} reports every call
+ * from sending the request until its body is received, the mapper reports time spent reading and writing bodies,
+ * so mapping time is not part of call latency.
+ */
+public interface UpstreamMetrics {
+
+    UpstreamMetrics NONE = new UpstreamMetrics() {
+    };
+
+    enum Outcome {
+        SUCCESS, REDIRECTION, CLIENT_ERROR, SERVER_ERROR, TIMEOUT, DEADLINE_EXCEEDED, ERROR;
+
+        public static Outcome of(int status) {
+            if (status >= 500) {
+                return SERVER_ERROR;
+            }
+            if (status >= 400) {
+                return CLIENT_ERROR;
+            }
+            return status >= 300 ? REDIRECTION : SUCCESS;
+        }
+
+        public static Outcome of(Throwable error) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof DeadlineExceededException) {
+                return DEADLINE_EXCEEDED;
+            }
+            return cause instanceof HttpTimeoutException ? TIMEOUT : ERROR;
+        }
+    }
+
+    enum Operation {
+        READ, WRITE
+    }
+
+    default void callStarted(Route route) {
+    }
+
+    default void callCompleted(Route route, Outcome outcome, long nanos) {
+    }
+
+    default void mapped(Operation operation, long nanos) {
+    }
+}
@@ -0,0 +1,12 @@
+package cvurl.usage.common;
+
+/**
+ * Thrown when call to upstream is rejected without being sent, because circuit breaker is open
+ * or bulkhead of the route is full.
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+
+    public UpstreamUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,219 @@
+package cvurl.usage.common;
+
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Local cache of upstream user reads, bounded by size and time to live.
+ * <p>
+ * Entry older than refreshAfter is served as is while it is reloaded in background (stale-while-revalidate),
+ * entry older than expireAfter is not served at all and callers wait for a fresh load. Concurrent loads of
+ * the same key share one upstream request, failed loads are not cached.
+ * Writes done through the proxy invalidate affected entries: changed user and every list of users, and tell
+ * {@link Loader} so that loads started before the write are not joined by the reloads, see
+ * {@link SingleFlight#invalidate()}. Numeric user ids are normalised, so that e.g. 01 and 1 are one entry.
+ * Values are loaded by {@link Loader} from the key alone, so a refresh repeats the request of the first load
+ * whoever triggers it. Loads are shared, so they are not bound to the {@link Deadline} of the caller, their upstream
+ * requests get the shared timeout of {@link SingleFlight}. Callers stop waiting for them at their own deadline,
+ * a load itself runs to the end, as the cache keeps its value.
+ *
+ * @param <U> type of a user
+ * @param <P> type of a page of users
+ */
+public class UserCache<U, P> {
+
+    private enum Kind {
+        USER, PAGE, LIST
+    }
+
+    /**
+     * Upstream reads of the cached values.
+     */
+    public interface Loader<U, P> {
+
+        CompletableFuture<U> user(String userId);
+
+        CompletableFuture<P> page(int page);
+
+        CompletableFuture<List<U>> list();
+
+        /**
+         * Called after cached values are invalidated by a write, loads in flight must not be reused by later ones.
+         */
+        default void invalidated() {
+        }
+    }
+
+    private final Loader<U, P> upstream;
+    private final boolean enabled;
+    private final AsyncLoadingCache<Key<?>, Object> cache;
+
+    /**
+     * @param upstream     loader of the cached values
+     * @param enabled      when false every read goes upstream
+     * @param maximumSize  max number of cached users and lists
+     * @param refreshAfter age after which entry is reloaded in background on the next read
+     * @param expireAfter  age after which entry is not served anymore, should be greater than refreshAfter
+     */
+    public UserCache(Loader<U, P> upstream, boolean enabled, long maximumSize, Duration refreshAfter,
+                     Duration expireAfter) {
+        this.upstream = upstream;
+        this.enabled = enabled;
+        AsyncCacheLoader<Key<?>, Object> loader = (key, executor) -> Deadline.with(null, () -> load(key));
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .refreshAfterWrite(refreshAfter.toNanos(), TimeUnit.NANOSECONDS)
+                .expireAfterWrite(expireAfter.toNanos(), TimeUnit.NANOSECONDS)
+                .recordStats()
+                .buildAsync(loader);
+    }
+
+    public Key<U> user(Object userId) {
+        return new Key<>(Kind.USER, normalize(userId));
+    }
+
+    public Key<P> page(int page) {
+        return new Key<>(Kind.PAGE, String.valueOf(page));
+    }
+
+    public Key<List<U>> list() {
+        return new Key<>(Kind.LIST, "");
+    }
+
+    /**
+     * Return cached value or load it from upstream.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> getAsync(Key<T> key) {
+        if (!enabled) {
+            return (CompletableFuture<T>) load(key);
+        }
+        Deadline deadline = Deadline.current();
+        // copy, so that one caller cancelling its future does not affect the cached one
+        CompletableFuture<T> value = cache.get(key).thenApply(cached -> (T) cached);
+        return deadline == null ? value : deadline.limit(value);
+    }
+
+    /**
+     * Blocking version of {@link #getAsync(Key)}, exception of the load is rethrown as is.
+     */
+    public <T> T get(Key<T> key) {
+        try {
+            return getAsync(key).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Drop given user and every list, as any of them may contain the user.
+     */
+    public void invalidateUser(Object userId) {
+        cache.synchronous().invalidate(user(userId));
+        invalidateLists();
+    }
+
+    /**
+     * Drop every list of users, single users are kept.
+     */
+    public void invalidateLists() {
+        List<Key<?>> lists = cache.synchronous().asMap().keySet().stream()
+                .filter(key -> key.kind != Kind.USER)
+                .collect(Collectors.toList());
+        cache.synchronous().invalidateAll(lists);
+        upstream.invalidated();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CacheStats stats() {
+        return cache.synchronous().stats();
+    }
+
+    public long estimatedSize() {
+        return cache.synchronous().estimatedSize();
+    }
+
+    /**
+     * Synchronous view of the cache for metrics binders.
+     */
+    public Cache<?, ?> synchronous() {
+        return cache.synchronous();
+    }
+
+    /**
+     * @return decimal form of numeric id without leading zeros, other ids as they are
+     */
+    private static String normalize(Object userId) {
+        String id = String.valueOf(userId).trim();
+        try {
+            return String.valueOf(Integer.parseInt(id));
+        } catch (NumberFormatException e) {
+            return id;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Object> load(Key<?> key) {
+        switch (key.kind) {
+            case USER:
+                return (CompletableFuture<Object>) (CompletableFuture<?>) upstream.user(key.id);
+            case PAGE:
+                return (CompletableFuture<Object>) (CompletableFuture<?>) upstream.page(Integer.parseInt(key.id));
+            default:
+                return (CompletableFuture<Object>) (CompletableFuture<?>) upstream.list();
+        }
+    }
+
+    /**
+     * Identity of cached value of type T, the upstream call is rebuilt from it on every load.
+     */
+    public static final class Key<T> {
+
+        private final Kind kind;
+        private final String id;
+
+        private Key(Kind kind, String id) {
+            this.kind = kind;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key<?> key = (Key<?>) o;
+            return kind == key.kind && id.equals(key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, id);
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + id;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package cvurl.usage.common;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Spliterator over users of paginated /users endpoint. Pages are fetched lazily, while the current page is
+ * being consumed up to prefetchDepth next pages are already requested asynchronously.
+ * Once total number of pages is known the remaining range of pages can be split for parallel streams.
+ *
+ * @param <T> type of the users, element type of the pages
+ */
+public class UsersSpliterator<T> implements Spliterator<T> {
+
+    private static final int FIRST_PAGE = 1;
+
+    private final IntFunction<CompletableFuture<? extends Page<T>>> pageFetcher;
+    private final int prefetchDepth;
+    private final Deque<CompletableFuture<? extends Page<T>>> prefetched = new ArrayDeque<>();
+
+    private Iterator<T> current = Collections.emptyIterator();
+    private int nextPageToRequest;
+    private int endPage;
+    private boolean endPageKnown;
+    private Integer perPage;
+
+    /**
+     * @param pageFetcher   makes asynchronous request for the page with given number
+     * @param prefetchDepth number of pages requested ahead of the one being consumed
+     */
+    public UsersSpliterator(IntFunction<CompletableFuture<? extends Page<T>>> pageFetcher, int prefetchDepth) {
+        this(pageFetcher, prefetchDepth, FIRST_PAGE, Integer.MAX_VALUE, false, null);
+    }
+
+    private UsersSpliterator(IntFunction<CompletableFuture<? extends Page<T>>> pageFetcher, int prefetchDepth,
+                             int fromPage, int endPage, boolean endPageKnown, Integer perPage) {
+        if (prefetchDepth < 0) {
+            throw new IllegalArgumentException("Prefetch depth should not be negative");
+        }
+        this.pageFetcher = Objects.requireNonNull(pageFetcher);
+        this.prefetchDepth = prefetchDepth;
+        this.nextPageToRequest = fromPage;
+        this.endPage = endPage;
+        this.endPageKnown = endPageKnown;
+        this.perPage = perPage;
+    }
+
+    /**
+     * Create stream of all users walking pages with given page fetcher.
+     */
+    public static <T> Stream<T> stream(IntFunction<CompletableFuture<? extends Page<T>>> pageFetcher,
+                                       int prefetchDepth, boolean parallel) {
+        return StreamSupport.stream(new UsersSpliterator<>(pageFetcher, prefetchDepth), parallel);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (!current.hasNext()) {
+            if (!nextPage()) {
+                return false;
+            }
+        }
+        action.accept(current.next());
+        return true;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (!endPageKnown && prefetched.isEmpty() && !current.hasNext()) {
+            // total number of pages is only known after the first page arrives
+            if (!nextPage()) {
+                return null;
+            }
+        }
+        if (!endPageKnown || endPage - nextPageToRequest < 2) {
+            return null;
+        }
+
+        int middle = nextPageToRequest + (endPage - nextPageToRequest) / 2;
+        // returned spliterator must cover preceding elements, so it takes the partially consumed
+        // page, already prefetched pages and lower half of the remaining ones
+        var prefix = new UsersSpliterator<T>(pageFetcher, prefetchDepth, nextPageToRequest, middle, true, perPage);
+        prefix.current = current;
+        prefix.prefetched.addAll(prefetched);
+
+        current = Collections.emptyIterator();
+        prefetched.clear();
+        nextPageToRequest = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        if (!endPageKnown || perPage == null) {
+            return Long.MAX_VALUE;
+        }
+        return (long) (endPage - nextPageToRequest + prefetched.size() + 1) * perPage;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    private boolean nextPage() {
+        if (prefetched.isEmpty() && nextPageToRequest < endPage) {
+            prefetched.add(pageFetcher.apply(nextPageToRequest++));
+        }
+        if (prefetched.isEmpty()) {
+            return false;
+        }
+
+        Page<T> page = join(prefetched.poll());
+        perPage = page.getPerPage();
+        if (page.getTotalPages() != null) {
+            limitEndPage(page.getTotalPages() + 1);
+        }
+
+        if (page.getData() == null || page.getData().isEmpty()) {
+            // pages after the first empty one are empty as well
+            limitEndPage(nextPageToRequest - prefetched.size() - 1);
+            return false;
+        }
+        current = page.getData().iterator();
+        prefetch();
+        return true;
+    }
+
+    /**
+     * Set end of page range if it is lower than current one, cancelling pages prefetched beyond it.
+     */
+    private void limitEndPage(int end) {
+        endPage = Math.min(endPage, end);
+        endPageKnown = true;
+        while (nextPageToRequest > endPage && !prefetched.isEmpty()) {
+            prefetched.pollLast().cancel(true);
+            nextPageToRequest--;
+        }
+    }
+
+    /**
+     * Request pages ahead of the current one until prefetchDepth of them are in flight.
+     */
+    private void prefetch() {
+        while (prefetched.size() < prefetchDepth && nextPageToRequest < endPage) {
+            prefetched.add(pageFetcher.apply(nextPageToRequest++));
+        }
+    }
+
+    private static <P> P join(CompletableFuture<P> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package cvurl.usage.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Results are formatted as id:status:user:error.
+ */
+public class BulkFetchTests {
+
+    private static final BulkFetch.ResultFactory<String, String> RESULT =
+            (id, status, user, error) -> id + ":" + status + ":" + user + ":" + error;
+
+    @Test
+    public void returnsResultOfEveryIdInRequestOrder() throws Exception {
+        var bulkFetch = new BulkFetch(2, 10, Duration.ofSeconds(1));
+
+        List<String> results = bulkFetch.fetch(List.of(3, 1, 2), id -> id == 1
+                ? CompletableFuture.failedFuture(new UpstreamUnavailableException("circuit breaker is OPEN"))
+                : CompletableFuture.completedFuture("user" + id), RESULT).get(1, TimeUnit.SECONDS);
+
+        assertEquals(List.of("3:200:user3:null", "1:503:null:circuit breaker is OPEN", "2:200:user2:null"), results);
+    }
+
+    @Test
+    public void keepsAtMostParallelismCallsInFlight() throws Exception {
+        var bulkFetch = new BulkFetch(2, 10, Duration.ofSeconds(1));
+        Map<Integer, CompletableFuture<String>> calls = new ConcurrentHashMap<>();
+
+        CompletableFuture<List<String>> results = bulkFetch.fetch(List.of(1, 2, 3, 4),
+                id -> calls.computeIfAbsent(id, key -> new CompletableFuture<>()), RESULT);
+        assertEquals(2, calls.size());
+
+        calls.get(1).complete("user1");
+        assertEquals(3, calls.size());
+        calls.get(2).complete("user2");
+        calls.get(3).complete("user3");
+        assertFalse(results.isDone());
+        calls.get(4).complete("user4");
+
+        assertEquals(4, results.get(1, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    public void startsCallsCompletedWhileStartingWithoutNesting() throws Exception {
+        var bulkFetch = new BulkFetch(1, Integer.MAX_VALUE, Duration.ofSeconds(1));
+        List<Integer> ids = IntStream.range(0, 100_000).boxed().collect(Collectors.toList());
+
+        List<String> results = bulkFetch.fetch(ids, id -> CompletableFuture.completedFuture("user" + id), RESULT)
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(ids.size(), results.size());
+    }
+
+    @Test
+    public void reportsTimedOutId() throws Exception {
+        var bulkFetch = new BulkFetch(2, 10, Duration.ofMillis(10));
+
+        List<String> results = bulkFetch.fetch(List.of(1), id -> new CompletableFuture<String>(), RESULT)
+                .get(1, TimeUnit.SECONDS);
+
+        assertEquals(List.of("1:504:null:Upstream call timed out"), results);
+    }
+
+    @Test
+    public void parsesIdsKeepingOrderAndDuplicates() {
+        var bulkFetch = new BulkFetch(2, 3, Duration.ofSeconds(1));
+
+        assertEquals(List.of(2, 1, 2), bulkFetch.parseIds("2, 1,,2"));
+        assertThrows(IllegalArgumentException.class, () -> bulkFetch.parseIds("1,x"));
+        assertThrows(IllegalArgumentException.class, () -> bulkFetch.parseIds("1,2,3,4"));
+    }
+}
@@ -0,0 +1,113 @@
+package cvurl.usage.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CircuitBreakerTests {
+
+    private static final long FAST = 0;
+    private static final long SLOW = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    public void opensWhenFailureRateOfFullWindowReachesThreshold() {
+        var circuitBreaker = circuitBreaker(Duration.ofMinutes(1));
+
+        record(circuitBreaker, FAST, false);
+        record(circuitBreaker, FAST, true);
+        record(circuitBreaker, FAST, true);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        record(circuitBreaker, FAST, false);
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void opensWhenSlowCallRateReachesThreshold() {
+        var circuitBreaker = circuitBreaker(Duration.ofMinutes(1));
+
+        for (int i = 0; i < 4; i++) {
+            record(circuitBreaker, SLOW, true);
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void startsNewWindowWhenFullOneStaysBelowThreshold() {
+        var circuitBreaker = circuitBreaker(Duration.ofMinutes(1));
+
+        record(circuitBreaker, FAST, false);
+        for (int i = 0; i < 4; i++) {
+            record(circuitBreaker, FAST, true);
+        }
+        record(circuitBreaker, FAST, false);
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void closesWhenAllHalfOpenProbesSucceed() {
+        var circuitBreaker = openCircuitBreaker();
+
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        circuitBreaker.onResult(FAST, true);
+        circuitBreaker.onResult(FAST, true);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void reopensWhenHalfOpenProbeFails() {
+        var circuitBreaker = openCircuitBreaker();
+
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onResult(FAST, false);
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void releasedHalfOpenProbeIsHandedToNextCall() {
+        var circuitBreaker = openCircuitBreaker();
+
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.releasePermission();
+        circuitBreaker.onResult(FAST, true);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onResult(FAST, true);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    /**
+     * Window of 4 calls, opens at half of them failed or slow, lets 2 probes through when half-open.
+     */
+    private static CircuitBreaker circuitBreaker(Duration waitInOpen) {
+        return new CircuitBreaker(0.5, 0.5, Duration.ofMillis(500), 4, waitInOpen, 2);
+    }
+
+    private static CircuitBreaker openCircuitBreaker() {
+        var circuitBreaker = circuitBreaker(Duration.ZERO);
+        for (int i = 0; i < 4; i++) {
+            record(circuitBreaker, FAST, false);
+        }
+        return circuitBreaker;
+    }
+
+    private static void record(CircuitBreaker circuitBreaker, long durationNanos, boolean success) {
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onResult(durationNanos, success);
+    }
+}
@@ -0,0 +1,96 @@
+package cvurl.usage.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeadlineTests {
+
+    private final LongAdder exceeded = new LongAdder();
+
+    @Test
+    public void bindsDeadlineForTheCallOnly() {
+        var outer = new Deadline(Duration.ofSeconds(1), exceeded);
+        var inner = new Deadline(Duration.ofSeconds(1), exceeded);
+
+        Deadline.with(outer, () -> {
+            assertSame(inner, Deadline.with(inner, Deadline::current));
+            assertSame(outer, Deadline.current());
+            assertNull(Deadline.with(null, Deadline::current));
+            return null;
+        });
+
+        assertNull(Deadline.current());
+    }
+
+    @Test
+    public void expiresAfterTimeout() {
+        var deadline = new Deadline(Duration.ZERO, exceeded);
+
+        assertTrue(deadline.isExpired());
+        assertEquals(Duration.ZERO, deadline.remaining());
+        assertFalse(new Deadline(Duration.ofMinutes(1), exceeded).isExpired());
+    }
+
+    @Test
+    public void countsExceededDeadlineOnce() {
+        var deadline = new Deadline(Duration.ofMillis(5), exceeded);
+
+        deadline.exceeded();
+        deadline.exceeded();
+
+        assertEquals(1, exceeded.sum());
+    }
+
+    @Test
+    public void failsLimitedFutureAtDeadlineLeavingOriginalRunning() {
+        var deadline = new Deadline(Duration.ofMillis(10), exceeded);
+        CompletableFuture<String> call = new CompletableFuture<>();
+
+        var thrown = assertThrows(ExecutionException.class, () -> deadline.limit(call).get(1, TimeUnit.SECONDS));
+
+        assertTrue(thrown.getCause() instanceof DeadlineExceededException, () -> "failed with " + thrown.getCause());
+        assertFalse(call.isDone());
+        assertEquals(1, exceeded.sum());
+    }
+
+    @Test
+    public void cancelsRegisteredCallsWithDeadline() {
+        var deadline = new Deadline(Duration.ofMinutes(1), exceeded);
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> completed = CompletableFuture.completedFuture("user");
+        deadline.register(call);
+        deadline.register(completed);
+
+        deadline.cancel();
+        CompletableFuture<String> late = new CompletableFuture<>();
+        deadline.register(late);
+
+        assertTrue(call.isCancelled());
+        assertFalse(completed.isCancelled());
+        assertTrue(late.isCancelled());
+    }
+
+    @Test
+    public void passesResultCompletedInTime() throws Exception {
+        var deadline = new Deadline(Duration.ofMinutes(1), exceeded);
+        CompletableFuture<String> call = new CompletableFuture<>();
+
+        CompletableFuture<String> limited = deadline.limit(call);
+        call.complete("user");
+
+        assertEquals("user", limited.get(1, TimeUnit.SECONDS));
+        assertEquals(0, exceeded.sum());
+    }
+}
@@ -0,0 +1,110 @@
+package cvurl.usage.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HedgedRequestsTests {
+
+    private static final Duration DELAY = Duration.ofMillis(20);
+
+    @Test
+    public void executesCallAsIsWhenDisabled() {
+        var hedgedRequests = new HedgedRequests(false, 0.95, 1, 10, DELAY);
+        CompletableFuture<String> call = new CompletableFuture<>();
+
+        assertSame(call, hedgedRequests.executeAsync(() -> call));
+        assertEquals(0, hedgedRequests.getRequestsCount());
+    }
+
+    @Test
+    public void sendsDuplicateOfSlowCallAndCancelsTheLoser() throws Exception {
+        var hedgedRequests = new HedgedRequests(true, 0.95, 1, 10, DELAY);
+        CompletableFuture<String> primary = new CompletableFuture<>();
+        Attempts attempts = new Attempts(primary, CompletableFuture.completedFuture("hedge"));
+
+        assertEquals("hedge", hedgedRequests.executeAsync(attempts).get(1, TimeUnit.SECONDS));
+        // loser is cancelled and win counted by the thread completing the result, after waiters are woken up
+        awaitTrue(() -> primary.isCancelled() && hedgedRequests.getHedgeWinsCount() == 1);
+        assertEquals(2, attempts.count.get());
+        assertEquals(1, hedgedRequests.getHedgesCount());
+    }
+
+    @Test
+    public void sendsNoDuplicateWithoutBudget() throws Exception {
+        var hedgedRequests = new HedgedRequests(true, 0.95, 0, 10, DELAY);
+        CompletableFuture<String> primary = new CompletableFuture<>();
+        Attempts attempts = new Attempts(primary, CompletableFuture.completedFuture("hedge"));
+
+        CompletableFuture<String> result = hedgedRequests.executeAsync(attempts);
+        Thread.sleep(DELAY.toMillis() * 3);
+        assertFalse(result.isDone());
+        primary.complete("primary");
+
+        assertEquals("primary", result.get(1, TimeUnit.SECONDS));
+        assertEquals(1, attempts.count.get());
+        assertEquals(0, hedgedRequests.getHedgesCount());
+    }
+
+    @Test
+    public void failsOnceNoAttemptCanSucceed() {
+        var hedgedRequests = new HedgedRequests(true, 0.95, 1, 10, Duration.ofSeconds(10));
+        IllegalStateException failure = new IllegalStateException("upstream failed");
+
+        var thrown = assertThrows(IllegalStateException.class,
+                () -> hedgedRequests.execute(() -> CompletableFuture.<String>failedFuture(failure)));
+        assertSame(failure, thrown);
+    }
+
+    @Test
+    public void adaptsDelayToObservedLatency() {
+        var hedgedRequests = new HedgedRequests(true, 0.5, 0, 10, Duration.ofSeconds(10));
+
+        for (int i = 0; i <= 64; i++) {
+            hedgedRequests.execute(() -> CompletableFuture.completedFuture(""));
+        }
+
+        assertTrue(hedgedRequests.getHedgeDelay().compareTo(Duration.ofSeconds(1)) < 0,
+                () -> "hedge delay " + hedgedRequests.getHedgeDelay());
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (!condition.getAsBoolean() && System.nanoTime() - deadline < 0) {
+            Thread.sleep(1);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    /**
+     * Returns given futures to successive calls.
+     */
+    private static final class Attempts implements Supplier<CompletableFuture<String>> {
+
+        private final List<CompletableFuture<String>> futures = new CopyOnWriteArrayList<>();
+        private final AtomicInteger count = new AtomicInteger();
+
+        @SafeVarargs
+        Attempts(CompletableFuture<String>... futures) {
+            this.futures.addAll(List.of(futures));
+        }
+
+        @Override
+        public CompletableFuture<String> get() {
+            return futures.get(count.getAndIncrement());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package cvurl.usage.common;
+
+import cvurl.usage.common.LoadBalancer.Endpoint;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Health checks are disabled, endpoints are ejected by failed calls only.
+ */
+public class LoadBalancerTests {
+
+    private static final int CONSECUTIVE_FAILURES = 3;
+
+    @Test
+    public void ejectsEndpointAfterConsecutiveFailures() {
+        var loadBalancer = loadBalancer(2, 50);
+        Endpoint endpoint = loadBalancer.getEndpoints().get(0);
+
+        fail(loadBalancer, endpoint, CONSECUTIVE_FAILURES - 1);
+        loadBalancer.release(endpoint, false);
+        fail(loadBalancer, endpoint, CONSECUTIVE_FAILURES - 1);
+        assertFalse(endpoint.isEjected(), "success resets failures in a row");
+
+        fail(loadBalancer, endpoint, 1);
+        assertTrue(endpoint.isEjected());
+        for (int i = 0; i < 10; i++) {
+            Endpoint acquired = loadBalancer.acquire();
+            loadBalancer.release(acquired, false);
+            assertSame(loadBalancer.getEndpoints().get(1), acquired);
+        }
+    }
+
+    @Test
+    public void ejectsAtMostMaxEjectionPercentOfEndpoints() {
+        var loadBalancer = loadBalancer(4, 50);
+
+        loadBalancer.getEndpoints().forEach(endpoint -> fail(loadBalancer, endpoint, CONSECUTIVE_FAILURES));
+
+        assertEquals(2, ejected(loadBalancer));
+    }
+
+    @Test
+    public void ejectsOneOfFewEndpointsWhenPercentRoundsDownToNone() {
+        var loadBalancer = loadBalancer(2, 10);
+
+        loadBalancer.getEndpoints().forEach(endpoint -> fail(loadBalancer, endpoint, CONSECUTIVE_FAILURES));
+
+        assertEquals(1, ejected(loadBalancer));
+    }
+
+    @Test
+    public void ejectsNoEndpointWithZeroPercent() {
+        var loadBalancer = loadBalancer(2, 0);
+
+        loadBalancer.getEndpoints().forEach(endpoint -> fail(loadBalancer, endpoint, CONSECUTIVE_FAILURES));
+
+        assertEquals(0, ejected(loadBalancer));
+    }
+
+    @Test
+    public void neverEjectsSingleEndpoint() {
+        var loadBalancer = loadBalancer(1, 100);
+        Endpoint endpoint = loadBalancer.getEndpoints().get(0);
+
+        fail(loadBalancer, endpoint, CONSECUTIVE_FAILURES);
+
+        assertFalse(endpoint.isEjected());
+        assertSame(endpoint, loadBalancer.acquire());
+    }
+
+    @Test
+    public void choosesAmongAllEndpointsWhenNoneIsAvailable() {
+        var loadBalancer = loadBalancer(2, 100);
+        loadBalancer.getEndpoints().forEach(endpoint -> fail(loadBalancer, endpoint, CONSECUTIVE_FAILURES));
+        assertEquals(2, ejected(loadBalancer));
+
+        Set<Endpoint> chosen = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            Endpoint endpoint = loadBalancer.acquire();
+            chosen.add(endpoint);
+            loadBalancer.release(endpoint, true);
+        }
+
+        assertEquals(Set.copyOf(loadBalancer.getEndpoints()), chosen);
+    }
+
+    private static LoadBalancer loadBalancer(int endpoints, int maxEjectionPercent) {
+        List<URI> uris = IntStream.range(0, endpoints)
+                .mapToObj(i -> URI.create("http://localhost:" + (7001 + i)))
+                .collect(Collectors.toList());
+        return new LoadBalancer(uris, EndpointSelector.roundRobin(), "/health", Duration.ZERO, Duration.ZERO,
+                CONSECUTIVE_FAILURES, Duration.ofMinutes(1), maxEjectionPercent);
+    }
+
+    /**
+     * Report failed calls of the endpoint, outstanding count is not used by round robin.
+     */
+    private static void fail(LoadBalancer loadBalancer, Endpoint endpoint, int calls) {
+        for (int i = 0; i < calls; i++) {
+            loadBalancer.release(endpoint, true);
+        }
+    }
+
+    private static long ejected(LoadBalancer loadBalancer) {
+        return loadBalancer.getEndpoints().stream().filter(Endpoint::isEjected).count();
+    }
+}
@@ -0,0 +1,138 @@
+package cvurl.usage.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Slab of 8 pages of 16 bytes, photos of up to 32 bytes are cached.
+ */
+public class PhotoCacheTests {
+
+    private static final int PAGE = 16;
+    private static final long SLAB = 8 * PAGE;
+    private static final byte[] PHOTO = bytes(20);
+
+    private final PhotoCache photoCache = new PhotoCache(SLAB, 2 * PAGE, PAGE, Duration.ofMinutes(1));
+
+    @Test
+    public void storesPhotoStreamedToTheEnd() throws IOException {
+        assertArrayEquals(PHOTO, stream("cat", PHOTO).readAllBytes());
+
+        PhotoCache.CachedPhoto cached = photoCache.get("cat");
+        assertNotNull(cached);
+        assertEquals("\"v1\"", cached.getEtag());
+        assertEquals(PHOTO.length, cached.getSize());
+        try (InputStream body = cached.openStream()) {
+            assertArrayEquals(PHOTO, body.readAllBytes());
+        }
+        cached.release();
+        assertEquals(SLAB - 2 * PAGE, photoCache.getFreeBytes());
+    }
+
+    @Test
+    public void returnsPagesOfPhotoNotStreamedToTheEnd() throws IOException {
+        InputStream body = stream("cat", PHOTO);
+        body.read(new byte[PAGE]);
+        assertEquals(SLAB - 2 * PAGE, photoCache.getFreeBytes());
+
+        body.close();
+
+        assertNull(photoCache.get("cat"));
+        assertEquals(SLAB, photoCache.getFreeBytes());
+    }
+
+    @Test
+    public void keepsPagesOfInvalidatedPhotoUntilLastReaderReleasesThem() throws IOException {
+        stream("cat", PHOTO).readAllBytes();
+        PhotoCache.CachedPhoto cached = photoCache.get("cat");
+        InputStream body = cached.openStream();
+
+        photoCache.invalidate("cat");
+        cached.release();
+        assertNull(photoCache.get("cat"));
+        assertEquals(SLAB - 2 * PAGE, photoCache.getFreeBytes());
+        assertArrayEquals(PHOTO, body.readAllBytes());
+
+        body.close();
+        body.close();
+        assertEquals(SLAB, photoCache.getFreeBytes());
+        assertThrows(IllegalStateException.class, cached::retain);
+    }
+
+    @Test
+    public void replacesPhotoStoredWithAnotherEtag() throws IOException {
+        stream("cat", PHOTO).readAllBytes();
+        photoCache.caching("cat", "\"v2\"", "image/png", 4, new ByteArrayInputStream(bytes(4))).readAllBytes();
+
+        PhotoCache.CachedPhoto cached = photoCache.get("cat");
+        assertEquals("\"v2\"", cached.getEtag());
+        cached.release();
+        assertEquals(SLAB - PAGE, photoCache.getFreeBytes());
+    }
+
+    @Test
+    public void doesNotStorePhotoWithoutEtagOrOverMaxSize() throws IOException {
+        photoCache.caching("cat", null, "image/png", PHOTO.length, new ByteArrayInputStream(PHOTO)).readAllBytes();
+        byte[] large = bytes(3 * PAGE);
+        photoCache.caching("dog", "\"v1\"", "image/png", large.length, new ByteArrayInputStream(large)).readAllBytes();
+
+        assertNull(photoCache.get("cat"));
+        assertNull(photoCache.get("dog"));
+        assertEquals(SLAB, photoCache.getFreeBytes());
+    }
+
+    @Test
+    public void rejectsPhotoWhenNoPagesAreFree() throws IOException {
+        InputStream[] bodies = new InputStream[4];
+        for (int i = 0; i < bodies.length; i++) {
+            bodies[i] = stream("photo" + i, PHOTO);
+        }
+
+        assertArrayEquals(PHOTO, stream("cat", PHOTO).readAllBytes());
+        assertEquals(1, photoCache.getRejectedCount());
+        assertNull(photoCache.get("cat"));
+        for (InputStream body : bodies) {
+            body.close();
+        }
+        assertEquals(SLAB, photoCache.getFreeBytes());
+    }
+
+    @Test
+    public void servesPhotoWithoutRevalidationOnlyWhileFresh() throws IOException {
+        var revalidating = new PhotoCache(SLAB, 2 * PAGE, PAGE, Duration.ZERO);
+        revalidating.caching("cat", "\"v1\"", "image/png", PHOTO.length, new ByteArrayInputStream(PHOTO))
+                .readAllBytes();
+        stream("cat", PHOTO).readAllBytes();
+
+        PhotoCache.CachedPhoto stale = revalidating.get("cat");
+        PhotoCache.CachedPhoto fresh = photoCache.get("cat");
+        assertFalse(stale.isFresh());
+        assertTrue(fresh.isFresh());
+        stale.release();
+        fresh.release();
+    }
+
+    private InputStream stream(String title, byte[] photo) {
+        return photoCache.caching(title, "\"v1\"", "image/png", photo.length, new ByteArrayInputStream(photo));
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+}
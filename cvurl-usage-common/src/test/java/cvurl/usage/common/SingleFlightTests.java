@@ -0,0 +1,150 @@
+package cvurl.usage.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Upstream exchange is simulated by a future registered with the deadline the call runs under,
+ * as {@link LoadBalancingHttpClient} does.
+ */
+public class SingleFlightTests {
+
+    private static final String KEY = SingleFlight.key("GET", "http://example-api/users/1");
+
+    private final SingleFlight singleFlight = new SingleFlight(Duration.ofMinutes(1));
+    private final CompletableFuture<String> exchange = new CompletableFuture<>();
+
+    @Test
+    public void coalescesCallsInFlightAndReleasesKeyOnCompletion() throws Exception {
+        CompletableFuture<String> first = singleFlight.executeAsync(KEY, this::send);
+        CompletableFuture<String> second = singleFlight.executeAsync(KEY, this::send);
+        assertEquals(1, singleFlight.getExecutedCount());
+        assertEquals(1, singleFlight.getCoalescedCount());
+
+        exchange.complete("user");
+
+        assertEquals("user", first.get(1, TimeUnit.SECONDS));
+        assertEquals("user", second.get(1, TimeUnit.SECONDS));
+        assertEquals(0, singleFlight.getInFlightCount());
+        singleFlight.executeAsync(KEY, () -> CompletableFuture.completedFuture("user"));
+        assertEquals(2, singleFlight.getExecutedCount());
+    }
+
+    @Test
+    public void startsNewCallAfterInvalidation() throws Exception {
+        CompletableFuture<String> beforeWrite = singleFlight.executeAsync(KEY, this::send);
+        singleFlight.invalidate();
+        CompletableFuture<String> afterWrite = singleFlight.executeAsync(KEY,
+                () -> CompletableFuture.completedFuture("updated user"));
+        exchange.complete("user");
+
+        assertEquals("user", beforeWrite.get(1, TimeUnit.SECONDS));
+        assertEquals("updated user", afterWrite.get(1, TimeUnit.SECONDS));
+        assertEquals(2, singleFlight.getExecutedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void cancelsInvalidatedCallOnceItsLastCallerStopsWaiting() {
+        CompletableFuture<String> beforeWrite = singleFlight.executeAsync(KEY, this::send);
+        singleFlight.invalidate();
+        CompletableFuture<String> afterWrite = singleFlight.executeAsync(KEY, CompletableFuture::new);
+
+        beforeWrite.cancel(false);
+
+        assertTrue(exchange.isCancelled());
+        assertFalse(afterWrite.isDone());
+        assertEquals(1, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void passesFailureToEveryCaller() {
+        IllegalStateException failure = new IllegalStateException("upstream failed");
+        CompletableFuture<String> first = singleFlight.executeAsync(KEY, this::send);
+        CompletableFuture<String> second = singleFlight.executeAsync(KEY, this::send);
+
+        exchange.completeExceptionally(failure);
+
+        assertSame(failure, assertThrows(ExecutionException.class, first::get).getCause());
+        assertSame(failure, assertThrows(ExecutionException.class, second::get).getCause());
+    }
+
+    @Test
+    public void cancelsUpstreamExchangeOnceLastCallerStopsWaiting() {
+        CompletableFuture<String> first = singleFlight.executeAsync(KEY, this::send);
+        CompletableFuture<String> second = singleFlight.executeAsync(KEY, this::send);
+
+        first.cancel(false);
+        assertFalse(exchange.isDone());
+        second.cancel(false);
+
+        assertTrue(exchange.isCancelled());
+        assertEquals(1, singleFlight.getAbandonedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    public void stopsWaitingAtCallerDeadline() throws Exception {
+        CompletableFuture<String> waiter = Deadline.with(new Deadline(Duration.ofMillis(10), new LongAdder()),
+                () -> singleFlight.executeAsync(KEY, this::send));
+
+        var thrown = assertThrows(ExecutionException.class, () -> waiter.get(1, TimeUnit.SECONDS));
+
+        assertTrue(thrown.getCause() instanceof DeadlineExceededException, () -> "failed with " + thrown.getCause());
+        // caller leaves the flight on the thread failing its future, after it has been woken up
+        awaitTrue(exchange::isCancelled);
+    }
+
+    @Test
+    public void synchronousCallerJoiningCallStopsWaitingAtItsDeadline() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> owner = CompletableFuture.supplyAsync(() -> singleFlight.execute(KEY, () -> {
+            started.countDown();
+            await(release);
+            return "user";
+        }));
+        started.await(1, TimeUnit.SECONDS);
+
+        assertThrows(DeadlineExceededException.class, () -> Deadline.with(
+                new Deadline(Duration.ofMillis(10), new LongAdder()), () -> singleFlight.execute(KEY, () -> "joined")));
+
+        release.countDown();
+        assertEquals("user", owner.get(1, TimeUnit.SECONDS));
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    private CompletableFuture<String> send() {
+        Deadline.current().register(exchange);
+        return exchange.thenApply(value -> value);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (!condition.getAsBoolean() && System.nanoTime() - deadline < 0) {
+            Thread.sleep(1);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package cvurl.usage.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unless a test builds its own, circuit breaker opens on half of a window of 2 calls and closes after a single
+ * successful half-open probe.
+ */
+public class UpstreamGuardTests {
+
+    private final CircuitBreaker circuitBreaker =
+            new CircuitBreaker(0.5, 1, Duration.ofMinutes(1), 2, Duration.ZERO, 1);
+    private final UpstreamGuard upstreamGuard = new UpstreamGuard(circuitBreaker, 1, 1);
+
+    @Test
+    public void rejectsCallsOverRouteConcurrency() {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        upstreamGuard.executeAsync(UpstreamGuard.Route.USERS, () -> call);
+
+        CompletableFuture<String> rejected = upstreamGuard.executeAsync(UpstreamGuard.Route.USERS,
+                () -> CompletableFuture.completedFuture("user"));
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(1, upstreamGuard.getAvailableConcurrency(UpstreamGuard.Route.PHOTOS));
+
+        call.complete("user");
+        assertEquals(1, upstreamGuard.getAvailableConcurrency(UpstreamGuard.Route.USERS));
+    }
+
+    @Test
+    public void holdsPermitOfStreamingCallUntilBodyIsClosed() throws Exception {
+        UpstreamGuard.Streaming<InputStream> streaming = upstreamGuard.executeStreaming(UpstreamGuard.Route.PHOTOS,
+                () -> new ByteArrayInputStream(new byte[]{1, 2, 3}), body -> body);
+        assertEquals(0, upstreamGuard.getAvailableConcurrency(UpstreamGuard.Route.PHOTOS));
+        assertThrows(UpstreamUnavailableException.class, () -> upstreamGuard.executeStreaming(
+                UpstreamGuard.Route.PHOTOS, () -> new ByteArrayInputStream(new byte[0]), body -> body));
+
+        assertEquals(3, streaming.getBody().readAllBytes().length);
+        streaming.getBody().close();
+        streaming.getBody().close();
+
+        assertEquals(1, upstreamGuard.getAvailableConcurrency(UpstreamGuard.Route.PHOTOS));
+    }
+
+    @Test
+    public void releasesPermitOfFailedStreamingCall() {
+        assertThrows(IllegalStateException.class, () -> upstreamGuard.executeStreaming(UpstreamGuard.Route.PHOTOS,
+                () -> {
+                    throw new IllegalStateException("upstream failed");
+                }, body -> (InputStream) body));
+
+        assertEquals(1, upstreamGuard.getAvailableConcurrency(UpstreamGuard.Route.PHOTOS));
+    }
+
+    @Test
+    public void rejectsCallsWhileCircuitIsOpen() {
+        var upstreamGuard = new UpstreamGuard(
+                new CircuitBreaker(0.5, 1, Duration.ofMinutes(1), 1, Duration.ofMinutes(1), 1), 1, 1);
+        upstreamGuard.executeAsync(UpstreamGuard.Route.USERS,
+                () -> CompletableFuture.failedFuture(new IllegalStateException("upstream failed")));
+
+        assertThrows(UpstreamUnavailableException.class, () -> upstreamGuard.execute(UpstreamGuard.Route.PHOTOS,
+                () -> "photo"));
+        assertEquals(1, upstreamGuard.getAvailableConcurrency(UpstreamGuard.Route.PHOTOS));
+    }
+
+    @Test
+    public void deadlineExceededCallIsNeitherSuccessNorFailure() {
+        open();
+
+        assertThrows(DeadlineExceededException.class, () -> upstreamGuard.execute(UpstreamGuard.Route.USERS, () -> {
+            throw new DeadlineExceededException("Request deadline of 0 ms exceeded");
+        }));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        upstreamGuard.executeAsync(UpstreamGuard.Route.USERS,
+                () -> CompletableFuture.failedFuture(new DeadlineExceededException("Request deadline exceeded")));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        upstreamGuard.execute(UpstreamGuard.Route.USERS, () -> "user");
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void deadlineExceededCallsDoNotDiluteFailureRate() {
+        // opens only when all calls of the window failed
+        var circuitBreaker = new CircuitBreaker(1, 1, Duration.ofMinutes(1), 2, Duration.ofMinutes(1), 1);
+        var upstreamGuard = new UpstreamGuard(circuitBreaker, 1, 1);
+
+        upstreamGuard.executeAsync(UpstreamGuard.Route.USERS,
+                () -> CompletableFuture.failedFuture(new IllegalStateException("upstream failed")));
+        upstreamGuard.executeAsync(UpstreamGuard.Route.USERS,
+                () -> CompletableFuture.failedFuture(new DeadlineExceededException("Request deadline exceeded")));
+        upstreamGuard.executeAsync(UpstreamGuard.Route.USERS,
+                () -> CompletableFuture.failedFuture(new IllegalStateException("upstream failed")));
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    /**
+     * Open the circuit, it becomes half-open on the next permission request.
+     */
+    private void open() {
+        for (int i = 0; i < 2; i++) {
+            upstreamGuard.executeAsync(UpstreamGuard.Route.USERS,
+                    () -> CompletableFuture.failedFuture(new IllegalStateException("upstream failed")));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+}
@@ -0,0 +1,77 @@
+package cvurl.usage.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Users are loaded as their id followed by the number of the load.
+ */
+public class UserCacheTests {
+
+    private final TestLoader loader = new TestLoader();
+    private final UserCache<String, String> userCache =
+            new UserCache<>(loader, true, 100, Duration.ofMinutes(1), Duration.ofMinutes(2));
+
+    @Test
+    public void servesCachedUser() {
+        assertEquals("1#1", userCache.get(userCache.user(1)));
+        assertEquals("1#1", userCache.get(userCache.user(1)));
+        assertEquals(1, loader.loads.get());
+    }
+
+    @Test
+    public void treatsNumericIdsWithLeadingZerosAsOneUser() {
+        assertEquals("1#1", userCache.get(userCache.user(1)));
+        assertEquals("1#1", userCache.get(userCache.user("01")));
+
+        userCache.invalidateUser("01");
+
+        assertEquals("1#2", userCache.get(userCache.user(1)));
+    }
+
+    @Test
+    public void invalidatesUserAndListsAndTellsLoader() {
+        userCache.get(userCache.user(1));
+        userCache.get(userCache.user(2));
+        userCache.get(userCache.list());
+
+        userCache.invalidateUser(1);
+
+        assertEquals(1, loader.invalidations.get());
+        assertEquals("1#4", userCache.get(userCache.user(1)));
+        assertEquals("2#2", userCache.get(userCache.user(2)));
+        assertEquals(List.of("list#5"), userCache.get(userCache.list()));
+    }
+
+    private static final class TestLoader implements UserCache.Loader<String, String> {
+
+        private final AtomicInteger loads = new AtomicInteger();
+        private final AtomicInteger invalidations = new AtomicInteger();
+
+        @Override
+        public CompletableFuture<String> user(String userId) {
+            return CompletableFuture.completedFuture(userId + "#" + loads.incrementAndGet());
+        }
+
+        @Override
+        public CompletableFuture<String> page(int page) {
+            return CompletableFuture.completedFuture(page + "#" + loads.incrementAndGet());
+        }
+
+        @Override
+        public CompletableFuture<List<String>> list() {
+            return CompletableFuture.completedFuture(List.of("list#" + loads.incrementAndGet()));
+        }
+
+        @Override
+        public void invalidated() {
+            invalidations.incrementAndGet();
+        }
+    }
+}
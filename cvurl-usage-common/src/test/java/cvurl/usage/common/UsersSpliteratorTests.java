@@ -0,0 +1,125 @@
+package cvurl.usage.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pages are served by an in-memory fetcher which records the numbers of the pages requested from it.
+ */
+public class UsersSpliteratorTests {
+
+    private static final int PER_PAGE = 2;
+
+    private final List<Integer> requested = new ArrayList<>();
+
+    @Test
+    public void walksAllPagesInOrder() {
+        List<Integer> users = UsersSpliterator.stream(pages(3, true), 1, false).collect(Collectors.toList());
+
+        assertEquals(users(3), users);
+        assertEquals(List.of(1, 2, 3), requested);
+    }
+
+    @Test
+    public void keepsPrefetchDepthPagesAheadOfTheCurrentOne() {
+        var spliterator = new UsersSpliterator<>(pages(5, true), 2);
+
+        spliterator.tryAdvance(user -> { });
+        assertEquals(List.of(1, 2, 3), requested);
+
+        // rest of page 1 and first user of page 2
+        spliterator.tryAdvance(user -> { });
+        spliterator.tryAdvance(user -> { });
+        assertEquals(List.of(1, 2, 3, 4), requested);
+    }
+
+    @Test
+    public void fetchesPagesOnDemandWithoutPrefetch() {
+        var spliterator = new UsersSpliterator<>(pages(3, true), 0);
+
+        spliterator.tryAdvance(user -> { });
+        spliterator.tryAdvance(user -> { });
+        assertEquals(List.of(1), requested);
+
+        spliterator.tryAdvance(user -> { });
+        assertEquals(List.of(1, 2), requested);
+    }
+
+    @Test
+    public void splitsRemainingPagesOnceTotalIsKnown() {
+        Spliterator<Integer> suffix = new UsersSpliterator<>(pages(6, true), 0);
+
+        Spliterator<Integer> prefix = suffix.trySplit();
+        assertNotNull(prefix);
+        List<Integer> users = new ArrayList<>();
+        prefix.forEachRemaining(users::add);
+        int prefixSize = users.size();
+        suffix.forEachRemaining(users::add);
+
+        assertEquals(users(6), users);
+        assertTrue(prefixSize > 0 && prefixSize < users.size(), "both halves have users");
+    }
+
+    @Test
+    public void stopsAtFirstEmptyPageWhenTotalIsUnknown() {
+        List<Integer> users = UsersSpliterator.stream(pages(2, false), 3, false).collect(Collectors.toList());
+
+        assertEquals(users(2), users);
+    }
+
+    /**
+     * @param totalPages  pages with users, pages after them are empty
+     * @param reportTotal whether pages tell total number of pages
+     */
+    private IntFunction<CompletableFuture<? extends Page<Integer>>> pages(int totalPages, boolean reportTotal) {
+        return page -> {
+            requested.add(page);
+            List<Integer> data = page > totalPages ? List.of() : IntStream.rangeClosed(1, PER_PAGE)
+                    .map(i -> (page - 1) * PER_PAGE + i)
+                    .boxed()
+                    .collect(Collectors.toList());
+            return CompletableFuture.completedFuture(new TestPage(data, reportTotal ? totalPages : null));
+        };
+    }
+
+    private static List<Integer> users(int pages) {
+        return IntStream.rangeClosed(1, pages * PER_PAGE).boxed().collect(Collectors.toList());
+    }
+
+    private static final class TestPage implements Page<Integer> {
+
+        private final List<Integer> data;
+        private final Integer totalPages;
+
+        TestPage(List<Integer> data, Integer totalPages) {
+            this.data = data;
+            this.totalPages = totalPages;
+        }
+
+        @Override
+        public List<Integer> getData() {
+            return data;
+        }
+
+        @Override
+        public Integer getTotalPages() {
+            return totalPages;
+        }
+
+        @Override
+        public Integer getPerPage() {
+            return PER_PAGE;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package cvurl.usage.micronaut;
+
+import coresearch.cvurl.io.constant.HttpHeader;
+import coresearch.cvurl.io.constant.HttpStatus;
+import coresearch.cvurl.io.exception.ResponseMappingException;
+import coresearch.cvurl.io.model.Response;
+import coresearch.cvurl.io.request.CVurl;
+import cvurl.usage.common.DeadlineExceededException;
+import cvurl.usage.common.SmileMapper;
+import cvurl.usage.common.UpstreamGuard;
+import cvurl.usage.common.UpstreamGuard.Route;
+import cvurl.usage.common.UpstreamUnavailableException;
+import cvurl.usage.common.UserCache;
+import cvurl.usage.micronaut.model.GetUsersDto;
+import cvurl.usage.micronaut.model.User;
+import cvurl.usage.micronaut.model.UserDto;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.annotation.Error;
+import io.micronaut.http.annotation.*;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import org.reactivestreams.Publisher;
+
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Non-blocking variant of {@link ExampleController} under /async. Routes return {@link CompletableFuture}
+ * or {@link Publisher} built from cVurl async calls, so Micronaut runs them on the Netty event loop and
+ * writes the response when the future completes, no thread of the I/O pool waits for upstream.
+ * Blocking {@link ExampleController} returns plain values, which Micronaut 1.x schedules on the I/O pool.
+ * <p>
+ * Photo routes are served by {@link ExampleController} only, both already stream without buffering.
+ */
+@Controller("/async")
+@WithDeadline
+public class AsyncExampleController {
+
+    private static final String HOST = "http://localhost:7000/";
+    private static final String USERS = "users/";
+    private static final int NON_EXISTENT_USER_ID = 23;
+    private static final int DEFAULT_PREFETCH_DEPTH = 2;
+    private static final int FIRST_PAGE = 1;
+
+    private final CVurl cVurl;
+    private final SmileMapper mapper;
+    private final UpstreamGuard upstreamGuard;
+    private final UserCache<User, GetUsersDto> userCache;
+
+    public AsyncExampleController(CVurl cVurl, SmileMapper mapper, UpstreamGuard upstreamGuard,
+                                  UserCache<User, GetUsersDto> userCache) {
+        this.cVurl = cVurl;
+        this.mapper = mapper;
+        this.upstreamGuard = upstreamGuard;
+        this.userCache = userCache;
+    }
+
+    @Error(ResponseMappingException.class)
+    public HttpResponse handleException(ResponseMappingException exception) {
+        var response = exception.getResponse();
+        return HttpResponse.status(getStatus(response)).body(response.getBody());
+    }
+
+    @Error(UpstreamUnavailableException.class)
+    public HttpResponse handleUpstreamUnavailable(UpstreamUnavailableException exception) {
+        return HttpResponse.status(io.micronaut.http.HttpStatus.SERVICE_UNAVAILABLE).body(exception.getMessage());
+    }
+
+    /**
+     * Time budget of the request ran out while waiting for upstream, respond with GATEWAY_TIMEOUT.
+     */
+    @Error(DeadlineExceededException.class)
+    public HttpResponse handleDeadlineExceeded(DeadlineExceededException exception) {
+        return HttpResponse.status(io.micronaut.http.HttpStatus.GATEWAY_TIMEOUT).body(exception.getMessage());
+    }
+
+    /**
+     * Same as {@link ExampleController#listUsers(Optional)}, concurrent calls for the same page share one
+     * upstream request, slow request is hedged if hedging is enabled.
+     */
+    @Get("/users")
+    public CompletableFuture<GetUsersDto> listUsers(@QueryValue Optional<Integer> page) {
+        return unwrap(userCache.getAsync(userCache.page(page.orElse(FIRST_PAGE))));
+    }
+
+    /**
+     * Stream users of all pages. Total number of pages is taken from the first page, remaining pages are
+     * requested up to prefetch + 1 at a time and emitted in order.
+     */
+    @Get("/users/all")
+    public Publisher<User> allUsers(@QueryValue Optional<Integer> prefetch) {
+        int concurrency = Math.max(prefetch.orElse(DEFAULT_PREFETCH_DEPTH), 0) + 1;
+        return single(guardedUsersPage(FIRST_PAGE))
+                .flatMapPublisher(first -> {
+                    int totalPages = Objects.requireNonNullElse(first.getTotalPages(), FIRST_PAGE);
+                    Flowable<GetUsersDto> rest = Flowable.range(FIRST_PAGE + 1, Math.max(totalPages - FIRST_PAGE, 0))
+                            .concatMapEager(page -> single(guardedUsersPage(page)).toFlowable(), concurrency, 1);
+                    return Flowable.just(first).concatWith(rest);
+                })
+                .concatMapIterable(page -> Objects.requireNonNullElse(page.getData(), List.of()));
+    }
+
+    /**
+     * Same as {@link ExampleController#singleUser(Integer)}, concurrent calls for the same user share one
+     * upstream request, slow request is hedged if hedging is enabled.
+     */
+    @Get("/users/{userId}")
+    public CompletableFuture<User> singleUser(@PathVariable Integer userId) {
+        return unwrap(userCache.getAsync(userCache.user(userId)));
+    }
+
+    /**
+     * Request user which does not exist, {@link ResponseMappingException} is handled by
+     * {@link #handleException(ResponseMappingException)}.
+     */
+    @Get("/user-not-found")
+    public CompletableFuture<User> singleUserNotFound() {
+        return unwrap(upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.get(HOST + USERS + NON_EXISTENT_USER_ID).asyncAsObject(User.class)));
+    }
+
+    @Get("/user-as-string/{userId}")
+    public CompletableFuture<HttpResponse> singleUserAsString(@PathVariable String userId) {
+        return unwrap(upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.get(HOST + USERS + userId).asyncAsString())
+                .thenApply(this::toJsonResponse));
+    }
+
+    @Get("/user-as-string-compressed/{userId}")
+    public CompletableFuture<HttpResponse> singleUserAsStringCompressed(@PathVariable String userId) {
+        return unwrap(upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.get(HOST + USERS + userId).acceptCompressed().asyncAsString())
+                .thenApply(this::toJsonResponse));
+    }
+
+    /**
+     * Body is received as bytes by HttpClient itself, no thread blocks reading an input stream.
+     */
+    @Get("/user-as-is/{userId}")
+    public CompletableFuture<HttpResponse> singleUserAsBytes(@PathVariable String userId) {
+        return unwrap(upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.get(HOST + USERS + userId).asyncAs(BodyHandlers.ofByteArray()))
+                .thenApply(response -> response.status() == HttpStatus.OK
+                        ? HttpResponse.ok().contentType(MediaType.APPLICATION_JSON).body(response.getBody())
+                        : HttpResponse.status(getStatus(response)).body(response.getBody())));
+    }
+
+    @Post("/users")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public CompletableFuture<User> createUserFromJson(@Body UserDto userDto) {
+        return unwrap(upstreamGuard.executeAsync(Route.USERS, () -> cVurl.post(HOST + USERS)
+                .body(userDto)
+                .header(HttpHeader.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .asyncAsString())
+                .whenComplete((response, error) -> userCache.invalidateLists())
+                .thenApply(this::createdUser));
+    }
+
+    @Post("/users")
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    public CompletableFuture<User> createUserFromFormUrlencoded(@Body Map<String, String> userMap) {
+        return unwrap(upstreamGuard.executeAsync(Route.USERS, () -> cVurl.post(HOST + USERS)
+                .formData(userMap)
+                .asyncAsString())
+                .whenComplete((response, error) -> userCache.invalidateLists())
+                .thenApply(this::createdUser));
+    }
+
+    @Put("/users/{userId}")
+    public CompletableFuture<User> updateUser(@Body UserDto userDto, @PathVariable String userId) {
+        return unwrap(upstreamGuard.executeAsync(Route.USERS, () -> cVurl.put(HOST + USERS + userId)
+                .body(userDto)
+                .headers(Map.of(HttpHeader.CONTENT_TYPE, MediaType.APPLICATION_JSON))
+                .asyncAsObject(User.class))
+                .whenComplete((user, error) -> userCache.invalidateUser(userId)));
+    }
+
+    @Delete("/users/{userId}")
+    public CompletableFuture<HttpResponse> deleteUser(@PathVariable String userId) {
+        return unwrap(upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.delete(HOST + USERS + userId).asyncAsString())
+                .whenComplete((response, error) -> userCache.invalidateUser(userId))
+                .thenApply(response -> response.status() == HttpStatus.NO_CONTENT
+                        ? HttpResponse.noContent()
+                        : HttpResponse.badRequest().body(response.getBody())));
+    }
+
+    /**
+     * Same as {@link ExampleController#getUsersAsList()}, but users are emitted one by one.
+     * Concurrent calls share one upstream request.
+     */
+    @Get("/users/list")
+    public Publisher<User> getUsersAsList() {
+        return single(userCache.getAsync(userCache.list()))
+                .flattenAsFlowable(users -> users);
+    }
+
+    private CompletableFuture<GetUsersDto> usersPage(int page) {
+        return cVurl.get(HOST + USERS)
+                .queryParam("page", String.valueOf(page))
+                .asyncAsObject(GetUsersDto.class);
+    }
+
+    private CompletableFuture<GetUsersDto> guardedUsersPage(int page) {
+        return unwrap(upstreamGuard.executeAsync(Route.USERS, () -> usersPage(page)));
+    }
+
+    private User createdUser(Response<String> response) {
+        if (response.status() != HttpStatus.CREATED) {
+            throw new RuntimeException("User can't be created");
+        }
+        return mapper.readValue(response.getBody(), User.class);
+    }
+
+    private HttpResponse toJsonResponse(Response<String> response) {
+        if (response.status() == HttpStatus.OK) {
+            return HttpResponse.ok().contentType(MediaType.APPLICATION_JSON).body(response.getBody());
+        }
+        return HttpResponse.status(getStatus(response)).body(response.getBody());
+    }
+
+    private io.micronaut.http.HttpStatus getStatus(Response<?> response) {
+        return io.micronaut.http.HttpStatus.valueOf(response.status());
+    }
+
+    /**
+     * Adapt future to {@link Single} without blocking, unlike Single.fromFuture which waits on Future.get.
+     */
+    private static <T> Single<T> single(CompletableFuture<T> future) {
+        return Single.create(emitter -> unwrap(future).whenComplete((value, error) -> {
+            if (error == null) {
+                emitter.onSuccess(value);
+            } else {
+                emitter.onError(error);
+            }
+        }));
+    }
+
+    /**
+     * Complete with the original exception rather than {@link CompletionException}, so that
+     * {@link Error} handlers of this controller match it.
+     */
+    private static <T> CompletableFuture<T> unwrap(CompletableFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,287 @@
+package cvurl.usage.micronaut;
+
+import cvurl.usage.common.EndpointSelector;
+import cvurl.usage.common.ExecutorType;
+import io.micronaut.context.annotation.ConfigurationProperties;
+import lombok.Data;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Configuration under cvurl.*, one nested configuration per component it configures. Sections are validated
+ * when created, so a value out of range stops the application instead of failing the first request that uses it.
+ */
+@Data
+@ConfigurationProperties("cvurl")
+public class CVurlConfiguration {
+
+    private ClientConfiguration client = new ClientConfiguration();
+    private UpstreamConfiguration upstream = new UpstreamConfiguration();
+    private DeadlineConfiguration deadline = new DeadlineConfiguration();
+    private SingleFlightConfiguration singleFlight = new SingleFlightConfiguration();
+    private HedgingConfiguration hedging = new HedgingConfiguration();
+    private CircuitBreakerConfiguration circuitBreaker = new CircuitBreakerConfiguration();
+    private BulkheadConfiguration bulkhead = new BulkheadConfiguration();
+    private CacheConfiguration cache = new CacheConfiguration();
+    private BulkConfiguration bulk = new BulkConfiguration();
+    private PhotoCacheConfiguration photoCache = new PhotoCacheConfiguration();
+
+    /**
+     * HttpClient used by cVurl and executors of its responses.
+     */
+    @Data
+    @ConfigurationProperties("client")
+    public static class ClientConfiguration {
+
+        /**
+         * HTTP_2 prefers HTTP/2 falling back to HTTP/1.1.
+         */
+        @NotNull
+        private HttpClient.Version version = HttpClient.Version.HTTP_2;
+        @NotNull
+        @MinDuration(millis = 1)
+        private Duration connectTimeout = Duration.ofSeconds(2);
+        @NotNull
+        @MinDuration(millis = 1)
+        private Duration requestTimeout = Duration.ofSeconds(10);
+        @NotNull
+        private ExecutorType executorType = ExecutorType.WORK_STEALING;
+        /**
+         * 0 means number of available processors.
+         */
+        @Min(0)
+        private int executorSize;
+        /**
+         * Threads parsing response streams of upstream reads, 0 means number of available processors.
+         */
+        @Min(0)
+        private int mappingExecutorSize;
+        private CompressionConfiguration compression = new CompressionConfiguration();
+        private SmileConfiguration smile = new SmileConfiguration();
+
+        /**
+         * Request bodies of JSON and forms of at least min-size bytes are sent with Content-Encoding: gzip.
+         */
+        @Data
+        @ConfigurationProperties("compression")
+        public static class CompressionConfiguration {
+
+            private boolean enabled;
+            @Min(0)
+            private long minSize = 1024;
+        }
+
+        /**
+         * Upstream reads parsed from bytes or stream accept Smile before JSON.
+         */
+        @Data
+        @ConfigurationProperties("smile")
+        public static class SmileConfiguration {
+
+            private boolean enabled = true;
+        }
+    }
+
+    /**
+     * Instances of example-api that upstream calls are balanced over.
+     */
+    @Data
+    @ConfigurationProperties("upstream")
+    public static class UpstreamConfiguration {
+
+        @NotEmpty
+        private List<String> endpoints = List.of("http://localhost:7000");
+        @NotNull
+        private EndpointSelector.Type selector = EndpointSelector.Type.POWER_OF_TWO_CHOICES;
+        private HealthCheckConfiguration healthCheck = new HealthCheckConfiguration();
+        private EjectionConfiguration ejection = new EjectionConfiguration();
+
+        @Data
+        @ConfigurationProperties("health-check")
+        public static class HealthCheckConfiguration {
+
+            @NotBlank
+            private String path = "/actuator/health";
+            /**
+             * 0 turns health checks off.
+             */
+            @NotNull
+            @MinDuration(millis = 0)
+            private Duration interval = Duration.ofSeconds(5);
+            @NotNull
+            @MinDuration(millis = 1)
+            private Duration timeout = Duration.ofSeconds(1);
+        }
+
+        @Data
+        @ConfigurationProperties("ejection")
+        public static class EjectionConfiguration {
+
+            @Min(1)
+            private int consecutiveFailures = 5;
+            @NotNull
+            @MinDuration(millis = 1)
+            private Duration baseTime = Duration.ofSeconds(30);
+            @Min(0)
+            @Max(100)
+            private int maxPercent = 50;
+        }
+    }
+
+    /**
+     * Time budget of a proxied request unless it sends X-Request-Timeout.
+     */
+    @Data
+    @ConfigurationProperties("deadline")
+    public static class DeadlineConfiguration {
+
+        @NotNull
+        @MinDuration(millis = 1)
+        private Duration users = Duration.ofSeconds(3);
+        @NotNull
+        @MinDuration(millis = 1)
+        private Duration photos = Duration.ofSeconds(15);
+    }
+
+    @Data
+    @ConfigurationProperties("single-flight")
+    public static class SingleFlightConfiguration {
+
+        /**
+         * Longest time a shared upstream read is given, whatever the deadlines of its callers.
+         */
+        @NotNull
+        @MinDuration(millis = 1)
+        private Duration sharedTimeout = Duration.ofSeconds(10);
+    }
+
+    /**
+     * Hedging of idempotent upstream GETs.
+     */
+    @Data
+    @ConfigurationProperties("hedging")
+    public static class HedgingConfiguration {
+
+        private boolean enabled;
+        /**
+         * Percentile of observed latency after which the duplicate is sent.
+         */
+        @DecimalMin(value = "0", inclusive = false)
+        @DecimalMax(value = "1", inclusive = false)
+        private double percentile = 0.95;
+        /**
+         * Max ratio of duplicates to all requests.
+         */
+        @DecimalMin("0")
+        @DecimalMax("1")
+        private double budget = 0.05;
+        @Min(1)
+        private int maxBurst = 10;
+        @NotNull
+        @MinDuration(millis = 1)
+        private Duration initialDelay = Duration.ofMillis(100);
+    }
+
+    /**
+     * Circuit breaker shared by all upstream calls.
+     */
+    @Data
+    @ConfigurationProperties("circuit-breaker")
+    public static class CircuitBreakerConfiguration {
+
+        @DecimalMin(value = "0", inclusive = false)
+        @DecimalMax("1")
+        private double failureRateThreshold = 0.5;
+        @DecimalMin(value = "0", inclusive = false)
+        @DecimalMax("1")
+        private double slowCallRateThreshold = 0.5;
+        @NotNull
+        @MinDuration(millis = 1)
+        private Duration slowCallDuration = Duration.ofSeconds(2);
+        @Min(1)
+        @Max(2097151)
+        private int windowSize = 20;
+        @NotNull
+        @MinDuration(millis = 1)
+        private Duration waitInOpen = Duration.ofSeconds(10);
+        @Min(1)
+        private int halfOpenCalls = 3;
+    }
+
+    /**
+     * Concurrent upstream calls per route.
+     */
+    @Data
+    @ConfigurationProperties("bulkhead")
+    public static class BulkheadConfiguration {
+
+        @Min(1)
+        private int users = 64;
+        @Min(1)
+        private int photos = 16;
+    }
+
+    /**
+     * Cache of upstream user reads.
+     */
+    @Data
+    @ConfigurationProperties("cache")
+    public static class CacheConfiguration {
+
+        private boolean enabled = true;
+        @Min(0)
+        private long maximumSize = 10000;
+        @NotNull
+        @MinDuration(millis = 1)
+        private Duration refreshAfter = Duration.ofSeconds(30);
+        @NotNull
+        @MinDuration(millis = 1)
+        private Duration expireAfter = Duration.ofMinutes(5);
+    }
+
+    /**
+     * GET /users?ids=...
+     */
+    @Data
+    @ConfigurationProperties("bulk")
+    public static class BulkConfiguration {
+
+        @Min(1)
+        private int parallelism = 8;
+        @Min(1)
+        private int maxIds = 100;
+        @NotNull
+        @MinDuration(millis = 1)
+        private Duration timeout = Duration.ofSeconds(2);
+    }
+
+    /**
+     * Off-heap cache of proxied photos, capacity-bytes of direct memory is allocated at start.
+     */
+    @Data
+    @ConfigurationProperties("photo-cache")
+    public static class PhotoCacheConfiguration {
+
+        @Min(1)
+        @Max(Integer.MAX_VALUE)
+        private long capacityBytes = 64 * 1024 * 1024;
+        @Min(0)
+        private long maxEntryBytes = 8 * 1024 * 1024;
+        @Min(1)
+        private int pageBytes = 64 * 1024;
+        /**
+         * Time after storing or revalidation a photo is served without asking upstream, zero revalidates every hit.
+         */
+        @NotNull
+        private Duration freshFor = Duration.ofSeconds(60);
+    }
+}
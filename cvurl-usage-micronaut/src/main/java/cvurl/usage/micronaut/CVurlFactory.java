@@ -1,26 +1,243 @@
 package cvurl.usage.micronaut;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
 import coresearch.cvurl.io.request.CVurl;
+import coresearch.cvurl.io.request.Configuration;
+import cvurl.usage.common.BulkFetch;
+import cvurl.usage.common.CircuitBreaker;
+import cvurl.usage.common.CompressingHttpClient;
+import cvurl.usage.common.DeadlinePolicy;
+import cvurl.usage.common.ExecutorType;
+import cvurl.usage.common.FlightRecorderHttpClient;
+import cvurl.usage.common.HedgedRequests;
+import cvurl.usage.common.InstrumentedHttpClient;
+import cvurl.usage.common.LoadBalancer;
+import cvurl.usage.common.LoadBalancingHttpClient;
+import cvurl.usage.common.MicrometerUpstreamMetrics;
+import cvurl.usage.common.PhotoCache;
+import cvurl.usage.common.SingleFlight;
+import cvurl.usage.common.SmileMapper;
+import cvurl.usage.common.StreamingJacksonMapper;
+import cvurl.usage.common.UpstreamGuard;
+import cvurl.usage.common.UpstreamMetrics;
+import cvurl.usage.common.UserCache;
+import cvurl.usage.micronaut.model.GetUsersDto;
+import cvurl.usage.micronaut.model.User;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micronaut.context.annotation.Bean;
 import io.micronaut.context.annotation.Factory;
+import io.micronaut.validation.validator.constraints.ConstraintValidator;
 
+import javax.inject.Named;
 import javax.inject.Singleton;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
 @Factory
 public class CVurlFactory {
 
+    /**
+     * Base URL of the controllers' upstream calls, requests to it are balanced over cvurl.upstream.endpoints.
+     */
+    private static final URI EXAMPLE_API = URI.create("http://localhost:7000");
+
+    /**
+     * Checks {@link MinDuration} of {@link CVurlConfiguration}.
+     */
     @Singleton
-    public CVurl cVurl() {
-        return new CVurl();
+    public ConstraintValidator<MinDuration, Duration> minDurationValidator() {
+        return (value, annotation, context) -> value == null
+                || value.toMillis() >= annotation.longValue("millis").orElse(0);
+    }
 
-        /*
-        other ways you can create CVurl:
-        new CVurl(Configuration.builder(httpClient)
-                .genericMapper(genericMapper)
-                .build());
-        new CVurl(Configuration.builder()
-                .executor(Executors.newFixedThreadPool(3))
-                .requestTimeout(Duration.ofSeconds(5))
+    /**
+     * Registered into the application ObjectMapper, so both cVurl and controllers use generated accessors.
+     */
+    @Singleton
+    public AfterburnerModule afterburnerModule() {
+        return new AfterburnerModule();
+    }
+
+    /**
+     * Latency of upstream calls and of mapping their bodies, exposed at /metrics/upstream.*.
+     */
+    @Singleton
+    public UpstreamMetrics upstreamMetrics(MeterRegistry meterRegistry) {
+        return new MicrometerUpstreamMetrics(meterRegistry);
+    }
+
+    @Singleton
+    public StreamingJacksonMapper streamingJacksonMapper(ObjectMapper objectMapper, UpstreamMetrics upstreamMetrics) {
+        return new StreamingJacksonMapper(objectMapper, upstreamMetrics);
+    }
+
+    /**
+     * Upstream reads parsed from bytes ask for Smile, reads through cVurl asObject stay JSON.
+     */
+    @Singleton
+    public SmileMapper smileMapper(StreamingJacksonMapper streamingJacksonMapper, AfterburnerModule afterburnerModule,
+                                   UpstreamMetrics upstreamMetrics, CVurlConfiguration configuration) {
+        ObjectMapper smile = new ObjectMapper(new SmileFactory()).registerModule(afterburnerModule);
+        return new SmileMapper(streamingJacksonMapper, smile, configuration.getClient().getSmile().isEnabled(),
+                upstreamMetrics);
+    }
+
+    @Singleton
+    @Named("cvurl")
+    @Bean(preDestroy = "shutdown")
+    public ExecutorService cVurlExecutor(CVurlConfiguration configuration) {
+        CVurlConfiguration.ClientConfiguration client = configuration.getClient();
+        return client.getExecutorType().createExecutor(client.getExecutorSize());
+    }
+
+    /**
+     * Parses upstream response streams, separate from the cVurl executor which receives them.
+     */
+    @Singleton
+    @Named("mapping")
+    @Bean(preDestroy = "shutdown")
+    public ExecutorService mappingExecutor(CVurlConfiguration configuration) {
+        return ExecutorType.FIXED.createExecutor(configuration.getClient().getMappingExecutorSize());
+    }
+
+    @Singleton
+    @Bean(preDestroy = "close")
+    public LoadBalancer loadBalancer(CVurlConfiguration configuration) {
+        CVurlConfiguration.UpstreamConfiguration upstream = configuration.getUpstream();
+        return new LoadBalancer(upstream.getEndpoints().stream().map(URI::create).collect(Collectors.toList()),
+                upstream.getSelector().create(), upstream.getHealthCheck().getPath(),
+                upstream.getHealthCheck().getInterval(), upstream.getHealthCheck().getTimeout(),
+                upstream.getEjection().getConsecutiveFailures(), upstream.getEjection().getBaseTime(),
+                upstream.getEjection().getMaxPercent());
+    }
+
+    /**
+     * Tasks queued on the cVurl executor and calls in flight per upstream endpoint are registered as gauges,
+     * exposed at /metrics/upstream.executor.queued and /metrics/upstream.endpoint.outstanding.
+     */
+    @Singleton
+    public CVurl cVurl(StreamingJacksonMapper streamingJacksonMapper, @Named("cvurl") ExecutorService cVurlExecutor,
+                       LoadBalancer loadBalancer, UpstreamMetrics upstreamMetrics, MeterRegistry meterRegistry,
+                       CVurlConfiguration configuration) {
+        CVurlConfiguration.ClientConfiguration client = configuration.getClient();
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(client.getVersion())
+                .connectTimeout(client.getConnectTimeout())
+                .executor(cVurlExecutor)
+                .build();
+
+        Gauge.builder("upstream.executor.queued", cVurlExecutor, ExecutorType::queuedTasks)
+                .register(meterRegistry);
+        for (LoadBalancer.Endpoint endpoint : loadBalancer.getEndpoints()) {
+            Gauge.builder("upstream.endpoint.outstanding", endpoint, LoadBalancer.Endpoint::getOutstanding)
+                    .tag("endpoint", endpoint.getUri().toString())
+                    .register(meterRegistry);
+        }
+
+        HttpClient balancingClient = new LoadBalancingHttpClient(httpClient, EXAMPLE_API, loadBalancer);
+        HttpClient recordingClient = new FlightRecorderHttpClient(balancingClient);
+        HttpClient instrumentedClient = new InstrumentedHttpClient(recordingClient, upstreamMetrics);
+        return new CVurl(Configuration.builder(client.getCompression().isEnabled()
+                ? new CompressingHttpClient(instrumentedClient, client.getCompression().getMinSize())
+                : instrumentedClient)
+                .genericMapper(streamingJacksonMapper)
+                .requestTimeout(client.getRequestTimeout())
                 .build());
-        */
+    }
+
+    /**
+     * Calls that went upstream, calls that joined one in flight, calls abandoned by all callers or timed out and keys
+     * in flight are registered as meters, exposed at /metrics/upstream.single-flight.*.
+     */
+    @Singleton
+    public SingleFlight singleFlight(CVurlConfiguration configuration, MeterRegistry meterRegistry) {
+        SingleFlight singleFlight = new SingleFlight(configuration.getSingleFlight().getSharedTimeout());
+        FunctionCounter.builder("upstream.single-flight.executed", singleFlight, SingleFlight::getExecutedCount)
+                .register(meterRegistry);
+        FunctionCounter.builder("upstream.single-flight.coalesced", singleFlight, SingleFlight::getCoalescedCount)
+                .register(meterRegistry);
+        FunctionCounter.builder("upstream.single-flight.abandoned", singleFlight, SingleFlight::getAbandonedCount)
+                .register(meterRegistry);
+        FunctionCounter.builder("upstream.single-flight.timed-out", singleFlight, SingleFlight::getTimedOutCount)
+                .register(meterRegistry);
+        Gauge.builder("upstream.single-flight.in-flight", singleFlight, SingleFlight::getInFlightCount)
+                .register(meterRegistry);
+        return singleFlight;
+    }
+
+    /**
+     * Hedged requests, duplicates sent and duplicates that won are registered as counters, exposed at
+     * /metrics/upstream.hedging.*.
+     */
+    @Singleton
+    public HedgedRequests hedgedRequests(MeterRegistry meterRegistry, CVurlConfiguration configuration) {
+        CVurlConfiguration.HedgingConfiguration hedging = configuration.getHedging();
+        HedgedRequests hedgedRequests = new HedgedRequests(hedging.isEnabled(), hedging.getPercentile(),
+                hedging.getBudget(), hedging.getMaxBurst(), hedging.getInitialDelay());
+        FunctionCounter.builder("upstream.hedging.requests", hedgedRequests, HedgedRequests::getRequestsCount)
+                .register(meterRegistry);
+        FunctionCounter.builder("upstream.hedging.hedges", hedgedRequests, HedgedRequests::getHedgesCount)
+                .register(meterRegistry);
+        FunctionCounter.builder("upstream.hedging.wins", hedgedRequests, HedgedRequests::getHedgeWinsCount)
+                .register(meterRegistry);
+        return hedgedRequests;
+    }
+
+    @Singleton
+    public UpstreamGuard upstreamGuard(CVurlConfiguration configuration) {
+        CVurlConfiguration.CircuitBreakerConfiguration circuitBreaker = configuration.getCircuitBreaker();
+        CVurlConfiguration.BulkheadConfiguration bulkhead = configuration.getBulkhead();
+        return new UpstreamGuard(new CircuitBreaker(circuitBreaker.getFailureRateThreshold(),
+                circuitBreaker.getSlowCallRateThreshold(), circuitBreaker.getSlowCallDuration(),
+                circuitBreaker.getWindowSize(), circuitBreaker.getWaitInOpen(), circuitBreaker.getHalfOpenCalls()),
+                bulkhead.getUsers(), bulkhead.getPhotos());
+    }
+
+    @Singleton
+    public UpstreamUsers upstreamUsers(CVurl cVurl, SmileMapper smileMapper, SingleFlight singleFlight,
+                                       UpstreamGuard upstreamGuard, HedgedRequests hedgedRequests,
+                                       @Named("mapping") ExecutorService mappingExecutor) {
+        return new UpstreamUsers(cVurl, smileMapper, singleFlight, upstreamGuard, hedgedRequests, mappingExecutor);
+    }
+
+    @Singleton
+    public UserCache<User, GetUsersDto> userCache(UpstreamUsers upstreamUsers, CVurlConfiguration configuration) {
+        CVurlConfiguration.CacheConfiguration cache = configuration.getCache();
+        return new UserCache<>(upstreamUsers, cache.isEnabled(), cache.getMaximumSize(), cache.getRefreshAfter(),
+                cache.getExpireAfter());
+    }
+
+    @Singleton
+    public BulkFetch bulkFetch(CVurlConfiguration configuration) {
+        CVurlConfiguration.BulkConfiguration bulk = configuration.getBulk();
+        return new BulkFetch(bulk.getParallelism(), bulk.getMaxIds(), bulk.getTimeout());
+    }
+
+    @Singleton
+    public DeadlinePolicy deadlinePolicy(CVurlConfiguration configuration) {
+        return new DeadlinePolicy(configuration.getDeadline().getUsers(), configuration.getDeadline().getPhotos());
+    }
+
+    /**
+     * Free bytes of the slab and photos not stored for lack of them are registered as meters,
+     * exposed at /metrics/photo-cache.*.
+     */
+    @Singleton
+    public PhotoCache photoCache(CVurlConfiguration configuration, MeterRegistry meterRegistry) {
+        CVurlConfiguration.PhotoCacheConfiguration cache = configuration.getPhotoCache();
+        PhotoCache photoCache = new PhotoCache(cache.getCapacityBytes(), cache.getMaxEntryBytes(), cache.getPageBytes(),
+                cache.getFreshFor());
+        Gauge.builder("photo-cache.free-bytes", photoCache, PhotoCache::getFreeBytes)
+                .register(meterRegistry);
+        FunctionCounter.builder("photo-cache.rejected", photoCache, PhotoCache::getRejectedCount)
+                .register(meterRegistry);
+        return photoCache;
     }
 }
@@ -0,0 +1,34 @@
+package cvurl.usage.micronaut;
+
+import cvurl.usage.common.DeadlinePolicy;
+import cvurl.usage.common.UpstreamGuard.Route;
+import io.micronaut.management.endpoint.annotation.Endpoint;
+import io.micronaut.management.endpoint.annotation.Read;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Default budget and number of requests whose deadline was exceeded per route, exposed at /deadlines.
+ */
+@Endpoint(id = "deadlines", defaultSensitive = false)
+public class DeadlineEndpoint {
+
+    private final DeadlinePolicy deadlinePolicy;
+
+    public DeadlineEndpoint(DeadlinePolicy deadlinePolicy) {
+        this.deadlinePolicy = deadlinePolicy;
+    }
+
+    @Read
+    public Map<String, Object> deadlines() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Route route : Route.values()) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("defaultMillis", deadlinePolicy.getDefault(route).toMillis());
+            stats.put("exceeded", deadlinePolicy.getExceededCount(route));
+            result.put(route.name().toLowerCase(), stats);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,41 @@
+package cvurl.usage.micronaut;
+
+import cvurl.usage.common.Deadline;
+import cvurl.usage.common.DeadlinePolicy;
+import io.micronaut.aop.MethodInterceptor;
+import io.micronaut.aop.MethodInvocationContext;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.context.ServerRequestContext;
+
+import javax.inject.Singleton;
+import java.util.Optional;
+
+/**
+ * Binds {@link Deadline} of the current request around controller method invocation. Filters run on the event loop
+ * while blocking controllers run on the I/O pool, so it is bound on the thread that actually invokes the method.
+ * Upstream calls of asynchronous controllers are started on that thread too.
+ */
+@Singleton
+public class DeadlineInterceptor implements MethodInterceptor<Object, Object> {
+
+    private final DeadlinePolicy deadlinePolicy;
+
+    public DeadlineInterceptor(DeadlinePolicy deadlinePolicy) {
+        this.deadlinePolicy = deadlinePolicy;
+    }
+
+    @Override
+    public Object intercept(MethodInvocationContext<Object, Object> context) {
+        Optional<HttpRequest<Object>> request = ServerRequestContext.currentRequest();
+        if (request.isEmpty()) {
+            return context.proceed();
+        }
+        String header = request.get().getHeaders().get(Deadline.HEADER);
+        Deadline previous = Deadline.bind(deadlinePolicy.start(request.get().getPath(), header));
+        try {
+            return context.proceed();
+        } finally {
+            Deadline.bind(previous);
+        }
+    }
+}
@@ -3,42 +3,68 @@ package cvurl.usage.micronaut;
 import coresearch.cvurl.io.constant.HttpHeader;
 import coresearch.cvurl.io.constant.HttpStatus;
 import coresearch.cvurl.io.exception.ResponseMappingException;
-import coresearch.cvurl.io.mapper.BodyType;
 import coresearch.cvurl.io.model.Response;
 import coresearch.cvurl.io.multipart.MultipartBody;
 import coresearch.cvurl.io.multipart.Part;
 import coresearch.cvurl.io.request.CVurl;
-import coresearch.cvurl.io.util.Url;
+import cvurl.usage.common.BulkFetch;
+import cvurl.usage.common.DeadlineExceededException;
+import cvurl.usage.common.PhotoCache;
+import cvurl.usage.common.UpstreamGuard;
+import cvurl.usage.common.UpstreamGuard.Route;
+import cvurl.usage.common.UpstreamUnavailableException;
+import cvurl.usage.common.UserCache;
+import cvurl.usage.common.UsersSpliterator;
 import cvurl.usage.micronaut.model.GetUsersDto;
 import cvurl.usage.micronaut.model.User;
 import cvurl.usage.micronaut.model.UserDto;
+import cvurl.usage.micronaut.model.UserResult;
+import io.micronaut.http.HttpHeaders;
 import io.micronaut.http.HttpResponse;
 import io.micronaut.http.MediaType;
+import io.micronaut.http.MutableHttpResponse;
 import io.micronaut.http.annotation.Error;
 import io.micronaut.http.annotation.*;
-import io.micronaut.http.multipart.CompletedFileUpload;
+import io.micronaut.http.exceptions.HttpStatusException;
+import io.micronaut.http.multipart.StreamingFileUpload;
+import io.micronaut.http.server.types.files.StreamedFile;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 @Controller
+@WithDeadline
 public class ExampleController {
 
     private static final String HOST = "http://localhost:7000/";
     private static final String USERS = "users/";
     private static final String PHOTOS = "photos/";
     private static final int NON_EXISTENT_USER_ID = 23;
+    private static final int DEFAULT_PREFETCH_DEPTH = 2;
 
     private final CVurl cVurl;
+    private final UpstreamGuard upstreamGuard;
+    private final UserCache<User, GetUsersDto> userCache;
+    private final PhotoCache photoCache;
+    private final BulkFetch bulkFetch;
 
-    public ExampleController(CVurl cVurl) {
+    public ExampleController(CVurl cVurl, UpstreamGuard upstreamGuard, UserCache<User, GetUsersDto> userCache,
+                             PhotoCache photoCache, BulkFetch bulkFetch) {
         this.cVurl = cVurl;
+        this.upstreamGuard = upstreamGuard;
+        this.userCache = userCache;
+        this.photoCache = photoCache;
+        this.bulkFetch = bulkFetch;
     }
 
     @Error(ResponseMappingException.class)
@@ -47,24 +73,74 @@ public class ExampleController {
         return HttpResponse.status(getStatus(response)).body(response.getBody());
     }
 
+    /**
+     * Upstream call was rejected by circuit breaker or bulkhead, fail fast with SERVICE_UNAVAILABLE.
+     */
+    @Error(UpstreamUnavailableException.class)
+    public HttpResponse handleUpstreamUnavailable(UpstreamUnavailableException exception) {
+        return HttpResponse.status(io.micronaut.http.HttpStatus.SERVICE_UNAVAILABLE).body(exception.getMessage());
+    }
+
+    /**
+     * Time budget of the request ran out while waiting for upstream, respond with GATEWAY_TIMEOUT.
+     */
+    @Error(DeadlineExceededException.class)
+    public HttpResponse handleDeadlineExceeded(DeadlineExceededException exception) {
+        return HttpResponse.status(io.micronaut.http.HttpStatus.GATEWAY_TIMEOUT).body(exception.getMessage());
+    }
+
     /**
      * Make GET request to /users to get list of users with query param page (result is paginated) equals to passed parameter
      * page or 1 if none passed. Parse returned response body into {@link GetUsersDto} if response status is OK.
+     * Page is served from {@link UserCache}, concurrent calls for the same page share one upstream request,
+     * slow request is hedged if hedging is enabled.
+     * If comma separated ids are passed instead, e.g. /users?ids=1,2,3, users with these ids are returned
+     * as described in {@link #bulkUsers(String)}.
      */
     @Get("/users")
-    public GetUsersDto listUsers(@QueryValue Optional<Integer> page) {
-        return cVurl.get(HOST + USERS)
-                .queryParam("page", page.orElse(1).toString())
-                .asObject(GetUsersDto.class);
+    public HttpResponse<?> listUsers(@QueryValue Optional<Integer> page, @QueryValue Optional<String> ids) {
+        if (ids.isPresent()) {
+            return HttpResponse.ok(bulkUsers(ids.get()));
+        }
+        return HttpResponse.ok(userCache.get(userCache.page(page.orElse(1))));
+    }
+
+    /**
+     * Get users with given comma separated ids, making GET request to /users/{userId} per id.
+     * Requests run concurrently up to configured parallelism, each with its own timeout. Result of every id is
+     * returned in request order, id that failed (e.g. NOT_FOUND) has status and error instead of user.
+     */
+    private List<UserResult> bulkUsers(String ids) {
+        List<Integer> userIds;
+        try {
+            userIds = bulkFetch.parseIds(ids);
+        } catch (IllegalArgumentException e) {
+            throw new HttpStatusException(io.micronaut.http.HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        return bulkFetch.fetch(userIds, userId -> userCache.getAsync(userCache.user(userId)), UserResult::new).join();
+    }
+
+    /**
+     * Walk all pages of /users through {@link UsersSpliterator}, requesting up to prefetch pages ahead
+     * of the one being consumed, and return all users. Every page is a call of its own to {@link UpstreamGuard},
+     * so the walk holds no bulkhead permit between pages and the breaker sees page latency, not walk duration.
+     */
+    @Get("/users/all")
+    public List<User> allUsers(@QueryValue Optional<Integer> prefetch) {
+        return UsersSpliterator.stream(page -> upstreamGuard.executeAsync(Route.USERS, () -> cVurl.get(HOST + USERS)
+                .queryParam("page", String.valueOf(page))
+                .asyncAsObject(GetUsersDto.class)), prefetch.orElse(DEFAULT_PREFETCH_DEPTH), false)
+                .collect(Collectors.toList());
     }
 
     /**
      * Make GET request to /users/{userId} to get single user, parse response body to {@link User}.
+     * User is served from {@link UserCache}, concurrent calls for the same user share one upstream request,
+     * slow request is hedged if hedging is enabled.
      */
     @Get("/users/{userId}")
     public User singleUser(@PathVariable Integer userId) {
-        return cVurl.get(HOST + USERS + userId)
-                .asObject(User.class);
+        return userCache.get(userCache.user(userId));
     }
 
     /**
@@ -75,8 +151,8 @@ public class ExampleController {
      */
     @Get("/user-not-found")
     public User singleUserNotFound() {
-        return cVurl.get(HOST + USERS + NON_EXISTENT_USER_ID)
-                .asObject(User.class);
+        return upstreamGuard.execute(Route.USERS, () -> cVurl.get(HOST + USERS + NON_EXISTENT_USER_ID)
+                .asObject(User.class));
     }
 
     /**
@@ -86,9 +162,9 @@ public class ExampleController {
      */
     @Get("/user-as-string/{userId}")
     public HttpResponse singleUserAsString(@PathVariable String userId) {
-        Response<String> response = cVurl.get(HOST + USERS + userId)
+        Response<String> response = upstreamGuard.execute(Route.USERS, () -> cVurl.get(HOST + USERS + userId)
                 .asString()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
 
         if (response.status() == HttpStatus.OK) {
             return HttpResponse.ok().contentType(MediaType.APPLICATION_JSON).body(response.getBody());
@@ -109,10 +185,10 @@ public class ExampleController {
      */
     @Get("/user-as-string-compressed/{userId}")
     public HttpResponse singleUserAsStringCompressed(@PathVariable String userId) {
-        Response<String> response = cVurl.get(HOST + USERS + userId)
+        Response<String> response = upstreamGuard.execute(Route.USERS, () -> cVurl.get(HOST + USERS + userId)
                 .acceptCompressed()
                 .asString()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
 
         if (response.status() == HttpStatus.OK) {
             return HttpResponse.ok().contentType(MediaType.APPLICATION_JSON).body(response.getBody());
@@ -128,9 +204,9 @@ public class ExampleController {
      */
     @Get("/user-as-is/{userId}")
     public HttpResponse singleUserAsInputStream(@PathVariable String userId) throws IOException {
-        Response<InputStream> response = cVurl.get(HOST + USERS + userId)
+        Response<InputStream> response = upstreamGuard.execute(Route.USERS, () -> cVurl.get(HOST + USERS + userId)
                 .asStream()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
 
         if (response.status() == HttpStatus.OK) {
             return HttpResponse.ok()
@@ -149,11 +225,15 @@ public class ExampleController {
     @Post("/users")
     @Consumes(MediaType.APPLICATION_JSON)
     public User createUserFromJson(@Body UserDto userDto) {
-        return cVurl.post(HOST + USERS)
-                .body(userDto)
-                .header(HttpHeader.CONTENT_TYPE, MediaType.APPLICATION_JSON)
-                .asObject(User.class, HttpStatus.CREATED)
-                .orElseThrow(() -> new RuntimeException("User can't be created"));
+        try {
+            return upstreamGuard.execute(Route.USERS, () -> cVurl.post(HOST + USERS)
+                    .body(userDto)
+                    .header(HttpHeader.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                    .asObject(User.class, HttpStatus.CREATED)
+                    .orElseThrow(() -> new RuntimeException("User can't be created")));
+        } finally {
+            userCache.invalidateLists();
+        }
     }
 
     /**
@@ -164,10 +244,14 @@ public class ExampleController {
     @Post("/users")
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
     public User createUserFromFormUrlencoded(@Body Map<String, String> userMap) {
-        return cVurl.post(HOST + USERS)
-                .formData(userMap)
-                .asObject(User.class, HttpStatus.CREATED)
-                .orElseThrow(() -> new RuntimeException("User can't be created"));
+        try {
+            return upstreamGuard.execute(Route.USERS, () -> cVurl.post(HOST + USERS)
+                    .formData(userMap)
+                    .asObject(User.class, HttpStatus.CREATED)
+                    .orElseThrow(() -> new RuntimeException("User can't be created")));
+        } finally {
+            userCache.invalidateLists();
+        }
     }
 
 
@@ -177,10 +261,14 @@ public class ExampleController {
      */
     @Put("/users/{userId}")
     public User updateUser(@Body UserDto userDto, @PathVariable String userId) {
-        return cVurl.put(HOST + USERS + userId)
-                .body(userDto)
-                .headers(Map.of(HttpHeader.CONTENT_TYPE, MediaType.APPLICATION_JSON))
-                .asObject(User.class);
+        try {
+            return upstreamGuard.execute(Route.USERS, () -> cVurl.put(HOST + USERS + userId)
+                    .body(userDto)
+                    .headers(Map.of(HttpHeader.CONTENT_TYPE, MediaType.APPLICATION_JSON))
+                    .asObject(User.class));
+        } finally {
+            userCache.invalidateUser(userId);
+        }
     }
 
     /**
@@ -191,9 +279,14 @@ public class ExampleController {
      */
     @Delete("/users/{userId}")
     public HttpResponse deleteUser(@PathVariable String userId) {
-        Response<String> response = cVurl.delete(HOST + USERS + userId)
-                .asString()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+        Response<String> response;
+        try {
+            response = upstreamGuard.execute(Route.USERS, () -> cVurl.delete(HOST + USERS + userId)
+                    .asString()
+                    .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
+        } finally {
+            userCache.invalidateUser(userId);
+        }
 
         if (response.status() == HttpStatus.NO_CONTENT) {
             return HttpResponse.noContent();
@@ -205,58 +298,123 @@ public class ExampleController {
     /**
      * Make POST request to /photos with body of content type multipart/form-data which consists of the given
      * photo file and title. Saves photo identified by title in in-memory database on the server.
+     * Photo is relayed chunk by chunk as it arrives from the client, it is never buffered as a whole.
      */
     @Post("/photos")
     @Consumes(MediaType.MULTIPART_FORM_DATA)
-    public HttpResponse uploadPhoto(CompletedFileUpload photo, String title) throws IOException {
+    public HttpResponse uploadPhoto(StreamingFileUpload photo, String title) {
         MediaType mediaType = photo.getContentType()
                 .orElseThrow(() -> new RuntimeException("Photo Content-type header should be set"));
 
-        Response<String> response = cVurl.post(HOST + PHOTOS)
+        Response<String> response = upstreamGuard.execute(Route.PHOTOS, () -> cVurl.post(HOST + PHOTOS)
                 .body(MultipartBody.create()
                         .formPart("title", coresearch.cvurl.io.multipart.Part.of(title))
-                        .formPart("photo", Part.of(photo.getName(), mediaType.getName(), photo.getBytes())))
+                        .formPart("photo", Part.of(BodyPublishers.fromPublisher(new PartDataPublisher(photo)))
+                                .fileName(photo.getFilename())
+                                .contentType(mediaType.getName())))
                 .asString()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
+        photoCache.invalidate(title);
 
         return HttpResponse.status(getStatus(response));
     }
 
     /**
-     * Create temporary file, and make GET request to /photos/{title} with BodyHandlers.ofFile writing
-     * response content to created file. Returns response with code NOT_FOUND if no photo was found for
-     * provided title or content of temporary file with content type from response. Delete temporary file.
+     * Make GET request to /photos/{title} reading response as input stream. Returns response with code NOT_FOUND
+     * if no photo was found for provided title, otherwise upstream body is streamed straight to the client
+     * with content type and length from upstream response, so photo is never buffered on heap or on disk.
+     * Photo bulkhead permit is held until the body is streamed, see {@link UpstreamGuard#executeStreaming}.
+     * Photo is stored off-heap in {@link PhotoCache} as it is streamed. Cached photo is served without asking upstream
+     * while it is fresh, after that it is revalidated with If-None-Match and served if upstream answers NOT_MODIFIED,
+     * its off-heap pages are wrapped and written by Netty as they are, without copying.
      */
     @Get("/photos/{title}")
     public HttpResponse getPhoto(@PathVariable String title) throws IOException {
-        Path path = Paths.get("src/main/resources/temp_photo");
-        Files.createFile(path);
-        Response<Path> response = cVurl.get(HOST + PHOTOS + title)
-                .as(java.net.http.HttpResponse.BodyHandlers.ofFile(path))
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+        PhotoCache.CachedPhoto cached = photoCache.get(title);
+        try {
+            return cached != null && cached.isFresh() ? cachedPhoto(cached) : getPhoto(title, cached);
+        } finally {
+            if (cached != null) {
+                cached.release();
+            }
+        }
+    }
 
+    private HttpResponse getPhoto(String title, PhotoCache.CachedPhoto cached) throws IOException {
+        UpstreamGuard.Streaming<Response<InputStream>> streaming = upstreamGuard.executeStreaming(Route.PHOTOS,
+                () -> cVurl.get(HOST + PHOTOS + title)
+                        .headers(cached == null ? Map.of() : Map.of(HttpHeaders.IF_NONE_MATCH, cached.getEtag()))
+                        .asStream()
+                        .orElseThrow(() -> new RuntimeException("Some error happened during request execution")),
+                Response::getBody);
+        Response<InputStream> response = streaming.getResult();
+
+        if (response.status() == HttpStatus.NOT_MODIFIED && cached != null) {
+            streaming.getBody().close();
+            cached.revalidated();
+            return cachedPhoto(cached);
+        }
         if (response.status() == HttpStatus.NOT_FOUND) {
+            streaming.getBody().close();
+            photoCache.invalidate(title);
             return HttpResponse.notFound();
         }
-        String mediaType = response.getHeaderValue(HttpHeader.CONTENT_TYPE).orElseThrow(IllegalStateException::new);
-        HttpResponse httpResponse = HttpResponse.ok()
-                .contentType(mediaType)
-                .body(Files.readAllBytes(path));
+        String mediaType;
+        long contentLength;
+        try {
+            mediaType = response.getHeaderValue(HttpHeader.CONTENT_TYPE).orElseThrow(IllegalStateException::new);
+            contentLength = response.getHeaderValue(HttpHeaders.CONTENT_LENGTH).map(Long::parseLong).orElse(-1L);
+        } catch (RuntimeException e) {
+            // body is not streamed, close it to release the connection and bulkhead permit
+            streaming.getBody().close();
+            throw e;
+        }
+        InputStream photo = photoCache.caching(title, response.getHeaderValue(HttpHeaders.ETAG).orElse(null),
+                mediaType, contentLength, streaming.getBody());
+        MutableHttpResponse<StreamedFile> httpResponse = HttpResponse.ok(new StreamedFile(photo, new MediaType(mediaType)));
+        if (contentLength >= 0) {
+            httpResponse.contentLength(contentLength);
+        }
 
-        Files.delete(path);
         return httpResponse;
     }
 
     /**
      * Makes GET request to /users/list endpoint that return json array of objects.
-     * Parses it to List<User> by using BodyType.
+     * Parses it to List<User> by using BodyType. List is served from {@link UserCache},
+     * concurrent calls share one upstream request.
+     * Body is parsed straight from the response stream, it is never read into a String, see
+     * {@link UpstreamUsers#list()}.
      *
      * @return List of users
      */
     @Get("/users/list")
     public List<User> getUsersAsList() {
-        return cVurl.get(Url.of(HOST).path(USERS).path("list").create())
-                .asObject(new BodyType<>() {});
+        return userCache.get(userCache.list());
+    }
+
+    private static HttpResponse cachedPhoto(PhotoCache.CachedPhoto cached) {
+        return HttpResponse.ok(retainedContent(cached))
+                .contentType(cached.getContentType())
+                .contentLength(cached.getSize());
     }
 
+    /**
+     * Pages of the cached photo wrapped in one buffer, photo is retained until Netty releases it once written.
+     */
+    private static ByteBuf retainedContent(PhotoCache.CachedPhoto photo) {
+        ByteBuffer[] pages = photo.getContent();
+        ByteBuf[] buffers = new ByteBuf[pages.length];
+        for (int i = 0; i < pages.length; i++) {
+            buffers[i] = Unpooled.wrappedBuffer(pages[i]);
+        }
+        photo.retain();
+        return new CompositeByteBuf(UnpooledByteBufAllocator.DEFAULT, true, buffers.length, buffers) {
+            @Override
+            protected void deallocate() {
+                super.deallocate();
+                photo.release();
+            }
+        };
+    }
 }
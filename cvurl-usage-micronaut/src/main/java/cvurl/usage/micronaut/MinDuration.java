@@ -0,0 +1,23 @@
+package cvurl.usage.micronaut;
+
+import javax.validation.Constraint;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Duration of at least millis milliseconds, null is valid. Micronaut validation has no constraint for durations,
+ * this one is checked by the validator bean of {@link CVurlFactory#minDurationValidator()}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER})
+@Constraint(validatedBy = {})
+public @interface MinDuration {
+
+    String message() default "must be at least {millis} ms ({validatedValue})";
+
+    long millis();
+}
@@ -0,0 +1,84 @@
+package cvurl.usage.micronaut;
+
+import io.micronaut.http.multipart.PartData;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+
+/**
+ * Adapts chunks of streaming file upload to {@link Flow.Publisher} of byte buffers which can be used as
+ * HttpClient request body. Demand of the HttpClient is passed to the upload subscription as is, so
+ * upload is read from the client connection only as fast as upstream connection accepts it.
+ * <p>
+ * Chunk buffers belong to Netty and are released once onNext returns, while HttpClient writes them later,
+ * so every chunk is copied. Nothing is signalled to HttpClient once it has cancelled.
+ */
+public class PartDataPublisher implements Flow.Publisher<ByteBuffer> {
+
+    private final Publisher<PartData> source;
+
+    public PartDataPublisher(Publisher<PartData> source) {
+        this.source = source;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        source.subscribe(new Subscriber<>() {
+
+            private Subscription subscription;
+            private volatile boolean cancelled;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                        subscription.request(n);
+                    }
+
+                    @Override
+                    public void cancel() {
+                        cancelled = true;
+                        subscription.cancel();
+                    }
+                });
+            }
+
+            @Override
+            public void onNext(PartData partData) {
+                if (cancelled) {
+                    return;
+                }
+                ByteBuffer chunk;
+                try {
+                    chunk = ByteBuffer.wrap(partData.getBytes());
+                } catch (IOException e) {
+                    cancelled = true;
+                    subscription.cancel();
+                    subscriber.onError(e);
+                    return;
+                }
+                subscriber.onNext(chunk);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                if (!cancelled) {
+                    subscriber.onError(throwable);
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                if (!cancelled) {
+                    subscriber.onComplete();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,127 @@
+package cvurl.usage.micronaut;
+
+import coresearch.cvurl.io.constant.HttpHeader;
+import coresearch.cvurl.io.constant.HttpStatus;
+import coresearch.cvurl.io.mapper.BodyType;
+import coresearch.cvurl.io.model.Response;
+import coresearch.cvurl.io.request.CVurl;
+import coresearch.cvurl.io.util.Url;
+import cvurl.usage.common.HedgedRequests;
+import cvurl.usage.common.SingleFlight;
+import cvurl.usage.common.SmileMapper;
+import cvurl.usage.common.UpstreamGuard;
+import cvurl.usage.common.UpstreamGuard.Route;
+import cvurl.usage.common.UserCache;
+import cvurl.usage.micronaut.model.GetUsersDto;
+import cvurl.usage.micronaut.model.User;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.exceptions.HttpStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Upstream reads behind {@link UserCache}. Concurrent identical reads share one request through
+ * {@link SingleFlight}, every request is guarded by {@link UpstreamGuard} and slow user and page requests
+ * are hedged by {@link HedgedRequests}. Calls are built from user id or page number only, so a refresh of
+ * the cache does the same request as the first load did.
+ */
+public class UpstreamUsers implements UserCache.Loader<User, GetUsersDto> {
+
+    private static final String HOST = "http://localhost:7000/";
+    private static final String USERS = "users/";
+    private static final BodyType<List<User>> USERS_TYPE = new BodyType<>() {
+    };
+
+    private final CVurl cVurl;
+    private final SmileMapper mapper;
+    private final SingleFlight singleFlight;
+    private final UpstreamGuard upstreamGuard;
+    private final HedgedRequests hedgedRequests;
+    private final Executor mappingExecutor;
+
+    /**
+     * @param mappingExecutor executor that parses response streams, its threads block while body is received
+     */
+    public UpstreamUsers(CVurl cVurl, SmileMapper mapper, SingleFlight singleFlight, UpstreamGuard upstreamGuard,
+                         HedgedRequests hedgedRequests, Executor mappingExecutor) {
+        this.cVurl = cVurl;
+        this.mapper = mapper;
+        this.singleFlight = singleFlight;
+        this.upstreamGuard = upstreamGuard;
+        this.hedgedRequests = hedgedRequests;
+        this.mappingExecutor = mappingExecutor;
+    }
+
+    /**
+     * GET /users/{userId} parsed to {@link User}.
+     */
+    @Override
+    public CompletableFuture<User> user(String userId) {
+        String url = HOST + USERS + userId;
+        return singleFlight.executeAsync(SingleFlight.key("GET", url),
+                () -> upstreamGuard.executeAsync(Route.USERS, () -> hedgedRequests.executeAsync(() -> cVurl.get(url)
+                        .asyncAsObject(User.class))));
+    }
+
+    /**
+     * GET /users?page={page} parsed to {@link GetUsersDto}.
+     */
+    @Override
+    public CompletableFuture<GetUsersDto> page(int page) {
+        String pageParam = String.valueOf(page);
+        return singleFlight.executeAsync(SingleFlight.key("GET", HOST + USERS + "?page=" + pageParam),
+                () -> upstreamGuard.executeAsync(Route.USERS, () -> hedgedRequests.executeAsync(() -> cVurl.get(HOST + USERS)
+                        .queryParam("page", pageParam)
+                        .asyncAsObject(GetUsersDto.class))));
+    }
+
+    /**
+     * GET /users/list parsed to List&lt;User&gt; straight from the response stream, body is asked for as Smile
+     * in preference to JSON, see {@link SmileMapper}. Accept is part of the single-flight key, so callers asking
+     * for different representations do not share a response. Stream is read on the mapping executor, as reading it
+     * blocks until the body is received and cVurl executor must stay free to receive it.
+     */
+    @Override
+    public CompletableFuture<List<User>> list() {
+        var url = Url.of(HOST).path(USERS).path("list").create();
+        String accept = mapper.accept();
+        return singleFlight.executeAsync(SingleFlight.key("GET", url.toString(), Map.of(HttpHeaders.ACCEPT, accept)),
+                () -> upstreamGuard.executeAsync(Route.USERS, () -> cVurl.get(url)
+                        .header(HttpHeaders.ACCEPT, accept)
+                        .asyncAs(BodyHandlers.ofInputStream())
+                        .thenApplyAsync(response -> readBody(response, USERS_TYPE), mappingExecutor)));
+    }
+
+    /**
+     * Reloads after a write must not join a read which was in flight before it.
+     */
+    @Override
+    public void invalidated() {
+        singleFlight.invalidate();
+    }
+
+    private <T> T readBody(Response<InputStream> response, BodyType<T> bodyType) {
+        if (response.status() != HttpStatus.OK) {
+            throw new HttpStatusException(io.micronaut.http.HttpStatus.valueOf(response.status()),
+                    readString(response.getBody()));
+        }
+        return mapper.readValue(response.getHeaderValue(HttpHeader.CONTENT_TYPE).orElse(null),
+                response.getBody(), bodyType);
+    }
+
+    private static String readString(InputStream stream) {
+        try (InputStream body = stream) {
+            return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package cvurl.usage.micronaut;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import cvurl.usage.common.UserCache;
+import io.micronaut.management.endpoint.annotation.Endpoint;
+import io.micronaut.management.endpoint.annotation.Read;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hits, misses, evictions and size of {@link UserCache}, exposed at /usercache.
+ */
+@Endpoint(id = "usercache", defaultSensitive = false)
+public class UserCacheEndpoint {
+
+    private final UserCache<?, ?> userCache;
+
+    public UserCacheEndpoint(UserCache<?, ?> userCache) {
+        this.userCache = userCache;
+    }
+
+    @Read
+    public Map<String, Object> stats() {
+        CacheStats stats = userCache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", userCache.isEnabled());
+        result.put("size", userCache.estimatedSize());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictions", stats.evictionCount());
+        result.put("loadFailures", stats.loadFailureCount());
+        result.put("averageLoadMillis", stats.averageLoadPenalty() / 1_000_000);
+        return result;
+    }
+}
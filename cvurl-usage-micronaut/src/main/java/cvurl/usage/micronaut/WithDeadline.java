@@ -0,0 +1,22 @@
+package cvurl.usage.micronaut;
+
+import cvurl.usage.common.Deadline;
+import io.micronaut.aop.Around;
+import io.micronaut.context.annotation.Type;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Controller methods run with {@link Deadline} of the request they handle bound, see {@link DeadlineInterceptor}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Around
+@Type(DeadlineInterceptor.class)
+public @interface WithDeadline {
+}
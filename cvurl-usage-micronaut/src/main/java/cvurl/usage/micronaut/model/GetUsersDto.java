@@ -1,5 +1,6 @@
 package cvurl.usage.micronaut.model;
 
+import cvurl.usage.common.Page;
 import lombok.Builder;
 import lombok.Data;
 
@@ -7,7 +8,7 @@ import java.util.List;
 
 @Data
 @Builder
-public class GetUsersDto {
+public class GetUsersDto implements Page<User> {
     private Integer page;
     private Integer total;
     private List<User> data;
@@ -0,0 +1,20 @@
+package cvurl.usage.micronaut.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Result of one id of a bulk users request, user is set if status is OK, error otherwise.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserResult {
+    private Integer id;
+    private Integer status;
+    private User user;
+    private String error;
+}
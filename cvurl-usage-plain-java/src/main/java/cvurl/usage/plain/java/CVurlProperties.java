@@ -0,0 +1,157 @@
+package cvurl.usage.plain.java;
+
+import cvurl.usage.common.CompressingHttpClient;
+import cvurl.usage.common.EndpointSelector;
+import cvurl.usage.common.ExecutorType;
+import cvurl.usage.common.LoadBalancer;
+import cvurl.usage.common.SmileMapper;
+import lombok.Data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+/**
+ * Tuning of the HttpClient used by cVurl and of load balancing of its upstream calls. Values are read from cvurl.properties on the classpath,
+ * every one of them can be overridden with a system property of the same name, e.g. -Dcvurl.client.executor-size=16.
+ */
+@Data
+public class CVurlProperties {
+
+    private static final String RESOURCE = "/cvurl.properties";
+    private static final String PREFIX = "cvurl.client.";
+    private static final String UPSTREAM_PREFIX = "cvurl.upstream.";
+
+    /**
+     * HTTP_2 prefers HTTP/2 and falls back to HTTP/1.1 when server does not support it.
+     */
+    private HttpClient.Version version = HttpClient.Version.HTTP_2;
+    private Duration connectTimeout = Duration.ofSeconds(2);
+    private Duration requestTimeout = Duration.ofSeconds(10);
+    private ExecutorType executorType = ExecutorType.WORK_STEALING;
+
+    /**
+     * Number of executor threads, if it is not positive number of available processors is used.
+     */
+    private int executorSize = 0;
+
+    /**
+     * Whether JSON and form bodies of at least compressionMinSize bytes are sent gzip compressed, see {@link CompressingHttpClient}.
+     */
+    private boolean compressionEnabled = false;
+    private long compressionMinSize = 1024;
+
+    /**
+     * Whether upstream reads parsed from bytes accept Smile before JSON, see {@link SmileMapper}.
+     */
+    private boolean smileEnabled = true;
+
+    /**
+     * Instances of example-api, see {@link LoadBalancer} for the rest of upstream properties.
+     */
+    private List<URI> upstreamEndpoints = List.of(URI.create("http://localhost:7000"));
+    private EndpointSelector.Type upstreamSelector = EndpointSelector.Type.POWER_OF_TWO_CHOICES;
+    private String healthCheckPath = "/actuator/health";
+    private Duration healthCheckInterval = Duration.ofSeconds(5);
+    private Duration healthCheckTimeout = Duration.ofSeconds(1);
+    private int ejectionConsecutiveFailures = 5;
+    private Duration ejectionBaseTime = Duration.ofSeconds(30);
+    private int ejectionMaxPercent = 50;
+
+    public static CVurlProperties load() {
+        Properties file = new Properties();
+        try (InputStream stream = CVurlProperties.class.getResourceAsStream(RESOURCE)) {
+            if (stream != null) {
+                file.load(stream);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        CVurlProperties properties = new CVurlProperties();
+        String version = get(file, "version");
+        if (version != null) {
+            properties.setVersion(HttpClient.Version.valueOf(version));
+        }
+        String connectTimeout = get(file, "connect-timeout");
+        if (connectTimeout != null) {
+            properties.setConnectTimeout(Duration.parse(connectTimeout));
+        }
+        String requestTimeout = get(file, "request-timeout");
+        if (requestTimeout != null) {
+            properties.setRequestTimeout(Duration.parse(requestTimeout));
+        }
+        String executorType = get(file, "executor-type");
+        if (executorType != null) {
+            properties.setExecutorType(ExecutorType.valueOf(executorType));
+        }
+        String executorSize = get(file, "executor-size");
+        if (executorSize != null) {
+            properties.setExecutorSize(Integer.parseInt(executorSize));
+        }
+        String compressionEnabled = get(file, "compression.enabled");
+        if (compressionEnabled != null) {
+            properties.setCompressionEnabled(Boolean.parseBoolean(compressionEnabled));
+        }
+        String compressionMinSize = get(file, "compression.min-size");
+        if (compressionMinSize != null) {
+            properties.setCompressionMinSize(Long.parseLong(compressionMinSize));
+        }
+        String smileEnabled = get(file, "smile.enabled");
+        if (smileEnabled != null) {
+            properties.setSmileEnabled(Boolean.parseBoolean(smileEnabled));
+        }
+
+        String endpoints = getUpstream(file, "endpoints");
+        if (endpoints != null) {
+            properties.setUpstreamEndpoints(Arrays.stream(endpoints.split(","))
+                    .map(String::strip)
+                    .map(URI::create)
+                    .collect(Collectors.toList()));
+        }
+        String selector = getUpstream(file, "selector");
+        if (selector != null) {
+            properties.setUpstreamSelector(EndpointSelector.Type.valueOf(selector));
+        }
+        String healthCheckPath = getUpstream(file, "health-check.path");
+        if (healthCheckPath != null) {
+            properties.setHealthCheckPath(healthCheckPath);
+        }
+        String healthCheckInterval = getUpstream(file, "health-check.interval");
+        if (healthCheckInterval != null) {
+            properties.setHealthCheckInterval(Duration.parse(healthCheckInterval));
+        }
+        String healthCheckTimeout = getUpstream(file, "health-check.timeout");
+        if (healthCheckTimeout != null) {
+            properties.setHealthCheckTimeout(Duration.parse(healthCheckTimeout));
+        }
+        String consecutiveFailures = getUpstream(file, "ejection.consecutive-failures");
+        if (consecutiveFailures != null) {
+            properties.setEjectionConsecutiveFailures(Integer.parseInt(consecutiveFailures));
+        }
+        String baseTime = getUpstream(file, "ejection.base-time");
+        if (baseTime != null) {
+            properties.setEjectionBaseTime(Duration.parse(baseTime));
+        }
+        String maxPercent = getUpstream(file, "ejection.max-percent");
+        if (maxPercent != null) {
+            properties.setEjectionMaxPercent(Integer.parseInt(maxPercent));
+        }
+        return properties;
+    }
+
+    private static String get(Properties file, String name) {
+        return System.getProperty(PREFIX + name, file.getProperty(PREFIX + name));
+    }
+
+    private static String getUpstream(Properties file, String name) {
+        return System.getProperty(UPSTREAM_PREFIX + name, file.getProperty(UPSTREAM_PREFIX + name));
+    }
+}
@@ -1,5 +1,8 @@
 package cvurl.usage.plain.java;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
 import coresearch.cvurl.io.constant.HttpHeader;
 import coresearch.cvurl.io.constant.HttpStatus;
 import coresearch.cvurl.io.constant.MIMEType;
@@ -9,13 +12,26 @@ import coresearch.cvurl.io.model.Response;
 import coresearch.cvurl.io.multipart.MultipartBody;
 import coresearch.cvurl.io.multipart.Part;
 import coresearch.cvurl.io.request.CVurl;
+import coresearch.cvurl.io.request.Configuration;
 import coresearch.cvurl.io.util.Url;
+import cvurl.usage.common.CompressingHttpClient;
+import cvurl.usage.common.FlightRecorderHttpClient;
+import cvurl.usage.common.LoadBalancer;
+import cvurl.usage.common.LoadBalancingHttpClient;
+import cvurl.usage.common.SingleFlight;
+import cvurl.usage.common.SmileMapper;
+import cvurl.usage.common.StreamingJacksonMapper;
+import cvurl.usage.common.UpstreamMetrics;
+import cvurl.usage.common.UsersSpliterator;
 import cvurl.usage.plain.java.model.GetUsersDto;
 import cvurl.usage.plain.java.model.User;
 import cvurl.usage.plain.java.model.UserDto;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
 import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -23,6 +39,7 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Stream;
 
 public class CVurlUsageExample {
 
@@ -31,39 +48,69 @@ public class CVurlUsageExample {
     private static final String PHOTOS = "photos/";
     private static final int NON_EXISTENT_USER_ID = 23;
 
+    private static final CVurlProperties properties = CVurlProperties.load();
+    private static final SmileMapper mapper = new SmileMapper(new StreamingJacksonMapper(),
+            new ObjectMapper(new SmileFactory()).registerModule(new AfterburnerModule()),
+            properties.isSmileEnabled(), UpstreamMetrics.NONE);
     private static final CVurl cVurl = createCVurl();
+    private static final SingleFlight singleFlight = new SingleFlight(properties.getRequestTimeout());
 
     private static CVurl createCVurl() {
-        return new CVurl();
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(properties.getVersion())
+                .connectTimeout(properties.getConnectTimeout())
+                .executor(properties.getExecutorType().createExecutor(properties.getExecutorSize()))
+                .build();
 
-        /*
-        other ways you can create CVurl:
-        new CVurl(Configuration.builder(httpClient)
-                .genericMapper(genericMapper)
-                .build());
-        new CVurl(Configuration.builder()
-                .executor(Executors.newFixedThreadPool(3))
-                .requestTimeout(Duration.ofSeconds(5))
+        LoadBalancer loadBalancer = new LoadBalancer(properties.getUpstreamEndpoints(),
+                properties.getUpstreamSelector().create(), properties.getHealthCheckPath(),
+                properties.getHealthCheckInterval(), properties.getHealthCheckTimeout(),
+                properties.getEjectionConsecutiveFailures(), properties.getEjectionBaseTime(),
+                properties.getEjectionMaxPercent());
+
+        HttpClient balancingClient = new LoadBalancingHttpClient(httpClient, URI.create(HOST), loadBalancer);
+        HttpClient recordingClient = new FlightRecorderHttpClient(balancingClient);
+        return new CVurl(Configuration.builder(properties.isCompressionEnabled()
+                ? new CompressingHttpClient(recordingClient, properties.getCompressionMinSize())
+                : recordingClient)
+                .genericMapper(mapper)
+                .requestTimeout(properties.getRequestTimeout())
                 .build());
-        */
     }
 
     /**
      * Make GET request to /users to get list of users with query param page (result is paginated) equals to passed parameter
      * page or 1 if none passed. Parse returned response body into {@link GetUsersDto} if response status is OK.
+     * Concurrent calls for the same page share one upstream request.
      */
     public static GetUsersDto listUsers(Integer page) {
-        return cVurl.get(HOST + USERS)
-                .queryParam("page", Objects.requireNonNullElse(page, 1).toString())
-                .asObject(GetUsersDto.class);
+        String pageParam = Objects.requireNonNullElse(page, 1).toString();
+        return singleFlight.execute(SingleFlight.key("GET", HOST + USERS + "?page=" + pageParam),
+                () -> cVurl.get(HOST + USERS)
+                        .queryParam("page", pageParam)
+                        .asObject(GetUsersDto.class));
+    }
+
+    /**
+     * Lazily walk all pages of /users as a single stream of users. While the current page is being consumed
+     * up to prefetchDepth next pages are requested asynchronously, so consumer does not wait a full round trip
+     * between pages. Parallel stream splits remaining pages between threads.
+     */
+    public static Stream<User> allUsers(int prefetchDepth, boolean parallel) {
+        return UsersSpliterator.stream(page -> cVurl.get(HOST + USERS)
+                .queryParam("page", String.valueOf(page))
+                .asyncAsObject(GetUsersDto.class), prefetchDepth, parallel);
     }
 
     /**
      * Make GET request to /users/{userId} to get single user, parse response body to {@link User}.
+     * Concurrent calls for the same user share one upstream request.
      */
     public static User singleUser(Integer userId) {
-        return cVurl.get(HOST + USERS + userId)
-                .asObject(User.class);
+        String url = HOST + USERS + userId;
+        return singleFlight.execute(SingleFlight.key("GET", url),
+                () -> cVurl.get(url)
+                        .asObject(User.class));
     }
 
     /**
@@ -130,6 +177,22 @@ public class CVurlUsageExample {
                 .orElseThrow(() -> new RuntimeException("User can't be created"));
     }
 
+    /**
+     * Make POST request to /users to create user with request body written from {@link UserDto} object as Smile,
+     * binary JSON, with header Content-type = application/x-jackson-smile. Created user is asked for as Smile too
+     * and parsed from the response stream in format of its Content-Type if response status code is CREATED.
+     */
+    public static User createUserFromSmile(UserDto userDto) {
+        return readStream(cVurl.post(HOST + USERS)
+                        .body(mapper.writeBytes(userDto))
+                        .header(HttpHeader.CONTENT_TYPE, SmileMapper.CONTENT_TYPE)
+                        .header(HttpHeader.ACCEPT, mapper.accept())
+                        .asStream()
+                        .orElseThrow(() -> new RuntimeException("Some error happened during request execution")),
+                HttpStatus.CREATED, new BodyType<User>() {
+                });
+    }
+
     /**
      * Make POST request to /users to create user with request body as map with values userMap map
      * with header Content-type = application/x-www-form-urlencoded, parse response body to {@link User} if response status code is CREATED,
@@ -200,17 +263,45 @@ public class CVurlUsageExample {
 
     /**
      * Makes GET request to /users/list endpoint that return json array of objects.
-     * Parses it to List<User> by using BodyType.
+     * Parses it to List<User> by using BodyType. Concurrent calls share one upstream request.
+     * Body is asked for as Smile in preference to JSON and parsed straight from the response stream,
+     * it is never read into a String.
      *
      * @return List of users
      */
     public static List<User> getUsersAsList() {
-        return cVurl.get(Url.of(HOST).path(USERS).path("list").create())
-                .asObject(new BodyType<>() {
-                });
+        var url = Url.of(HOST).path(USERS).path("list").create();
+        String accept = mapper.accept();
+        return singleFlight.execute(SingleFlight.key("GET", url.toString(), Map.of(HttpHeader.ACCEPT, accept)),
+                () -> readStream(cVurl.get(url)
+                                .header(HttpHeader.ACCEPT, accept)
+                                .asStream()
+                                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")),
+                        HttpStatus.OK, new BodyType<List<User>>() {
+                        }));
+    }
+
+    /**
+     * @return counters of the single-flight layer in front of GET requests
+     */
+    public static SingleFlight getSingleFlight() {
+        return singleFlight;
     }
 
 
+    private static <T> T readStream(Response<InputStream> response, int status, BodyType<T> bodyType) {
+        if (response.status() == status) {
+            return mapper.readValue(response.getHeaderValue(HttpHeader.CONTENT_TYPE).orElse(null),
+                    response.getBody(), bodyType);
+        }
+        try (InputStream body = response.getBody()) {
+            throw new RuntimeException("Bad response with status code " + response.status() +
+                    " and body " + new String(body.readAllBytes()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private static <T> T getBody(Response<T> response) {
         if (response.status() == HttpStatus.OK) {
             return response.getBody();
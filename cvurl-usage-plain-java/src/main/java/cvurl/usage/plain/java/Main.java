@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import static cvurl.usage.plain.java.CVurlUsageExample.*;
 
@@ -24,6 +25,7 @@ public class Main {
         var userDto = new UserDto("name", "job");
 
         logResult(listUsers(1));
+        logResult(allUsers(2, false).collect(Collectors.toList()));
         logResult(singleUser(1));
 
         try {
@@ -37,10 +39,14 @@ public class Main {
         logResult(singleUserAsStringCompressed(1));
         logResult(new String(singleUserAsInputStream(1).readAllBytes()));
         logResult(createUserFromJson(userDto));
+        logResult(createUserFromSmile(userDto));
         logResult(createUserFromFormUrlencoded(Map.of("name", userDto.getName(), "email", userDto.getEmail())));
         logResult(uploadPhoto(Path.of(PHOTO_PATH), PHOTO_TITLE));
         logResult(getPhoto(PHOTO_TITLE, GET_PHOTO_PATH));
         logResult(getUsersAsList());
+
+        LOGGER.info("Upstream GET requests executed: {}, coalesced: {}",
+                getSingleFlight().getExecutedCount(), getSingleFlight().getCoalescedCount());
     }
 
     private static void logResult(Object result) {
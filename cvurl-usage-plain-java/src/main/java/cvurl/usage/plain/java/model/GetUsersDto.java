@@ -1,5 +1,6 @@
 package cvurl.usage.plain.java.model;
 
+import cvurl.usage.common.Page;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -11,7 +12,7 @@ import java.util.List;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class GetUsersDto {
+public class GetUsersDto implements Page<User> {
     private Integer page;
     private Integer total;
     private List<User> data;
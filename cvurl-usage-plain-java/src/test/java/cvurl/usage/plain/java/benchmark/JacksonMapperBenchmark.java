@@ -0,0 +1,140 @@
+package cvurl.usage.plain.java.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import coresearch.cvurl.io.exception.MappingException;
+import coresearch.cvurl.io.mapper.BodyType;
+import coresearch.cvurl.io.mapper.GenericMapper;
+import cvurl.usage.common.StreamingJacksonMapper;
+import cvurl.usage.plain.java.model.GetUsersDto;
+import cvurl.usage.plain.java.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Compares mapping of User, GetUsersDto and List&lt;User&gt; payloads by:
+ * <ul>
+ * <li>plain - ObjectMapper called directly for every value</li>
+ * <li>cached - {@link StreamingJacksonMapper} over reflection based ObjectMapper, readers and writers reused per type</li>
+ * <li>afterburner - default {@link StreamingJacksonMapper}, cached readers and writers plus generated accessors</li>
+ * </ul>
+ * Each mapper type is a separate result in operations per millisecond, so caching and Afterburner can be judged
+ * apart. Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main
+ * -Dexec.args="JacksonMapperBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JacksonMapperBenchmark {
+
+    private static final BodyType<List<User>> USERS_TYPE = new BodyType<>() {
+    };
+    private static final int USERS_COUNT = 100;
+
+    @Param({"plain", "cached", "afterburner"})
+    private String mapperType;
+
+    private GenericMapper mapper;
+    private String userJson;
+    private String usersPageJson;
+    private String usersListJson;
+    private GetUsersDto usersPage;
+
+    @Setup
+    public void setUp() {
+        mapper = createMapper(mapperType);
+
+        String users = IntStream.rangeClosed(1, USERS_COUNT)
+                .mapToObj(JacksonMapperBenchmark::userJson)
+                .collect(Collectors.joining(",", "[", "]"));
+        userJson = userJson(1);
+        usersListJson = users;
+        usersPageJson = "{\"page\":1,\"total\":" + USERS_COUNT + ",\"totalPages\":1,\"perPage\":" + USERS_COUNT
+                + ",\"data\":" + users + "}";
+        usersPage = mapper.readValue(usersPageJson, GetUsersDto.class);
+    }
+
+    @Benchmark
+    public User readUser() {
+        return mapper.readValue(userJson, User.class);
+    }
+
+    @Benchmark
+    public GetUsersDto readUsersPage() {
+        return mapper.readValue(usersPageJson, GetUsersDto.class);
+    }
+
+    @Benchmark
+    public List<User> readUsersList() {
+        return mapper.readValue(usersListJson, USERS_TYPE);
+    }
+
+    @Benchmark
+    public String writeUsersPage() {
+        return mapper.writeValue(usersPage);
+    }
+
+    private static String userJson(int id) {
+        return "{\"id\":" + id + ",\"email\":\"user" + id + "@gmail.com\",\"name\":\"User " + id + "\"}";
+    }
+
+    private static GenericMapper createMapper(String type) {
+        ObjectMapper objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        switch (type) {
+            case "plain":
+                return new PlainJacksonMapper(objectMapper);
+            case "cached":
+                return new StreamingJacksonMapper(objectMapper);
+            case "afterburner":
+                return new StreamingJacksonMapper();
+            default:
+                throw new IllegalArgumentException("Unknown mapper type " + type);
+        }
+    }
+
+    private static class PlainJacksonMapper extends GenericMapper {
+
+        private final ObjectMapper objectMapper;
+
+        private PlainJacksonMapper(ObjectMapper objectMapper) {
+            this.objectMapper = objectMapper;
+        }
+
+        @Override
+        public <T> T readValue(String value, Class<T> type) {
+            try {
+                return objectMapper.readValue(value, type);
+            } catch (IOException e) {
+                throw new MappingException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public String writeValue(Object obj) {
+            try {
+                return objectMapper.writeValueAsString(obj);
+            } catch (JsonProcessingException e) {
+                throw new MappingException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public <T> T readValue(String str, BodyType<T> bodyType) {
+            try {
+                return objectMapper.readValue(str, objectMapper.constructType(bodyType.getType()));
+            } catch (IOException e) {
+                throw new MappingException(e.getMessage(), e);
+            }
+        }
+    }
+}
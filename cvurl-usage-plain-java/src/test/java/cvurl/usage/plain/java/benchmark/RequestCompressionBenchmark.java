@@ -0,0 +1,82 @@
+package cvurl.usage.plain.java.benchmark;
+
+import cvurl.usage.common.CompressingHttpClient;
+import cvurl.usage.common.StreamingJacksonMapper;
+import cvurl.usage.plain.java.model.UserDto;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Sends batch import bodies of usersCount users over a link of given bandwidth, as they are and gzip compressed
+ * by {@link CompressingHttpClient}. Transfer is simulated by spinning for body size / bandwidth, so the score is
+ * the number of bodies one sender pushes through the link per second, compression CPU time included.
+ * <p>
+ * Compression wins where gzip is faster than sending the bytes it saves. The default
+ * cvurl.client.compression.min-size of 1024 bytes is not tuned, pick it at the crossover this benchmark shows
+ * for the link the client actually uses:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main
+ * -Dexec.args="RequestCompressionBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestCompressionBenchmark {
+
+    /**
+     * Content-Encoding header sent with every compressed body.
+     */
+    private static final int CONTENT_ENCODING_BYTES = "Content-Encoding: gzip\r\n".length();
+
+    @Param({"1", "10", "100", "1000"})
+    private int usersCount;
+
+    /**
+     * 1 Mbit/s, 10 Mbit/s, 100 Mbit/s and 1 Gbit/s.
+     */
+    @Param({"125000", "1250000", "12500000", "125000000"})
+    private long linkBytesPerSecond;
+
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        List<UserDto> users = IntStream.rangeClosed(1, usersCount)
+                .mapToObj(id -> new UserDto("User " + id, "user" + id + "@gmail.com"))
+                .collect(Collectors.toList());
+        body = new StreamingJacksonMapper().writeValue(usersCount == 1 ? users.get(0) : users)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int uncompressed() {
+        transfer(body.length);
+        return body.length;
+    }
+
+    @Benchmark
+    public int gzip() throws IOException {
+        byte[] compressed = CompressingHttpClient.gzip(HttpRequest.BodyPublishers.ofByteArray(body));
+        transfer(compressed.length + CONTENT_ENCODING_BYTES);
+        return compressed.length;
+    }
+
+    /**
+     * Spin for the time the link needs to send given number of bytes, parking is too coarse for fast links.
+     */
+    private void transfer(long bytes) {
+        long end = System.nanoTime() + bytes * TimeUnit.SECONDS.toNanos(1) / linkBytesPerSecond;
+        while (System.nanoTime() - end < 0) {
+            Thread.onSpinWait();
+        }
+    }
+}
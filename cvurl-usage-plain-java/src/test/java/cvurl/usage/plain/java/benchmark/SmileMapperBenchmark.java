@@ -0,0 +1,120 @@
+package cvurl.usage.plain.java.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import coresearch.cvurl.io.mapper.BodyType;
+import cvurl.usage.common.SmileMapper;
+import cvurl.usage.common.StreamingJacksonMapper;
+import cvurl.usage.common.UpstreamMetrics;
+import cvurl.usage.plain.java.model.GetUsersDto;
+import cvurl.usage.plain.java.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Compares JSON and Smile bodies of User, GetUsersDto and List&lt;User&gt; the way they go over the wire:
+ * <ul>
+ * <li>json - written by {@link StreamingJacksonMapper} to a String and encoded to UTF-8 as cVurl sends it,
+ * parsed from the bytes of the response</li>
+ * <li>smile - written by {@link SmileMapper} straight to bytes and parsed from them</li>
+ * </ul>
+ * Body size of every payload is printed once per format before the measurement.
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main
+ * -Dexec.args="SmileMapperBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmileMapperBenchmark {
+
+    private static final BodyType<User> USER_TYPE = new BodyType<>() {
+    };
+    private static final BodyType<GetUsersDto> USERS_PAGE_TYPE = new BodyType<>() {
+    };
+    private static final BodyType<List<User>> USERS_TYPE = new BodyType<>() {
+    };
+    private static final int USERS_COUNT = 100;
+    private static final String JSON_CONTENT_TYPE = "application/json";
+
+    @Param({"json", "smile"})
+    private String format;
+
+    private SmileMapper mapper;
+    private String contentType;
+    private User user;
+    private GetUsersDto usersPage;
+    private List<User> users;
+    private byte[] userBody;
+    private byte[] usersPageBody;
+    private byte[] usersBody;
+
+    @Setup
+    public void setUp() {
+        mapper = new SmileMapper(new StreamingJacksonMapper(),
+                new ObjectMapper(new SmileFactory()).registerModule(new AfterburnerModule()), true, UpstreamMetrics.NONE);
+        contentType = "smile".equals(format) ? SmileMapper.CONTENT_TYPE : JSON_CONTENT_TYPE;
+
+        users = IntStream.rangeClosed(1, USERS_COUNT)
+                .mapToObj(id -> new User(id, "user" + id + "@gmail.com", "User " + id))
+                .collect(Collectors.toList());
+        user = users.get(0);
+        usersPage = new GetUsersDto(1, USERS_COUNT, users, 1, USERS_COUNT);
+
+        userBody = write(user);
+        usersPageBody = write(usersPage);
+        usersBody = write(users);
+        System.out.printf("%n%s body bytes: User %d, GetUsersDto %d, List<User> %d%n",
+                format, userBody.length, usersPageBody.length, usersBody.length);
+    }
+
+    @Benchmark
+    public byte[] writeUser() {
+        return write(user);
+    }
+
+    @Benchmark
+    public byte[] writeUsersPage() {
+        return write(usersPage);
+    }
+
+    @Benchmark
+    public byte[] writeUsersList() {
+        return write(users);
+    }
+
+    @Benchmark
+    public User readUser() {
+        return read(userBody, USER_TYPE);
+    }
+
+    @Benchmark
+    public GetUsersDto readUsersPage() {
+        return read(usersPageBody, USERS_PAGE_TYPE);
+    }
+
+    @Benchmark
+    public List<User> readUsersList() {
+        return read(usersBody, USERS_TYPE);
+    }
+
+    private byte[] write(Object value) {
+        return contentType.equals(SmileMapper.CONTENT_TYPE)
+                ? mapper.writeBytes(value)
+                : mapper.writeValue(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private <T> T read(byte[] body, BodyType<T> type) {
+        return mapper.readValue(contentType, new ByteArrayInputStream(body), type);
+    }
+}
@@ -0,0 +1,59 @@
+package cvurl.usage.plain.java.benchmark;
+
+import coresearch.cvurl.io.mapper.BodyType;
+import cvurl.usage.common.StreamingJacksonMapper;
+import cvurl.usage.plain.java.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Compares String based and stream based parsing of /users/list response body, both starting from
+ * the same response bytes.
+ * <p>
+ * Run with allocation profiler:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main
+ * -Dexec.args="StreamingMapperBenchmark -prof gc"
+ * gc.alloc.rate.norm is the number of bytes allocated by one call of a method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamingMapperBenchmark {
+
+    private static final BodyType<List<User>> USERS_TYPE = new BodyType<>() {
+    };
+
+    @Param({"10", "1000", "10000"})
+    private int usersCount;
+
+    private StreamingJacksonMapper mapper;
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        mapper = new StreamingJacksonMapper();
+        body = IntStream.rangeClosed(1, usersCount)
+                .mapToObj(id -> "{\"id\":" + id + ",\"email\":\"user" + id + "@gmail.com\",\"name\":\"User " + id + "\"}")
+                .collect(Collectors.joining(",", "[", "]"))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<User> fromString() {
+        return mapper.readValue(new String(body, StandardCharsets.UTF_8), USERS_TYPE);
+    }
+
+    @Benchmark
+    public List<User> fromStream() {
+        return mapper.readValue(new ByteArrayInputStream(body), USERS_TYPE);
+    }
+}
@@ -0,0 +1,68 @@
+#!/usr/bin/env bash
+#
+# Load comparison of blocking ExampleResource and non-blocking ReactiveExampleResource.
+#
+# Requires wrk (https://github.com/wg/wrk). Build the module and start it together with example-api:
+#   mvn install -f ../cvurl-usage-common && mvn package && java -Dcvurl.bulkhead.users=4096 -jar target/cvurl-usage-quarkus-1.0-SNAPSHOT-runner.jar
+# bulkhead is raised so that it does not reject requests of the test, non-2xx responses are reported by wrk.
+# then run:
+#   ./load-compare.sh [connections] [duration seconds]
+#
+# For every route pair wrk measures throughput and latency, while CPU time of the application threads is
+# sampled from /proc before and after the run. Utilization of a thread group is its CPU time divided by
+# wall time times number of threads in the group. Blocking routes hold an executor-thread worker while waiting
+# for example-api; reactive routes release the worker once the Uni or Multi is returned and are completed from
+# cvurl-client and vert.x-eventloop threads. No results are recorded here.
+#
+set -euo pipefail
+
+CONNECTIONS=${1:-256}
+DURATION=${2:-30}
+BASE=http://localhost:8080
+ROUTES=(/users/1 "/users?page=2" /users/list)
+
+PID=$(pgrep -f 'cvurl-usage-quarkus.*-runner' | head -n 1 || true)
+[[ -n "$PID" ]] || { echo "cvurl-usage-quarkus is not running" >&2; exit 1; }
+command -v wrk >/dev/null || { echo "wrk is required" >&2; exit 1; }
+TICKS=$(getconf CLK_TCK)
+
+# Prints "group ticks" per thread, group is thread name without trailing numbers
+thread_ticks() {
+  for task in /proc/"$PID"/task/*; do
+    local name stat
+    name=$(sed 's/[-0-9]*$//' "$task/comm")
+    stat=$(sed 's/.*) //' "$task/stat")
+    # utime and stime are 12th and 13th fields after the command name
+    echo "$name $(awk '{print $12 + $13}' <<< "$stat")"
+  done
+}
+
+utilization() {
+  local before=$1 after=$2 seconds=$3
+  join -a 2 -e 0 -o 0,1.2,2.2,2.3 \
+    <(awk '{ticks[$1] += $2} END {for (g in ticks) print g, ticks[g]}' <<< "$before" | sort) \
+    <(awk '{ticks[$1] += $2; count[$1]++} END {for (g in ticks) print g, ticks[g], count[g]}' <<< "$after" | sort) |
+    awk -v seconds="$seconds" -v hz="$TICKS" '{
+      used = ($3 - $2) / hz
+      if (used > 0) printf "    %-18s threads %4d  cpu %7.2fs  utilization %5.1f%%\n", $1, $4, used, 100 * used / (seconds * $4)
+    }' | sort -k5 -nr | head -n 5
+}
+
+run() {
+  local url=$1 before after start elapsed
+  before=$(thread_ticks)
+  start=$(date +%s)
+  wrk -t4 -c"$CONNECTIONS" -d"${DURATION}s" --latency "$url" |
+    awk '/Requests\/sec/ {print "    throughput " $2 " req/s"} /^ +(50|99)%/ {print "    latency p" $1 " " $2}
+      /Non-2xx/ {print "    non-2xx responses " $NF}'
+  elapsed=$(( $(date +%s) - start ))
+  after=$(thread_ticks)
+  utilization "$before" "$after" "$elapsed"
+}
+
+for route in "${ROUTES[@]}"; do
+  echo "blocking $route"
+  run "$BASE$route"
+  echo "reactive /reactive$route"
+  run "$BASE/reactive$route"
+done
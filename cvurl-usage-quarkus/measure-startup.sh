@@ -0,0 +1,99 @@
+#!/usr/bin/env bash
+#
+# Measures time to first proxied request and memory of the Quarkus example, JVM vs native.
+#
+# Build both flavours first:
+#   mvn install -f ../cvurl-usage-common && mvn package && mvn package -Pnative
+# then run:
+#   ./measure-startup.sh [runs]
+#
+# example-api is started from ../example-api/target if nothing listens on port 7000 yet.
+# For every run the application is started, GET /users/1 is polled until it succeeds, after that every
+# endpoint of ExampleResource is called once to check that it works in this flavour, then RSS is read.
+#
+set -euo pipefail
+
+RUNS=${1:-5}
+PORT=8080
+API_PORT=7000
+JVM_CMD=(java -jar target/cvurl-usage-quarkus-1.0-SNAPSHOT-runner.jar)
+NATIVE_CMD=(target/cvurl-usage-quarkus-1.0-SNAPSHOT-runner)
+
+cd "$(dirname "$0")"
+
+API_PID=""
+APP_PID=""
+cleanup() {
+  [[ -n "$APP_PID" ]] && kill "$APP_PID" 2>/dev/null || true
+  [[ -n "$API_PID" ]] && kill "$API_PID" 2>/dev/null || true
+}
+trap cleanup EXIT
+
+now_ms() {
+  echo $(( $(date +%s%N) / 1000000 ))
+}
+
+wait_for() {
+  until curl -sf -o /dev/null "$1"; do
+    sleep 0.005
+  done
+}
+
+if ! curl -s -o /dev/null "http://localhost:$API_PORT/users/1"; then
+  java -jar ../example-api/target/*.jar >/dev/null 2>&1 &
+  API_PID=$!
+  wait_for "http://localhost:$API_PORT/users/1"
+fi
+
+# Every endpoint is expected to answer with status below 500, 404 of /user-not-found included
+smoke_test() {
+  local base="http://localhost:$PORT" failed=0 status
+  local requests=(
+    "GET /users?page=1" "GET /users/all" "GET /users/1" "GET /user-not-found"
+    "GET /user-as-string/1" "GET /user-as-string-compressed/1" "GET /user-as-is/1" "GET /users/list"
+  )
+  for request in "${requests[@]}"; do
+    status=$(curl -s -o /dev/null -w '%{http_code}' -X "${request% *}" "$base${request#* }")
+    if (( status >= 500 )); then
+      echo "  $request -> $status" >&2
+      failed=1
+    fi
+  done
+  status=$(curl -s -o /dev/null -w '%{http_code}' -H 'Content-Type: application/json' \
+    -d '{"name":"name","email":"email"}' "$base/users")
+  (( status < 500 )) || { echo "  POST /users -> $status" >&2; failed=1; }
+  status=$(curl -s -o /dev/null -w '%{http_code}' -F "photo=@../cvurl-usage-plain-java/src/main/resources/test_photo.jpg" \
+    -F "title=native-test" "$base/photos")
+  (( status < 500 )) || { echo "  POST /photos -> $status" >&2; failed=1; }
+  status=$(curl -s -o /dev/null -w '%{http_code}' "$base/photos/native-test")
+  (( status < 500 )) || { echo "  GET /photos/native-test -> $status" >&2; failed=1; }
+  return $failed
+}
+
+measure() {
+  local name=$1; shift
+  local total_first=0 total_rss=0 total_peak=0 smoke="ok"
+  for ((run = 1; run <= RUNS; run++)); do
+    local start first rss peak
+    start=$(now_ms)
+    "$@" >/dev/null 2>&1 &
+    APP_PID=$!
+    wait_for "http://localhost:$PORT/users/1"
+    first=$(( $(now_ms) - start ))
+    smoke_test || smoke="FAILED"
+    rss=$(awk '/VmRSS/ {print $2}' "/proc/$APP_PID/status")
+    peak=$(awk '/VmHWM/ {print $2}' "/proc/$APP_PID/status")
+    kill "$APP_PID"
+    wait "$APP_PID" 2>/dev/null || true
+    APP_PID=""
+    total_first=$((total_first + first))
+    total_rss=$((total_rss + rss))
+    total_peak=$((total_peak + peak))
+  done
+  printf "%-8s %22d %16d %17d %10s\n" "$name" $((total_first / RUNS)) $((total_rss / RUNS / 1024)) \
+    $((total_peak / RUNS / 1024)) "$smoke"
+}
+
+printf "%-8s %22s %16s %17s %10s\n" "mode" "first request, ms" "RSS after, MB" "peak RSS, MB" "endpoints"
+[[ -f "${JVM_CMD[2]}" ]] && measure jvm "${JVM_CMD[@]}" || echo "jvm: ${JVM_CMD[2]} not found, run mvn install -f ../cvurl-usage-common && mvn package"
+[[ -x "${NATIVE_CMD[0]}" ]] && measure native "${NATIVE_CMD[@]}" || echo "native: ${NATIVE_CMD[0]} not found, run mvn package -Pnative"
@@ -1,25 +1,251 @@
 package cvurl.usage.quarkus;
 
 import coresearch.cvurl.io.request.CVurl;
+import coresearch.cvurl.io.request.Configuration;
+import cvurl.usage.common.BulkFetch;
+import cvurl.usage.common.CircuitBreaker;
+import cvurl.usage.common.CompressingHttpClient;
+import cvurl.usage.common.DeadlinePolicy;
+import cvurl.usage.common.ExecutorType;
+import cvurl.usage.common.FlightRecorderHttpClient;
+import cvurl.usage.common.HedgedRequests;
+import cvurl.usage.common.InstrumentedHttpClient;
+import cvurl.usage.common.LoadBalancer;
+import cvurl.usage.common.LoadBalancingHttpClient;
+import cvurl.usage.common.PhotoCache;
+import cvurl.usage.common.SingleFlight;
+import cvurl.usage.common.SmileMapper;
+import cvurl.usage.common.UpstreamGuard;
+import cvurl.usage.common.UpstreamMetrics;
+import cvurl.usage.common.UserCache;
+import cvurl.usage.quarkus.model.GetUsersDto;
+import cvurl.usage.quarkus.model.User;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+
+import javax.enterprise.inject.Disposes;
 import javax.enterprise.inject.Produces;
-import javax.json.bind.JsonbBuilder;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
 public class CVurlFactory {
 
+    /**
+     * Base URL of the resources' upstream calls, requests to it are balanced over cvurl.upstream.endpoints.
+     */
+    private static final URI EXAMPLE_API = URI.create("http://localhost:7000");
+
+    /**
+     * Latency of upstream calls and of mapping their bodies, exposed at /metrics/application.
+     */
     @Produces
-    public CVurl cVurl() {
-        return new CVurl(new JsonbMapper(JsonbBuilder.create()));
+    @Singleton
+    public UpstreamMetrics upstreamMetrics(MetricRegistry metricRegistry) {
+        return new MicroProfileUpstreamMetrics(metricRegistry);
+    }
 
-        /*
-        other ways you can create CVurl:
-        new CVurl(Configuration.builder(httpClient)
-                .genericMapper(new JsonbMapper(JsonbBuilder.create()))
-                .build());
-        new CVurl(Configuration.builder()
-                .executor(Executors.newFixedThreadPool(3))
-                .requestTimeout(Duration.ofSeconds(5))
+    @Produces
+    @Singleton
+    public DslJsonMapper dslJsonMapper(UpstreamMetrics upstreamMetrics) {
+        return new DslJsonMapper(upstreamMetrics);
+    }
+
+    /**
+     * Upstream reads parsed from bytes ask for Smile, reads through cVurl asObject stay JSON.
+     */
+    @Produces
+    @Singleton
+    public SmileMapper smileMapper(DslJsonMapper dslJsonMapper, UpstreamMetrics upstreamMetrics,
+                                   CVurlProperties properties) {
+        return new SmileMapper(dslJsonMapper, properties.getClient().getSmile().isEnabled(), upstreamMetrics);
+    }
+
+    @Produces
+    @Singleton
+    public ExecutorService cVurlExecutor(CVurlProperties properties) {
+        CVurlProperties.ClientProperties client = properties.getClient();
+        return client.getExecutorType().createExecutor(client.getExecutorSize());
+    }
+
+    public void closeCVurlExecutor(@Disposes ExecutorService cVurlExecutor) {
+        cVurlExecutor.shutdown();
+    }
+
+    /**
+     * Parses upstream response streams, separate from the cVurl executor which receives them.
+     */
+    @Produces
+    @Singleton
+    @Named("mapping")
+    public ExecutorService mappingExecutor(CVurlProperties properties) {
+        return ExecutorType.FIXED.createExecutor(properties.getClient().getMappingExecutorSize());
+    }
+
+    public void closeMappingExecutor(@Disposes @Named("mapping") ExecutorService mappingExecutor) {
+        mappingExecutor.shutdown();
+    }
+
+    @Produces
+    @Singleton
+    public LoadBalancer loadBalancer(CVurlProperties properties) {
+        CVurlProperties.UpstreamProperties upstream = properties.getUpstream();
+        return new LoadBalancer(upstream.getEndpoints().stream().map(URI::create).collect(Collectors.toList()),
+                upstream.getSelector().create(), upstream.getHealthCheck().getPath(),
+                upstream.getHealthCheck().getInterval(), upstream.getHealthCheck().getTimeout(),
+                upstream.getEjection().getConsecutiveFailures(), upstream.getEjection().getBaseTime(),
+                upstream.getEjection().getMaxPercent());
+    }
+
+    public void closeLoadBalancer(@Disposes LoadBalancer loadBalancer) {
+        loadBalancer.close();
+    }
+
+    /**
+     * Tasks queued on the cVurl executor and calls in flight per upstream endpoint are registered as gauges,
+     * exposed at /metrics/application.
+     */
+    @Produces
+    @Singleton
+    public CVurl cVurl(DslJsonMapper dslJsonMapper, ExecutorService cVurlExecutor, LoadBalancer loadBalancer,
+                       UpstreamMetrics upstreamMetrics, MetricRegistry metricRegistry, CVurlProperties properties) {
+        CVurlProperties.ClientProperties client = properties.getClient();
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(client.getVersion())
+                .connectTimeout(client.getConnectTimeout())
+                .executor(cVurlExecutor)
+                .build();
+
+        registerGauge(metricRegistry, "upstream.executor.queued", () -> ExecutorType.queuedTasks(cVurlExecutor));
+        for (LoadBalancer.Endpoint endpoint : loadBalancer.getEndpoints()) {
+            registerGauge(metricRegistry, "upstream.endpoint.outstanding", () -> (long) endpoint.getOutstanding(),
+                    new Tag("endpoint", endpoint.getUri().toString()));
+        }
+
+        HttpClient balancingClient = new LoadBalancingHttpClient(httpClient, EXAMPLE_API, loadBalancer);
+        HttpClient recordingClient = new FlightRecorderHttpClient(balancingClient);
+        HttpClient instrumentedClient = new InstrumentedHttpClient(recordingClient, upstreamMetrics);
+        return new CVurl(Configuration.builder(client.getCompression().isEnabled()
+                ? new CompressingHttpClient(instrumentedClient, client.getCompression().getMinSize())
+                : instrumentedClient)
+                .genericMapper(dslJsonMapper)
+                .requestTimeout(client.getRequestTimeout())
                 .build());
-        */
+    }
+
+    /**
+     * Calls that went upstream, calls that joined one in flight, calls abandoned by all callers or timed out and keys
+     * in flight are registered as gauges, exposed at /metrics/application.
+     */
+    @Produces
+    @Singleton
+    public SingleFlight singleFlight(CVurlProperties properties, MetricRegistry metricRegistry) {
+        SingleFlight singleFlight = new SingleFlight(properties.getSingleFlight().getSharedTimeout());
+        registerGauge(metricRegistry, "single-flight.executed", singleFlight::getExecutedCount);
+        registerGauge(metricRegistry, "single-flight.coalesced", singleFlight::getCoalescedCount);
+        registerGauge(metricRegistry, "single-flight.abandoned", singleFlight::getAbandonedCount);
+        registerGauge(metricRegistry, "single-flight.timed-out", singleFlight::getTimedOutCount);
+        registerGauge(metricRegistry, "single-flight.in-flight", () -> (long) singleFlight.getInFlightCount());
+        return singleFlight;
+    }
+
+    /**
+     * Hedged requests, duplicates sent and duplicates that won are registered as gauges, exposed at /metrics/application.
+     */
+    @Produces
+    @Singleton
+    public HedgedRequests hedgedRequests(MetricRegistry metricRegistry, CVurlProperties properties) {
+        CVurlProperties.HedgingProperties hedging = properties.getHedging();
+        HedgedRequests hedgedRequests = new HedgedRequests(hedging.isEnabled(), hedging.getPercentile(),
+                hedging.getBudget(), hedging.getMaxBurst(), hedging.getInitialDelay());
+        registerGauge(metricRegistry, "hedging.requests", hedgedRequests::getRequestsCount);
+        registerGauge(metricRegistry, "hedging.hedges", hedgedRequests::getHedgesCount);
+        registerGauge(metricRegistry, "hedging.wins", hedgedRequests::getHedgeWinsCount);
+        return hedgedRequests;
+    }
+
+    @Produces
+    @Singleton
+    public UpstreamGuard upstreamGuard(CVurlProperties properties) {
+        CVurlProperties.CircuitBreakerProperties circuitBreaker = properties.getCircuitBreaker();
+        CVurlProperties.BulkheadProperties bulkhead = properties.getBulkhead();
+        return new UpstreamGuard(new CircuitBreaker(circuitBreaker.getFailureRateThreshold(),
+                circuitBreaker.getSlowCallRateThreshold(), circuitBreaker.getSlowCallDuration(),
+                circuitBreaker.getWindowSize(), circuitBreaker.getWaitInOpen(), circuitBreaker.getHalfOpenCalls()),
+                bulkhead.getUsers(), bulkhead.getPhotos());
+    }
+
+    @Produces
+    @Singleton
+    public BulkFetch bulkFetch(CVurlProperties properties) {
+        CVurlProperties.BulkProperties bulk = properties.getBulk();
+        return new BulkFetch(bulk.getParallelism(), bulk.getMaxIds(), bulk.getTimeout());
+    }
+
+    /**
+     * Free bytes of the slab and photos not stored for lack of them are registered as gauges,
+     * exposed at /metrics/application.
+     */
+    @Produces
+    @Singleton
+    public PhotoCache photoCache(CVurlProperties properties, MetricRegistry metricRegistry) {
+        CVurlProperties.PhotoCacheProperties cache = properties.getPhotoCache();
+        PhotoCache photoCache = new PhotoCache(cache.getCapacityBytes(), cache.getMaxEntryBytes(), cache.getPageBytes(),
+                cache.getFreshFor());
+        registerGauge(metricRegistry, "photo-cache.free-bytes", photoCache::getFreeBytes);
+        registerGauge(metricRegistry, "photo-cache.rejected", photoCache::getRejectedCount);
+        return photoCache;
+    }
+
+    /**
+     * Number of requests whose deadline was exceeded per route is registered as gauges, exposed at /metrics/application.
+     */
+    @Produces
+    @Singleton
+    public DeadlinePolicy deadlinePolicy(MetricRegistry metricRegistry, CVurlProperties properties) {
+        DeadlinePolicy deadlinePolicy = new DeadlinePolicy(properties.getDeadline().getUsers(),
+                properties.getDeadline().getPhotos());
+        registerGauge(metricRegistry, "deadline.exceeded.users", () -> deadlinePolicy.getExceededCount(UpstreamGuard.Route.USERS));
+        registerGauge(metricRegistry, "deadline.exceeded.photos", () -> deadlinePolicy.getExceededCount(UpstreamGuard.Route.PHOTOS));
+        return deadlinePolicy;
+    }
+
+    @Produces
+    @Singleton
+    public UpstreamUsers upstreamUsers(CVurl cVurl, SmileMapper smileMapper, SingleFlight singleFlight,
+                                       UpstreamGuard upstreamGuard, HedgedRequests hedgedRequests,
+                                       @Named("mapping") ExecutorService mappingExecutor) {
+        return new UpstreamUsers(cVurl, smileMapper, singleFlight, upstreamGuard, hedgedRequests, mappingExecutor);
+    }
+
+    /**
+     * Hits, misses, evictions and size of the cache are registered as gauges, exposed at /metrics/application.
+     */
+    @Produces
+    @Singleton
+    public UserCache<User, GetUsersDto> userCache(MetricRegistry metricRegistry, UpstreamUsers upstreamUsers,
+                                                  CVurlProperties properties) {
+        CVurlProperties.CacheProperties cache = properties.getCache();
+        UserCache<User, GetUsersDto> userCache = new UserCache<>(upstreamUsers, cache.isEnabled(),
+                cache.getMaximumSize(), cache.getRefreshAfter(), cache.getExpireAfter());
+        registerGauge(metricRegistry, "user-cache.hits", () -> userCache.stats().hitCount());
+        registerGauge(metricRegistry, "user-cache.misses", () -> userCache.stats().missCount());
+        registerGauge(metricRegistry, "user-cache.evictions", () -> userCache.stats().evictionCount());
+        registerGauge(metricRegistry, "user-cache.load-failures", () -> userCache.stats().loadFailureCount());
+        registerGauge(metricRegistry, "user-cache.size", userCache::estimatedSize);
+        return userCache;
+    }
 
+    private static void registerGauge(MetricRegistry metricRegistry, String name, Gauge<Long> gauge, Tag... tags) {
+        metricRegistry.register(Metadata.builder()
+                .withName(name)
+                .withType(MetricType.GAUGE)
+                .build(), gauge, tags);
     }
 }
@@ -0,0 +1,19 @@
+package cvurl.usage.quarkus;
+
+import cvurl.usage.common.DeadlineExceededException;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+@Provider
+public class DeadlineExceededExceptionMapper implements ExceptionMapper<DeadlineExceededException> {
+
+    @Override
+    public Response toResponse(DeadlineExceededException e) {
+        return Response
+                .status(Response.Status.GATEWAY_TIMEOUT)
+                .entity(e.getMessage())
+                .build();
+    }
+}
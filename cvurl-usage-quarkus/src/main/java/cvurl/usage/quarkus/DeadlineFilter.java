@@ -0,0 +1,36 @@
+package cvurl.usage.quarkus;
+
+import cvurl.usage.common.Deadline;
+import cvurl.usage.common.DeadlinePolicy;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Binds {@link Deadline} of the request to the worker thread that invokes the resource method, upstream calls
+ * of asynchronous resources are started on that thread too. Every request binds its own, so deadline left behind
+ * by asynchronous resource whose response is filtered on another thread is never seen by the next request.
+ */
+@Provider
+public class DeadlineFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private final DeadlinePolicy deadlinePolicy;
+
+    public DeadlineFilter(DeadlinePolicy deadlinePolicy) {
+        this.deadlinePolicy = deadlinePolicy;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        Deadline.bind(deadlinePolicy.start(requestContext.getUriInfo().getPath(),
+                requestContext.getHeaderString(Deadline.HEADER)));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        Deadline.bind(null);
+    }
+}
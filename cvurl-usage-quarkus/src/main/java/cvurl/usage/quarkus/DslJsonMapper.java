@@ -0,0 +1,97 @@
+package cvurl.usage.quarkus;
+
+import com.dslplatform.json.DslJson;
+import com.dslplatform.json.JsonWriter;
+import com.dslplatform.json.runtime.Settings;
+import coresearch.cvurl.io.mapper.BodyType;
+import cvurl.usage.common.MappingTimer;
+import cvurl.usage.common.StreamingMapper;
+import cvurl.usage.common.UpstreamMappingEvent;
+import cvurl.usage.common.UpstreamMetrics;
+import cvurl.usage.common.UpstreamMetrics.Operation;
+
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link StreamingMapper} backed by DSL-JSON. Converters for the models annotated with @CompiledJson are generated
+ * by the annotation processor at compile time and found through ServiceLoader, so mapping them involves no
+ * reflection, needs no warm up of reflective accessors and no reflection config for native image.
+ * Runtime analysis is only used for containers such as List&lt;User&gt;, their elements still go through
+ * generated converters.
+ * <p>
+ * Time of every read and write is reported to {@link UpstreamMetrics} and, while it is enabled in a flight
+ * recording, as {@link UpstreamMappingEvent}.
+ */
+public class DslJsonMapper extends StreamingMapper {
+
+    private final DslJson<Object> dslJson;
+    private final ThreadLocal<JsonWriter> writers;
+    private final UpstreamMetrics metrics;
+
+    public DslJsonMapper() {
+        this(UpstreamMetrics.NONE);
+    }
+
+    public DslJsonMapper(UpstreamMetrics metrics) {
+        this(new DslJson<>(Settings.withRuntime().includeServiceLoader()), metrics);
+    }
+
+    public DslJsonMapper(DslJson<Object> dslJson) {
+        this(dslJson, UpstreamMetrics.NONE);
+    }
+
+    public DslJsonMapper(DslJson<Object> dslJson, UpstreamMetrics metrics) {
+        this.dslJson = dslJson;
+        this.writers = ThreadLocal.withInitial(dslJson::newWriter);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public <T> T readValue(String value, Class<T> type) {
+        return read(value, type);
+    }
+
+    @Override
+    public String writeValue(Object obj) {
+        return MappingTimer.time(metrics, Operation.WRITE, obj == null ? null : obj.getClass(), () -> {
+            JsonWriter writer = writers.get();
+            writer.reset();
+            dslJson.serialize(writer, obj);
+            return writer.toString();
+        });
+    }
+
+    @Override
+    public <T> T readValue(String str, BodyType<T> bodyType) {
+        return read(str, bodyType.getType());
+    }
+
+    @Override
+    public <T> T readValue(InputStream stream, Class<T> type) {
+        return read(stream, type);
+    }
+
+    @Override
+    public <T> T readValue(InputStream stream, BodyType<T> bodyType) {
+        return read(stream, bodyType.getType());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T read(String value, Type type) {
+        return MappingTimer.time(metrics, Operation.READ, type, () -> {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            return (T) dslJson.deserialize(type, bytes, bytes.length);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T read(InputStream stream, Type type) {
+        return MappingTimer.time(metrics, Operation.READ, type, () -> {
+            try (stream) {
+                return (T) dslJson.deserialize(type, stream);
+            }
+        });
+    }
+}
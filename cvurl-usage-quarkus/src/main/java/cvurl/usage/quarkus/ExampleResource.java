@@ -4,29 +4,34 @@ import coresearch.cvurl.io.constant.HttpHeader;
 import coresearch.cvurl.io.constant.HttpStatus;
 import coresearch.cvurl.io.constant.MIMEType;
 import coresearch.cvurl.io.exception.ResponseMappingException;
-import coresearch.cvurl.io.mapper.BodyType;
 import coresearch.cvurl.io.model.Response;
 import coresearch.cvurl.io.multipart.MultipartBody;
 import coresearch.cvurl.io.multipart.Part;
 import coresearch.cvurl.io.request.CVurl;
-import coresearch.cvurl.io.util.Url;
+import cvurl.usage.common.BulkFetch;
+import cvurl.usage.common.PhotoCache;
+import cvurl.usage.common.UpstreamGuard;
+import cvurl.usage.common.UpstreamGuard.Route;
+import cvurl.usage.common.UserCache;
+import cvurl.usage.common.UsersSpliterator;
 import cvurl.usage.quarkus.model.GetUsersDto;
 import cvurl.usage.quarkus.model.User;
 import cvurl.usage.quarkus.model.UserDto;
+import cvurl.usage.quarkus.model.UserResult;
 import org.jboss.resteasy.plugins.providers.multipart.InputPart;
 import org.jboss.resteasy.plugins.providers.multipart.MultipartFormDataInput;
 
 import javax.inject.Inject;
 import javax.ws.rs.*;
-import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.http.HttpResponse;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.net.http.HttpRequest.BodyPublishers;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 import static javax.ws.rs.core.MediaType.*;
 import static javax.ws.rs.core.Response.ok;
@@ -38,36 +43,85 @@ public class ExampleResource {
     private static final String USERS = "users/";
     private static final String PHOTOS = "photos/";
     private static final int NON_EXISTENT_USER_ID = 23;
+    private static final String DEFAULT_PREFETCH_DEPTH = "2";
 
     private final CVurl cVurl;
+    private final UpstreamGuard upstreamGuard;
+    private final UserCache<User, GetUsersDto> userCache;
+    private final PhotoCache photoCache;
+    private final BulkFetch bulkFetch;
 
     @Inject
-    public ExampleResource(CVurl cVurl) {
+    public ExampleResource(CVurl cVurl, UpstreamGuard upstreamGuard, UserCache<User, GetUsersDto> userCache,
+                           PhotoCache photoCache, BulkFetch bulkFetch) {
         this.cVurl = cVurl;
+        this.upstreamGuard = upstreamGuard;
+        this.userCache = userCache;
+        this.photoCache = photoCache;
+        this.bulkFetch = bulkFetch;
     }
 
     /**
      * Make GET request to /users to get list of users with query param page (result is paginated) equals to passed parameter
      * page or 1 if none passed. Parse returned response body into {@link GetUsersDto} if response status is OK.
+     * Page is served from {@link UserCache}, concurrent calls for the same page share one upstream request,
+     * slow request is hedged if hedging is enabled.
+     * If comma separated ids are passed instead, e.g. /users?ids=1,2,3, users with these ids are returned
+     * as described in {@link #bulkUsers(String)}.
      */
     @GET
     @Produces(APPLICATION_JSON)
     @Path("/users")
-    public GetUsersDto listUsers(@DefaultValue("1") @QueryParam("page") Integer page) {
-        return cVurl.get(HOST + USERS)
-                .queryParam("page", Objects.requireNonNullElse(page, 1).toString())
-                .asObject(GetUsersDto.class);
+    public javax.ws.rs.core.Response listUsers(@DefaultValue("1") @QueryParam("page") Integer page,
+                                               @QueryParam("ids") String ids) {
+        if (ids != null) {
+            return bulkUsers(ids);
+        }
+        return ok(userCache.get(userCache.page(Objects.requireNonNullElse(page, 1)))).build();
+    }
+
+    /**
+     * Get users with given comma separated ids, making GET request to /users/{userId} per id.
+     * Requests run concurrently up to configured parallelism, each with its own timeout. Result of every id is
+     * returned in request order, id that failed (e.g. NOT_FOUND) has status and error instead of user.
+     */
+    private javax.ws.rs.core.Response bulkUsers(String ids) {
+        List<Integer> userIds;
+        try {
+            userIds = bulkFetch.parseIds(ids);
+        } catch (IllegalArgumentException e) {
+            return javax.ws.rs.core.Response.status(HttpStatus.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+        List<UserResult> results = bulkFetch.fetch(userIds, userId -> userCache.getAsync(userCache.user(userId)),
+                UserResult::new).join();
+        return ok(results).build();
+    }
+
+    /**
+     * Walk all pages of /users through {@link UsersSpliterator}, requesting up to prefetch pages ahead
+     * of the one being consumed, and return all users. Every page is a call of its own to {@link UpstreamGuard},
+     * so the walk holds no bulkhead permit between pages and the breaker sees page latency, not walk duration.
+     */
+    @GET
+    @Produces(APPLICATION_JSON)
+    @Path("/users/all")
+    public List<User> allUsers(@DefaultValue(DEFAULT_PREFETCH_DEPTH) @QueryParam("prefetch") Integer prefetch) {
+        return UsersSpliterator.stream(page -> upstreamGuard.executeAsync(Route.USERS, () -> cVurl.get(HOST + USERS)
+                .queryParam("page", String.valueOf(page))
+                .asyncAsObject(GetUsersDto.class)), prefetch, false)
+                .collect(Collectors.toList());
     }
 
     /**
      * Make GET request to /users/{userId} to get single user, parse response body to {@link User}.
+     * User is served from {@link UserCache}, concurrent calls for the same user share one upstream request,
+     * slow request is hedged if hedging is enabled.
      */
     @GET
     @Produces(APPLICATION_JSON)
     @Path("/users/{userId}")
     public User singleUser(@PathParam("userId") Integer userId) {
-        return cVurl.get(HOST + USERS + userId)
-                .asObject(User.class);
+        return userCache.get(userCache.user(userId));
     }
 
     /**
@@ -79,8 +133,8 @@ public class ExampleResource {
     @GET
     @Path("/user-not-found")
     public User singleUserNotFound() {
-        return cVurl.get(HOST + USERS + NON_EXISTENT_USER_ID)
-                .asObject(User.class);
+        return upstreamGuard.execute(Route.USERS, () -> cVurl.get(HOST + USERS + NON_EXISTENT_USER_ID)
+                .asObject(User.class));
     }
 
     /**
@@ -91,9 +145,9 @@ public class ExampleResource {
     @GET
     @Path("/user-as-string/{userId}")
     public javax.ws.rs.core.Response singleUserAsString(@PathParam("userId") String userId) {
-        Response<String> response = cVurl.get(HOST + USERS + userId)
+        Response<String> response = upstreamGuard.execute(Route.USERS, () -> cVurl.get(HOST + USERS + userId)
                 .asString()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
 
         if (response.status() == HttpStatus.OK) {
             return ok(response.getBody(), APPLICATION_JSON).build();
@@ -111,10 +165,10 @@ public class ExampleResource {
     @GET
     @Path("/user-as-string-compressed/{userId}")
     public javax.ws.rs.core.Response singleUserAsStringCompressed(@PathParam("userId") String userId) {
-        Response<String> response = cVurl.get(HOST + USERS + userId)
+        Response<String> response = upstreamGuard.execute(Route.USERS, () -> cVurl.get(HOST + USERS + userId)
                 .acceptCompressed()
                 .asString()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
 
         if (response.status() == HttpStatus.OK) {
             return ok(response.getBody(), APPLICATION_JSON).build();
@@ -131,9 +185,9 @@ public class ExampleResource {
     @GET
     @Path("/user-as-is/{userId}")
     public javax.ws.rs.core.Response singleUserAsInputStream(@PathParam("userId") String userId) throws IOException {
-        Response<InputStream> response = cVurl.get(HOST + USERS + userId)
+        Response<InputStream> response = upstreamGuard.execute(Route.USERS, () -> cVurl.get(HOST + USERS + userId)
                 .asStream()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
 
         if (response.status() == HttpStatus.OK) {
             return ok(response.getBody().readAllBytes(), APPLICATION_JSON).build();
@@ -152,11 +206,15 @@ public class ExampleResource {
     @Produces(APPLICATION_JSON)
     @Path("/users")
     public User createUserFromJson(UserDto userDto) {
-        return cVurl.post(HOST + USERS)
-                .body(userDto)
-                .header(HttpHeader.CONTENT_TYPE, MIMEType.APPLICATION_JSON)
-                .asObject(User.class, HttpStatus.CREATED)
-                .orElseThrow(() -> new RuntimeException("User can't be created"));
+        try {
+            return upstreamGuard.execute(Route.USERS, () -> cVurl.post(HOST + USERS)
+                    .body(userDto)
+                    .header(HttpHeader.CONTENT_TYPE, MIMEType.APPLICATION_JSON)
+                    .asObject(User.class, HttpStatus.CREATED)
+                    .orElseThrow(() -> new RuntimeException("User can't be created")));
+        } finally {
+            userCache.invalidateLists();
+        }
     }
 
     /**
@@ -169,10 +227,14 @@ public class ExampleResource {
     @Produces(APPLICATION_JSON)
     @Path("/users")
     public User createUserFromFormUrlencoded(Map<String, String> userMap) {
-        return cVurl.post(HOST + USERS)
-                .formData(userMap)
-                .asObject(User.class, HttpStatus.CREATED)
-                .orElseThrow(() -> new RuntimeException("User can't be created"));
+        try {
+            return upstreamGuard.execute(Route.USERS, () -> cVurl.post(HOST + USERS)
+                    .formData(userMap)
+                    .asObject(User.class, HttpStatus.CREATED)
+                    .orElseThrow(() -> new RuntimeException("User can't be created")));
+        } finally {
+            userCache.invalidateLists();
+        }
     }
 
 
@@ -185,10 +247,14 @@ public class ExampleResource {
     @Produces(APPLICATION_JSON)
     @Path("/users/{userId}")
     public User updateUser(UserDto userDto, @PathParam("userId") String userId) {
-        return cVurl.put(HOST + USERS + userId)
-                .body(userDto)
-                .headers(Map.of(HttpHeader.CONTENT_TYPE, MIMEType.APPLICATION_JSON))
-                .asObject(User.class);
+        try {
+            return upstreamGuard.execute(Route.USERS, () -> cVurl.put(HOST + USERS + userId)
+                    .body(userDto)
+                    .headers(Map.of(HttpHeader.CONTENT_TYPE, MIMEType.APPLICATION_JSON))
+                    .asObject(User.class));
+        } finally {
+            userCache.invalidateUser(userId);
+        }
     }
 
     /**
@@ -200,9 +266,14 @@ public class ExampleResource {
     @DELETE
     @Path("/{userId}")
     public javax.ws.rs.core.Response deleteUser(@PathParam("userId") String userId) {
-        Response<String> response = cVurl.delete(HOST + USERS + "/" + userId)
-                .asString()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+        Response<String> response;
+        try {
+            response = upstreamGuard.execute(Route.USERS, () -> cVurl.delete(HOST + USERS + "/" + userId)
+                    .asString()
+                    .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
+        } finally {
+            userCache.invalidateUser(userId);
+        }
 
         if (response.status() == HttpStatus.NO_CONTENT) {
             return javax.ws.rs.core.Response.noContent().build();
@@ -217,6 +288,9 @@ public class ExampleResource {
     /**
      * Make POST request to /photos with body of content type multipart/form-data which consists of the given
      * photo file and title. Saves photo identified by title in in-memory database on the server.
+     * RESTEasy parses the whole multipart body before this method is called, so the photo is already buffered
+     * by {@link MultipartFormDataInput}. Only the upstream request streams it, from the part's input stream
+     * as upstream connection consumes it, without another copy into a byte array.
      */
     @POST
     @Consumes(MULTIPART_FORM_DATA)
@@ -226,47 +300,109 @@ public class ExampleResource {
 
         String title = formDataMap.get("title").get(0).getBodyAsString();
         InputPart photoInputPart = formDataMap.get("photo").get(0);
-        byte[] content = photoInputPart.getBody(new GenericType<>(byte[].class));
+        InputStream content = photoInputPart.getBody(InputStream.class, null);
         String contentType = photoInputPart.getMediaType().toString();
 
-        Response<String> response = cVurl.post(HOST + PHOTOS)
+        Response<String> response = upstreamGuard.execute(Route.PHOTOS, () -> cVurl.post(HOST + PHOTOS)
                 .body(MultipartBody.create()
                         .formPart("title", Part.of(title))
-                        .formPart("photo", Part.of(title, contentType, content)))
+                        .formPart("photo", Part.of(BodyPublishers.ofInputStream(() -> content))
+                                .fileName(title)
+                                .contentType(contentType)))
                 .asString()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
+        photoCache.invalidate(title);
 
         return javax.ws.rs.core.Response.status(response.status()).build();
     }
 
     /**
-     * Create temporary file, and make GET request to /photos/{title} with BodyHandlers.ofFile writing
-     * response content to created file. Returns response with code NOT_FOUND if no photo was found for
-     * provided title or content of temporary file with content type from response. Delete temporary file.
+     * Make GET request to /photos/{title} reading response as input stream. Returns response with code NOT_FOUND
+     * if no photo was found for provided title, otherwise upstream body is streamed straight to the client
+     * with content type and length from upstream response, so photo is never buffered on heap or on disk.
+     * Photo bulkhead permit is held until the body is streamed, see {@link UpstreamGuard#executeStreaming}.
+     * Photo is stored off-heap in {@link PhotoCache} as it is streamed, cached photo is written from its off-heap
+     * pages without asking upstream while it is fresh, after that it is revalidated with If-None-Match and written
+     * if upstream answers NOT_MODIFIED.
      */
     @GET
     @Path("/photos/{title}")
     public javax.ws.rs.core.Response getPhoto(@PathParam("title") String title) throws IOException {
-        java.nio.file.Path path = Paths.get("temp-photo");
-        Files.deleteIfExists(path);
-        Files.createFile(path);
-        Response<java.nio.file.Path> response = cVurl.get(HOST + PHOTOS + title)
-                .as(HttpResponse.BodyHandlers.ofFile(path))
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+        PhotoCache.CachedPhoto cached = photoCache.get(title);
+        try {
+            return cached != null && cached.isFresh() ? cachedPhoto(cached) : getPhoto(title, cached);
+        } finally {
+            if (cached != null) {
+                cached.release();
+            }
+        }
+    }
 
+    private javax.ws.rs.core.Response getPhoto(String title, PhotoCache.CachedPhoto cached) throws IOException {
+        UpstreamGuard.Streaming<Response<InputStream>> streaming = upstreamGuard.executeStreaming(Route.PHOTOS,
+                () -> cVurl.get(HOST + PHOTOS + title)
+                        .headers(cached == null ? Map.of() : Map.of(HttpHeaders.IF_NONE_MATCH, cached.getEtag()))
+                        .asStream()
+                        .orElseThrow(() -> new RuntimeException("Some error happened during request execution")),
+                Response::getBody);
+        Response<InputStream> response = streaming.getResult();
+
+        if (response.status() == HttpStatus.NOT_MODIFIED && cached != null) {
+            streaming.getBody().close();
+            cached.revalidated();
+            return cachedPhoto(cached);
+        }
         if (response.status() == HttpStatus.NOT_FOUND) {
+            streaming.getBody().close();
+            photoCache.invalidate(title);
             return javax.ws.rs.core.Response.status(javax.ws.rs.core.Response.Status.NOT_FOUND).build();
         }
-        String mediaType = response.getHeaderValue(HttpHeader.CONTENT_TYPE).orElseThrow(IllegalStateException::new);
-        javax.ws.rs.core.Response responseEntity = ok(Files.readAllBytes(path), mediaType).build();
+        String mediaType;
+        long contentLength;
+        try {
+            mediaType = response.getHeaderValue(HttpHeader.CONTENT_TYPE).orElseThrow(IllegalStateException::new);
+            contentLength = response.getHeaderValue(HttpHeaders.CONTENT_LENGTH).map(Long::parseLong).orElse(-1L);
+        } catch (RuntimeException e) {
+            // body is not streamed, close it to release the connection and bulkhead permit
+            streaming.getBody().close();
+            throw e;
+        }
+        InputStream photo = photoCache.caching(title, response.getHeaderValue(HttpHeaders.ETAG).orElse(null),
+                mediaType, contentLength, streaming.getBody());
+        StreamingOutput output = outputStream -> {
+            try (InputStream body = photo) {
+                body.transferTo(outputStream);
+            }
+        };
+        javax.ws.rs.core.Response.ResponseBuilder responseBuilder = ok(output, mediaType);
+        if (contentLength >= 0) {
+            responseBuilder.header(HttpHeaders.CONTENT_LENGTH, contentLength);
+        }
+
+        return responseBuilder.build();
+    }
 
-        Files.delete(path);
-        return responseEntity;
+    /**
+     * Cached photo written from its off-heap pages, it stays retained until written.
+     */
+    private static javax.ws.rs.core.Response cachedPhoto(PhotoCache.CachedPhoto cached) {
+        InputStream photo = cached.openStream();
+        StreamingOutput output = outputStream -> {
+            try (InputStream body = photo) {
+                body.transferTo(outputStream);
+            }
+        };
+        return ok(output, cached.getContentType())
+                .header(HttpHeaders.CONTENT_LENGTH, cached.getSize())
+                .build();
     }
 
     /**
      * Makes GET request to /users/list endpoint that return json array of objects.
-     * Parses it to List<User> by using BodyType.
+     * Parses it to List<User> by using BodyType. List is served from {@link UserCache},
+     * concurrent calls share one upstream request.
+     * Body is parsed straight from the response stream, it is never read into a String, see
+     * {@link UpstreamUsers#list()}.
      *
      * @return List of users
      */
@@ -274,9 +410,7 @@ public class ExampleResource {
     @Path("/users/list")
     @Produces(APPLICATION_JSON)
     public List<User> getUsersAsList() {
-        return cVurl.get(Url.of(HOST).path(USERS).path("list").create())
-                .asObject(new BodyType<>() {
-                });
+        return userCache.get(userCache.list());
     }
 
 
@@ -0,0 +1,76 @@
+package cvurl.usage.quarkus;
+
+import cvurl.usage.common.UpstreamGuard.Route;
+import cvurl.usage.common.UpstreamMetrics;
+import org.eclipse.microprofile.metrics.ConcurrentGauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link UpstreamMetrics} recorded as MicroProfile metrics:
+ * <ul>
+ * <li>upstream.calls - timer with latency histogram per route and outcome</li>
+ * <li>upstream.calls.active - concurrent gauge of calls in flight per route</li>
+ * <li>upstream.mapping - timer with histogram of reading and writing bodies</li>
+ * </ul>
+ * Metrics are registered up front, recording a call looks up no metric by name and tags.
+ */
+public class MicroProfileUpstreamMetrics implements UpstreamMetrics {
+
+    private final Map<Route, Map<Outcome, Timer>> calls = new EnumMap<>(Route.class);
+    private final Map<Route, ConcurrentGauge> active = new EnumMap<>(Route.class);
+    private final Map<Operation, Timer> mappings = new EnumMap<>(Operation.class);
+
+    public MicroProfileUpstreamMetrics(MetricRegistry registry) {
+        Metadata callsMetadata = timer("upstream.calls");
+        Metadata activeMetadata = Metadata.builder()
+                .withName("upstream.calls.active")
+                .withType(MetricType.CONCURRENT_GAUGE)
+                .build();
+        for (Route route : Route.values()) {
+            Tag routeTag = new Tag("route", route.name().toLowerCase());
+            Map<Outcome, Timer> timers = new EnumMap<>(Outcome.class);
+            for (Outcome outcome : Outcome.values()) {
+                timers.put(outcome, registry.timer(callsMetadata, routeTag, new Tag("outcome", outcome.name())));
+            }
+            calls.put(route, timers);
+            active.put(route, registry.concurrentGauge(activeMetadata, routeTag));
+        }
+        Metadata mappingMetadata = timer("upstream.mapping");
+        for (Operation operation : Operation.values()) {
+            mappings.put(operation, registry.timer(mappingMetadata, new Tag("operation", operation.name().toLowerCase())));
+        }
+    }
+
+    @Override
+    public void callStarted(Route route) {
+        active.get(route).inc();
+    }
+
+    @Override
+    public void callCompleted(Route route, Outcome outcome, long nanos) {
+        active.get(route).dec();
+        calls.get(route).get(outcome).update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void mapped(Operation operation, long nanos) {
+        mappings.get(operation).update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static Metadata timer(String name) {
+        return Metadata.builder()
+                .withName(name)
+                .withType(MetricType.TIMER)
+                .withUnit(MetricUnits.NANOSECONDS)
+                .build();
+    }
+}
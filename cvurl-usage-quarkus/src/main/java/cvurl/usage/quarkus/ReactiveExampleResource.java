@@ -0,0 +1,272 @@
+package cvurl.usage.quarkus;
+
+import coresearch.cvurl.io.constant.HttpHeader;
+import coresearch.cvurl.io.constant.HttpStatus;
+import coresearch.cvurl.io.constant.MIMEType;
+import coresearch.cvurl.io.exception.ResponseMappingException;
+import coresearch.cvurl.io.model.Response;
+import coresearch.cvurl.io.request.CVurl;
+import cvurl.usage.common.SmileMapper;
+import cvurl.usage.common.UpstreamGuard;
+import cvurl.usage.common.UpstreamGuard.Route;
+import cvurl.usage.common.UserCache;
+import cvurl.usage.quarkus.model.GetUsersDto;
+import cvurl.usage.quarkus.model.User;
+import cvurl.usage.quarkus.model.UserDto;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+
+import javax.inject.Inject;
+import javax.ws.rs.*;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import static javax.ws.rs.core.MediaType.*;
+import static javax.ws.rs.core.Response.ok;
+
+/**
+ * Non-blocking variant of {@link ExampleResource} under /reactive. Every route is built from cVurl async calls
+ * and returns {@link Uni} or {@link Multi}: the request thread only assembles the pipeline and is released,
+ * response is written from the Vert.x context once upstream answers, no thread waits for example-api.
+ * <p>
+ * Photo routes are served by {@link ExampleResource} only: photo download already streams, photo upload is
+ * buffered by RESTEasy multipart parsing either way.
+ */
+@Path("/reactive")
+public class ReactiveExampleResource {
+
+    private static final String HOST = "http://localhost:7000/";
+    private static final String USERS = "users/";
+    private static final int NON_EXISTENT_USER_ID = 23;
+    private static final String DEFAULT_PREFETCH_DEPTH = "2";
+    private static final int FIRST_PAGE = 1;
+
+    private final CVurl cVurl;
+    private final SmileMapper mapper;
+    private final UpstreamGuard upstreamGuard;
+    private final UserCache<User, GetUsersDto> userCache;
+
+    @Inject
+    public ReactiveExampleResource(CVurl cVurl, SmileMapper mapper, UpstreamGuard upstreamGuard,
+                                   UserCache<User, GetUsersDto> userCache) {
+        this.cVurl = cVurl;
+        this.mapper = mapper;
+        this.upstreamGuard = upstreamGuard;
+        this.userCache = userCache;
+    }
+
+    /**
+     * Same as {@link ExampleResource#listUsers(Integer)}, concurrent calls for the same page share one
+     * upstream request, slow request is hedged if hedging is enabled.
+     */
+    @GET
+    @Produces(APPLICATION_JSON)
+    @Path("/users")
+    public Uni<GetUsersDto> listUsers(@DefaultValue("1") @QueryParam("page") Integer page) {
+        return uni(() -> userCache.getAsync(userCache.page(Objects.requireNonNullElse(page, FIRST_PAGE))));
+    }
+
+    /**
+     * Stream users of all pages. Total number of pages is taken from the first page, remaining pages are
+     * requested up to prefetch + 1 at a time and emitted in order, see {@link PageWindow}.
+     */
+    @GET
+    @Produces(APPLICATION_JSON)
+    @Path("/users/all")
+    public Multi<User> allUsers(@DefaultValue(DEFAULT_PREFETCH_DEPTH) @QueryParam("prefetch") Integer prefetch) {
+        int windowSize = Math.max(prefetch, 0) + 1;
+        return uni(() -> guardedUsersPage(FIRST_PAGE))
+                .onItem().transformToMulti(first -> {
+                    int totalPages = Objects.requireNonNullElse(first.getTotalPages(), FIRST_PAGE);
+                    if (totalPages <= FIRST_PAGE) {
+                        return Multi.createFrom().item(first);
+                    }
+                    Multi<GetUsersDto> rest = Multi.createBy().repeating()
+                            .uni(() -> new PageWindow(FIRST_PAGE + 1, totalPages, windowSize), window -> uni(window::next))
+                            .atMost(totalPages - FIRST_PAGE);
+                    return Multi.createBy().concatenating().streams(Multi.createFrom().item(first), rest);
+                })
+                .onItem().transformToMulti(page -> Multi.createFrom().iterable(
+                        Objects.requireNonNullElse(page.getData(), List.<User>of()))).concatenate();
+    }
+
+    /**
+     * Same as {@link ExampleResource#singleUser(Integer)}, concurrent calls for the same user share one
+     * upstream request, slow request is hedged if hedging is enabled.
+     */
+    @GET
+    @Produces(APPLICATION_JSON)
+    @Path("/users/{userId}")
+    public Uni<User> singleUser(@PathParam("userId") Integer userId) {
+        return uni(() -> userCache.getAsync(userCache.user(userId)));
+    }
+
+    /**
+     * Request user which does not exist, {@link ResponseMappingException} is handled by
+     * {@link ResponseMappingExceptionMapper}.
+     */
+    @GET
+    @Path("/user-not-found")
+    public Uni<User> singleUserNotFound() {
+        return uni(() -> upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.get(HOST + USERS + NON_EXISTENT_USER_ID).asyncAsObject(User.class)));
+    }
+
+    @GET
+    @Path("/user-as-string/{userId}")
+    public Uni<javax.ws.rs.core.Response> singleUserAsString(@PathParam("userId") String userId) {
+        return uni(() -> upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.get(HOST + USERS + userId).asyncAsString()))
+                .onItem().transform(ReactiveExampleResource::toJsonResponse);
+    }
+
+    @GET
+    @Path("/user-as-string-compressed/{userId}")
+    public Uni<javax.ws.rs.core.Response> singleUserAsStringCompressed(@PathParam("userId") String userId) {
+        return uni(() -> upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.get(HOST + USERS + userId).acceptCompressed().asyncAsString()))
+                .onItem().transform(ReactiveExampleResource::toJsonResponse);
+    }
+
+    /**
+     * Body is received as bytes by HttpClient itself, no thread blocks reading an input stream.
+     */
+    @GET
+    @Path("/user-as-is/{userId}")
+    public Uni<javax.ws.rs.core.Response> singleUserAsBytes(@PathParam("userId") String userId) {
+        return uni(() -> upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.get(HOST + USERS + userId).asyncAs(BodyHandlers.ofByteArray())))
+                .onItem().transform(response -> response.status() == HttpStatus.OK
+                        ? ok(response.getBody(), APPLICATION_JSON).build()
+                        : javax.ws.rs.core.Response.status(response.status()).entity(response.getBody()).build());
+    }
+
+    @POST
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @Path("/users")
+    public Uni<User> createUserFromJson(UserDto userDto) {
+        return uni(() -> upstreamGuard.executeAsync(Route.USERS, () -> cVurl.post(HOST + USERS)
+                .body(userDto)
+                .header(HttpHeader.CONTENT_TYPE, MIMEType.APPLICATION_JSON)
+                .asyncAsString())
+                .whenComplete((response, error) -> userCache.invalidateLists()))
+                .onItem().transform(this::createdUser);
+    }
+
+    @POST
+    @Consumes(APPLICATION_FORM_URLENCODED)
+    @Produces(APPLICATION_JSON)
+    @Path("/users")
+    public Uni<User> createUserFromFormUrlencoded(Map<String, String> userMap) {
+        return uni(() -> upstreamGuard.executeAsync(Route.USERS, () -> cVurl.post(HOST + USERS)
+                .formData(userMap)
+                .asyncAsString())
+                .whenComplete((response, error) -> userCache.invalidateLists()))
+                .onItem().transform(this::createdUser);
+    }
+
+    @PUT
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @Path("/users/{userId}")
+    public Uni<User> updateUser(UserDto userDto, @PathParam("userId") String userId) {
+        return uni(() -> upstreamGuard.executeAsync(Route.USERS, () -> cVurl.put(HOST + USERS + userId)
+                .body(userDto)
+                .headers(Map.of(HttpHeader.CONTENT_TYPE, MIMEType.APPLICATION_JSON))
+                .asyncAsObject(User.class))
+                .whenComplete((user, error) -> userCache.invalidateUser(userId)));
+    }
+
+    @DELETE
+    @Path("/{userId}")
+    public Uni<javax.ws.rs.core.Response> deleteUser(@PathParam("userId") String userId) {
+        return uni(() -> upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.delete(HOST + USERS + userId).asyncAsString())
+                .whenComplete((response, error) -> userCache.invalidateUser(userId)))
+                .onItem().transform(response -> response.status() == HttpStatus.NO_CONTENT
+                        ? javax.ws.rs.core.Response.noContent().build()
+                        : javax.ws.rs.core.Response.status(HttpStatus.BAD_REQUEST).entity(response.getBody()).build());
+    }
+
+    /**
+     * Same as {@link ExampleResource#getUsersAsList()}, but users are emitted one by one.
+     * Concurrent calls share one upstream request.
+     */
+    @GET
+    @Path("/users/list")
+    @Produces(APPLICATION_JSON)
+    public Multi<User> getUsersAsList() {
+        return uni(() -> userCache.getAsync(userCache.list()))
+                .onItem().transformToMulti(users -> Multi.createFrom().iterable(users));
+    }
+
+    private CompletableFuture<GetUsersDto> usersPage(int page) {
+        return cVurl.get(HOST + USERS)
+                .queryParam("page", String.valueOf(page))
+                .asyncAsObject(GetUsersDto.class);
+    }
+
+    private CompletableFuture<GetUsersDto> guardedUsersPage(int page) {
+        return upstreamGuard.executeAsync(Route.USERS, () -> usersPage(page));
+    }
+
+    private User createdUser(Response<String> response) {
+        if (response.status() != HttpStatus.CREATED) {
+            throw new RuntimeException("User can't be created");
+        }
+        return mapper.readValue(response.getBody(), User.class);
+    }
+
+    private static javax.ws.rs.core.Response toJsonResponse(Response<String> response) {
+        if (response.status() == HttpStatus.OK) {
+            return ok(response.getBody(), APPLICATION_JSON).build();
+        }
+        return javax.ws.rs.core.Response.status(response.status()).entity(response.getBody()).build();
+    }
+
+    /**
+     * Call is started on subscription, failure is propagated with the original exception rather than
+     * {@link CompletionException}, so that exception mappers match it.
+     */
+    private static <T> Uni<T> uni(Supplier<CompletableFuture<T>> call) {
+        return Uni.createFrom().<T>completionStage(call)
+                .onFailure(CompletionException.class).transform(error -> error.getCause() != null ? error.getCause() : error);
+    }
+
+    /**
+     * Pages requested ahead of the one being emitted, at most size requests are in flight. Next page is requested
+     * as soon as the oldest one is taken, so the window slides by one page instead of waiting for a whole batch.
+     * Taken by one repetition at a time, it needs no synchronization.
+     */
+    private final class PageWindow {
+
+        private final Deque<CompletableFuture<GetUsersDto>> requested = new ArrayDeque<>();
+        private final int lastPage;
+        private final int size;
+        private int nextPage;
+
+        private PageWindow(int firstPage, int lastPage, int size) {
+            this.nextPage = firstPage;
+            this.lastPage = lastPage;
+            this.size = size;
+        }
+
+        /**
+         * @return request of the next page in order, after topping the window up
+         */
+        private CompletableFuture<GetUsersDto> next() {
+            while (requested.size() < size && nextPage <= lastPage) {
+                requested.add(guardedUsersPage(nextPage++));
+            }
+            return requested.poll();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package cvurl.usage.quarkus;
+
+import cvurl.usage.common.UpstreamUnavailableException;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+@Provider
+public class UpstreamUnavailableExceptionMapper implements ExceptionMapper<UpstreamUnavailableException> {
+
+    @Override
+    public Response toResponse(UpstreamUnavailableException e) {
+        return Response
+                .status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity(e.getMessage())
+                .build();
+    }
+}
@@ -1,13 +1,22 @@
 package cvurl.usage.quarkus.model;
 
+import com.dslplatform.json.CompiledJson;
+import cvurl.usage.common.Page;
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.util.List;
 
 @Data
 @Builder
-public class GetUsersDto {
+@NoArgsConstructor
+@AllArgsConstructor
+@CompiledJson
+@RegisterForReflection
+public class GetUsersDto implements Page<User> {
     private Integer page;
     private Integer total;
     private List<User> data;
@@ -1,5 +1,7 @@
 package cvurl.usage.quarkus.model;
 
+import com.dslplatform.json.CompiledJson;
+import io.quarkus.runtime.annotations.RegisterForReflection;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -7,6 +9,8 @@ import lombok.NoArgsConstructor;
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
+@CompiledJson
+@RegisterForReflection
 public class User {
     private Integer id;
     private String email;
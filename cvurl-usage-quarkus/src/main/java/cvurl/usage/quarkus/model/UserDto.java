@@ -1,8 +1,12 @@
 package cvurl.usage.quarkus.model;
 
+import com.dslplatform.json.CompiledJson;
+import io.quarkus.runtime.annotations.RegisterForReflection;
 import lombok.Data;
 
 @Data
+@CompiledJson
+@RegisterForReflection
 public class UserDto {
     private String name;
     private String email;
@@ -0,0 +1,20 @@
+package cvurl.usage.quarkus.model;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Result of one id of a bulk users request, user is set if status is OK, error otherwise.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@RegisterForReflection
+public class UserResult {
+    private Integer id;
+    private Integer status;
+    private User user;
+    private String error;
+}
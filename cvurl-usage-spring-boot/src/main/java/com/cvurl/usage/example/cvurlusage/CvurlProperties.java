@@ -0,0 +1,296 @@
+package com.cvurl.usage.example.cvurlusage;
+
+import cvurl.usage.common.EndpointSelector;
+import cvurl.usage.common.ExecutorType;
+import lombok.Data;
+import org.hibernate.validator.constraints.time.DurationMin;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.Valid;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Configuration under cvurl.*, one section per component it configures. Bound and validated at startup,
+ * so a value out of range stops the application instead of failing the first request that uses it.
+ */
+@Data
+@Validated
+@ConfigurationProperties("cvurl")
+public class CvurlProperties {
+
+    @Valid
+    private final ClientProperties client = new ClientProperties();
+    @Valid
+    private final UpstreamProperties upstream = new UpstreamProperties();
+    @Valid
+    private final DeadlineProperties deadline = new DeadlineProperties();
+    @Valid
+    private final SingleFlightProperties singleFlight = new SingleFlightProperties();
+    @Valid
+    private final HedgingProperties hedging = new HedgingProperties();
+    @Valid
+    private final CircuitBreakerProperties circuitBreaker = new CircuitBreakerProperties();
+    @Valid
+    private final BulkheadProperties bulkhead = new BulkheadProperties();
+    @Valid
+    private final CacheProperties cache = new CacheProperties();
+    @Valid
+    private final BulkProperties bulk = new BulkProperties();
+    @Valid
+    private final PhotoCacheProperties photoCache = new PhotoCacheProperties();
+
+    /**
+     * HttpClient used by cVurl and executors of its responses.
+     */
+    @Data
+    public static class ClientProperties {
+
+        /**
+         * HTTP_2 prefers HTTP/2 falling back to HTTP/1.1.
+         */
+        @NotNull
+        private HttpClient.Version version = HttpClient.Version.HTTP_2;
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration connectTimeout = Duration.ofSeconds(2);
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration requestTimeout = Duration.ofSeconds(10);
+        @NotNull
+        private ExecutorType executorType = ExecutorType.WORK_STEALING;
+        /**
+         * 0 means number of available processors.
+         */
+        @Min(0)
+        private int executorSize;
+        /**
+         * Threads parsing response streams of upstream reads, 0 means number of available processors.
+         */
+        @Min(0)
+        private int mappingExecutorSize;
+        @Valid
+        private final CompressionProperties compression = new CompressionProperties();
+        @Valid
+        private final SmileProperties smile = new SmileProperties();
+    }
+
+    /**
+     * Request bodies of JSON and forms of at least min-size bytes are sent with Content-Encoding: gzip.
+     */
+    @Data
+    public static class CompressionProperties {
+
+        private boolean enabled;
+        @Min(0)
+        private long minSize = 1024;
+    }
+
+    /**
+     * Upstream reads parsed from bytes or stream accept Smile before JSON.
+     */
+    @Data
+    public static class SmileProperties {
+
+        private boolean enabled = true;
+    }
+
+    /**
+     * Instances of example-api that upstream calls are balanced over.
+     */
+    @Data
+    public static class UpstreamProperties {
+
+        @NotEmpty
+        private List<String> endpoints = List.of("http://localhost:7000");
+        @NotNull
+        private EndpointSelector.Type selector = EndpointSelector.Type.POWER_OF_TWO_CHOICES;
+        @Valid
+        private final HealthCheckProperties healthCheck = new HealthCheckProperties();
+        @Valid
+        private final EjectionProperties ejection = new EjectionProperties();
+    }
+
+    @Data
+    public static class HealthCheckProperties {
+
+        @NotBlank
+        private String path = "/actuator/health";
+        /**
+         * 0 turns health checks off.
+         */
+        @NotNull
+        @DurationMin(millis = 0)
+        private Duration interval = Duration.ofSeconds(5);
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration timeout = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class EjectionProperties {
+
+        @Min(1)
+        private int consecutiveFailures = 5;
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration baseTime = Duration.ofSeconds(30);
+        @Min(0)
+        @Max(100)
+        private int maxPercent = 50;
+    }
+
+    /**
+     * Time budget of a proxied request unless it sends X-Request-Timeout.
+     */
+    @Data
+    public static class DeadlineProperties {
+
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration users = Duration.ofSeconds(3);
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration photos = Duration.ofSeconds(15);
+    }
+
+    @Data
+    public static class SingleFlightProperties {
+
+        /**
+         * Longest time a shared upstream read is given, whatever the deadlines of its callers.
+         */
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration sharedTimeout = Duration.ofSeconds(10);
+    }
+
+    /**
+     * Hedging of idempotent upstream GETs.
+     */
+    @Data
+    public static class HedgingProperties {
+
+        private boolean enabled;
+        /**
+         * Percentile of observed latency after which the duplicate is sent.
+         */
+        @DecimalMin(value = "0", inclusive = false)
+        @DecimalMax(value = "1", inclusive = false)
+        private double percentile = 0.95;
+        /**
+         * Max ratio of duplicates to all requests.
+         */
+        @DecimalMin("0")
+        @DecimalMax("1")
+        private double budget = 0.05;
+        @Min(1)
+        private int maxBurst = 10;
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration initialDelay = Duration.ofMillis(100);
+    }
+
+    /**
+     * Circuit breaker shared by all upstream calls.
+     */
+    @Data
+    public static class CircuitBreakerProperties {
+
+        @DecimalMin(value = "0", inclusive = false)
+        @DecimalMax("1")
+        private double failureRateThreshold = 0.5;
+        @DecimalMin(value = "0", inclusive = false)
+        @DecimalMax("1")
+        private double slowCallRateThreshold = 0.5;
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration slowCallDuration = Duration.ofSeconds(2);
+        @Min(1)
+        @Max(2097151)
+        private int windowSize = 20;
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration waitInOpen = Duration.ofSeconds(10);
+        @Min(1)
+        private int halfOpenCalls = 3;
+    }
+
+    /**
+     * Concurrent upstream calls per route.
+     */
+    @Data
+    public static class BulkheadProperties {
+
+        @Min(1)
+        private int users = 64;
+        @Min(1)
+        private int photos = 16;
+        /**
+         * Upstream calls made by /reactive routes, which hold no request thread while in flight.
+         */
+        @Min(1)
+        private int reactiveUsers = 512;
+    }
+
+    /**
+     * Cache of upstream user reads.
+     */
+    @Data
+    public static class CacheProperties {
+
+        private boolean enabled = true;
+        @Min(0)
+        private long maximumSize = 10000;
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration refreshAfter = Duration.ofSeconds(30);
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration expireAfter = Duration.ofMinutes(5);
+    }
+
+    /**
+     * GET /users?ids=...
+     */
+    @Data
+    public static class BulkProperties {
+
+        @Min(1)
+        private int parallelism = 8;
+        @Min(1)
+        private int maxIds = 100;
+        @NotNull
+        @DurationMin(millis = 1)
+        private Duration timeout = Duration.ofSeconds(2);
+    }
+
+    /**
+     * Off-heap cache of proxied photos, capacity-bytes of direct memory is allocated at start.
+     */
+    @Data
+    public static class PhotoCacheProperties {
+
+        @Min(1)
+        @Max(Integer.MAX_VALUE)
+        private long capacityBytes = 64 * 1024 * 1024;
+        @Min(0)
+        private long maxEntryBytes = 8 * 1024 * 1024;
+        @Min(1)
+        private int pageBytes = 64 * 1024;
+        /**
+         * Time after storing or revalidation a photo is served without asking upstream, zero revalidates every hit.
+         */
+        @NotNull
+        private Duration freshFor = Duration.ofSeconds(60);
+    }
+}
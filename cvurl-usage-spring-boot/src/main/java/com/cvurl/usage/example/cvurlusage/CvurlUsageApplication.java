@@ -1,31 +1,295 @@
 package com.cvurl.usage.example.cvurlusage;
 
+import com.cvurl.usage.example.cvurlusage.model.GetUsersDto;
+import com.cvurl.usage.example.cvurlusage.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
 import coresearch.cvurl.io.request.CVurl;
+import coresearch.cvurl.io.request.Configuration;
+import cvurl.usage.common.BulkFetch;
+import cvurl.usage.common.CircuitBreaker;
+import cvurl.usage.common.CompressingHttpClient;
+import cvurl.usage.common.DeadlinePolicy;
+import cvurl.usage.common.ExecutorType;
+import cvurl.usage.common.FlightRecorderHttpClient;
+import cvurl.usage.common.HedgedRequests;
+import cvurl.usage.common.InstrumentedHttpClient;
+import cvurl.usage.common.LoadBalancer;
+import cvurl.usage.common.LoadBalancingHttpClient;
+import cvurl.usage.common.MicrometerUpstreamMetrics;
+import cvurl.usage.common.PhotoCache;
+import cvurl.usage.common.SingleFlight;
+import cvurl.usage.common.SmileMapper;
+import cvurl.usage.common.StreamingJacksonMapper;
+import cvurl.usage.common.UpstreamGuard;
+import cvurl.usage.common.UpstreamMetrics;
+import cvurl.usage.common.UserCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
 @SpringBootApplication
+@EnableConfigurationProperties(CvurlProperties.class)
 public class CvurlUsageApplication {
 
+    /**
+     * Base URL of the controllers' upstream calls, requests to it are balanced over cvurl.upstream.endpoints.
+     */
+    private static final URI EXAMPLE_API = URI.create("http://localhost:7000");
+
     public static void main(String[] args) {
         SpringApplication.run(CvurlUsageApplication.class, args);
     }
 
+    /**
+     * Registered into the application ObjectMapper, so both cVurl and controllers use generated accessors.
+     */
     @Bean
-    public CVurl cVurl() {
-        return new CVurl();
+    public AfterburnerModule afterburnerModule() {
+        return new AfterburnerModule();
+    }
 
-        /*
-        other ways you can create CVurl:
-        new CVurl(Configuration.builder(httpClient)
-                .genericMapper(genericMapper)
-                .build());
-        new CVurl(Configuration.builder()
-                .executor(Executors.newFixedThreadPool(3))
-                .requestTimeout(Duration.ofSeconds(5))
+    /**
+     * Latency of upstream calls and of mapping their bodies, exposed at /actuator/metrics/upstream.*.
+     */
+    @Bean
+    public UpstreamMetrics upstreamMetrics(MeterRegistry meterRegistry) {
+        return new MicrometerUpstreamMetrics(meterRegistry);
+    }
+
+    @Bean
+    public StreamingJacksonMapper streamingJacksonMapper(ObjectMapper objectMapper, UpstreamMetrics upstreamMetrics) {
+        return new StreamingJacksonMapper(objectMapper, upstreamMetrics);
+    }
+
+    /**
+     * Upstream reads parsed from bytes ask for Smile, reads through cVurl asObject stay JSON.
+     */
+    @Bean
+    public SmileMapper smileMapper(StreamingJacksonMapper streamingJacksonMapper, AfterburnerModule afterburnerModule,
+                                   UpstreamMetrics upstreamMetrics, CvurlProperties properties) {
+        ObjectMapper smile = new ObjectMapper(new SmileFactory()).registerModule(afterburnerModule);
+        return new SmileMapper(streamingJacksonMapper, smile, properties.getClient().getSmile().isEnabled(),
+                upstreamMetrics);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService cVurlExecutor(CvurlProperties properties) {
+        CvurlProperties.ClientProperties client = properties.getClient();
+        return client.getExecutorType().createExecutor(client.getExecutorSize());
+    }
+
+    /**
+     * Parses upstream response streams, separate from the cVurl executor which receives them.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService mappingExecutor(CvurlProperties properties) {
+        return ExecutorType.FIXED.createExecutor(properties.getClient().getMappingExecutorSize());
+    }
+
+    @Bean
+    public LoadBalancer loadBalancer(CvurlProperties properties) {
+        CvurlProperties.UpstreamProperties upstream = properties.getUpstream();
+        return new LoadBalancer(upstream.getEndpoints().stream().map(URI::create).collect(Collectors.toList()),
+                upstream.getSelector().create(), upstream.getHealthCheck().getPath(),
+                upstream.getHealthCheck().getInterval(), upstream.getHealthCheck().getTimeout(),
+                upstream.getEjection().getConsecutiveFailures(), upstream.getEjection().getBaseTime(),
+                upstream.getEjection().getMaxPercent());
+    }
+
+    @Bean
+    public CVurl cVurl(StreamingJacksonMapper streamingJacksonMapper, ExecutorService cVurlExecutor, LoadBalancer loadBalancer,
+                       UpstreamMetrics upstreamMetrics, CvurlProperties properties) {
+        CvurlProperties.ClientProperties client = properties.getClient();
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(client.getVersion())
+                .connectTimeout(client.getConnectTimeout())
+                .executor(cVurlExecutor)
+                .build();
+
+        HttpClient balancingClient = new LoadBalancingHttpClient(httpClient, EXAMPLE_API, loadBalancer);
+        HttpClient recordingClient = new FlightRecorderHttpClient(balancingClient);
+        HttpClient instrumentedClient = new InstrumentedHttpClient(recordingClient, upstreamMetrics);
+        return new CVurl(Configuration.builder(client.getCompression().isEnabled()
+                ? new CompressingHttpClient(instrumentedClient, client.getCompression().getMinSize())
+                : instrumentedClient)
+                .genericMapper(streamingJacksonMapper)
+                .requestTimeout(client.getRequestTimeout())
                 .build());
-        */
+    }
+
+    @Bean
+    public SingleFlight singleFlight(CvurlProperties properties) {
+        return new SingleFlight(properties.getSingleFlight().getSharedTimeout());
+    }
+
+    @Bean
+    public HedgedRequests hedgedRequests(CvurlProperties properties) {
+        CvurlProperties.HedgingProperties hedging = properties.getHedging();
+        return new HedgedRequests(hedging.isEnabled(), hedging.getPercentile(), hedging.getBudget(),
+                hedging.getMaxBurst(), hedging.getInitialDelay());
+    }
+
+    @Bean
+    public CircuitBreaker circuitBreaker(CvurlProperties properties) {
+        CvurlProperties.CircuitBreakerProperties circuitBreaker = properties.getCircuitBreaker();
+        return new CircuitBreaker(circuitBreaker.getFailureRateThreshold(), circuitBreaker.getSlowCallRateThreshold(),
+                circuitBreaker.getSlowCallDuration(), circuitBreaker.getWindowSize(), circuitBreaker.getWaitInOpen(),
+                circuitBreaker.getHalfOpenCalls());
+    }
+
+    @Bean
+    @Primary
+    public UpstreamGuard upstreamGuard(CircuitBreaker circuitBreaker, CvurlProperties properties) {
+        CvurlProperties.BulkheadProperties bulkhead = properties.getBulkhead();
+        return new UpstreamGuard(circuitBreaker, bulkhead.getUsers(), bulkhead.getPhotos());
+    }
 
+    /**
+     * Guard of the upstream calls {@link ReactiveExampleController} makes itself. Those hold no request thread
+     * while in flight, so they get a users bulkhead of their own instead of one sized with the blocking routes.
+     * The controller has no photo routes. Circuit breaker is shared with {@link #upstreamGuard}.
+     */
+    @Bean
+    public UpstreamGuard reactiveUpstreamGuard(CircuitBreaker circuitBreaker, CvurlProperties properties) {
+        return new UpstreamGuard(circuitBreaker, properties.getBulkhead().getReactiveUsers(), 0);
+    }
+
+    @Bean
+    public UpstreamUsers upstreamUsers(CVurl cVurl, SmileMapper smileMapper, SingleFlight singleFlight,
+                                       UpstreamGuard upstreamGuard, HedgedRequests hedgedRequests,
+                                       ExecutorService mappingExecutor) {
+        return new UpstreamUsers(cVurl, smileMapper, singleFlight, upstreamGuard, hedgedRequests, mappingExecutor);
+    }
+
+    /**
+     * Hits, misses, evictions and size of the cache are exposed at /actuator/metrics/cache.*?tag=cache:users.
+     * They are bound here rather than by a MeterBinder: binders are applied while MeterRegistry is created
+     * and the cache depends on cVurl, which itself records to MeterRegistry.
+     */
+    @Bean
+    public UserCache<User, GetUsersDto> userCache(UpstreamUsers upstreamUsers, MeterRegistry meterRegistry,
+                                                  CvurlProperties properties) {
+        CvurlProperties.CacheProperties cache = properties.getCache();
+        UserCache<User, GetUsersDto> userCache = new UserCache<>(upstreamUsers, cache.isEnabled(),
+                cache.getMaximumSize(), cache.getRefreshAfter(), cache.getExpireAfter());
+        CaffeineCacheMetrics.monitor(meterRegistry, userCache.synchronous(), "users");
+        return userCache;
+    }
+
+    @Bean
+    public PhotoCache photoCache(CvurlProperties properties) {
+        CvurlProperties.PhotoCacheProperties photoCache = properties.getPhotoCache();
+        return new PhotoCache(photoCache.getCapacityBytes(), photoCache.getMaxEntryBytes(), photoCache.getPageBytes(),
+                photoCache.getFreshFor());
+    }
+
+    @Bean
+    public BulkFetch bulkFetch(CvurlProperties properties) {
+        CvurlProperties.BulkProperties bulk = properties.getBulk();
+        return new BulkFetch(bulk.getParallelism(), bulk.getMaxIds(), bulk.getTimeout());
+    }
+
+    @Bean
+    public DeadlinePolicy deadlinePolicy(CvurlProperties properties) {
+        return new DeadlinePolicy(properties.getDeadline().getUsers(), properties.getDeadline().getPhotos());
+    }
+
+    @Bean
+    public DeadlineFilter deadlineFilter(DeadlinePolicy deadlinePolicy) {
+        return new DeadlineFilter(deadlinePolicy);
+    }
+
+    /**
+     * Tasks queued on the cVurl executor and calls in flight per upstream endpoint, exposed at
+     * /actuator/metrics/upstream.executor.queued and /actuator/metrics/upstream.endpoint.outstanding.
+     */
+    @Bean
+    public MeterBinder upstreamClientMetrics(ExecutorService cVurlExecutor, LoadBalancer loadBalancer) {
+        return registry -> {
+            Gauge.builder("upstream.executor.queued", cVurlExecutor, ExecutorType::queuedTasks)
+                    .register(registry);
+            for (LoadBalancer.Endpoint endpoint : loadBalancer.getEndpoints()) {
+                Gauge.builder("upstream.endpoint.outstanding", endpoint, LoadBalancer.Endpoint::getOutstanding)
+                        .tag("endpoint", endpoint.getUri().toString())
+                        .register(registry);
+            }
+        };
+    }
+
+    /**
+     * Requests whose deadline was exceeded, exposed at /actuator/metrics/upstream.deadline.exceeded?tag=route:users.
+     */
+    @Bean
+    public MeterBinder deadlineMetrics(DeadlinePolicy deadlinePolicy) {
+        return registry -> {
+            for (UpstreamGuard.Route route : UpstreamGuard.Route.values()) {
+                FunctionCounter.builder("upstream.deadline.exceeded", deadlinePolicy, policy -> policy.getExceededCount(route))
+                        .tag("route", route.name().toLowerCase())
+                        .register(registry);
+            }
+        };
+    }
+
+    /**
+     * Calls that went upstream, calls that joined one in flight, calls abandoned by all callers or timed out and keys
+     * in flight of {@link SingleFlight}, exposed at /actuator/metrics/upstream.single-flight.*.
+     */
+    @Bean
+    public MeterBinder singleFlightMetrics(SingleFlight singleFlight) {
+        return registry -> {
+            FunctionCounter.builder("upstream.single-flight.executed", singleFlight, SingleFlight::getExecutedCount)
+                    .register(registry);
+            FunctionCounter.builder("upstream.single-flight.coalesced", singleFlight, SingleFlight::getCoalescedCount)
+                    .register(registry);
+            FunctionCounter.builder("upstream.single-flight.abandoned", singleFlight, SingleFlight::getAbandonedCount)
+                    .register(registry);
+            FunctionCounter.builder("upstream.single-flight.timed-out", singleFlight, SingleFlight::getTimedOutCount)
+                    .register(registry);
+            Gauge.builder("upstream.single-flight.in-flight", singleFlight, SingleFlight::getInFlightCount)
+                    .register(registry);
+        };
+    }
+
+    /**
+     * Hedged requests, duplicates sent and duplicates that won, exposed at /actuator/metrics/upstream.hedging.*.
+     */
+    @Bean
+    public MeterBinder hedgingMetrics(HedgedRequests hedgedRequests) {
+        return registry -> {
+            FunctionCounter.builder("upstream.hedging.requests", hedgedRequests, HedgedRequests::getRequestsCount)
+                    .register(registry);
+            FunctionCounter.builder("upstream.hedging.hedges", hedgedRequests, HedgedRequests::getHedgesCount)
+                    .register(registry);
+            FunctionCounter.builder("upstream.hedging.wins", hedgedRequests, HedgedRequests::getHedgeWinsCount)
+                    .register(registry);
+        };
+    }
+
+    /**
+     * Free bytes of the {@link PhotoCache} slab and photos not stored for lack of them, exposed at
+     * /actuator/metrics/photo-cache.*.
+     */
+    @Bean
+    public MeterBinder photoCacheMetrics(PhotoCache photoCache) {
+        return registry -> {
+            Gauge.builder("photo-cache.free-bytes", photoCache, PhotoCache::getFreeBytes)
+                    .register(registry);
+            FunctionCounter.builder("photo-cache.rejected", photoCache, PhotoCache::getRejectedCount)
+                    .register(registry);
+        };
     }
 }
@@ -0,0 +1,35 @@
+package com.cvurl.usage.example.cvurlusage;
+
+import cvurl.usage.common.Deadline;
+import cvurl.usage.common.DeadlinePolicy;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Binds {@link Deadline} of the request to the thread that invokes the controller. Upstream calls of
+ * asynchronous controllers are started on that thread too, before the request is handed over.
+ */
+public class DeadlineFilter extends OncePerRequestFilter {
+
+    private final DeadlinePolicy deadlinePolicy;
+
+    public DeadlineFilter(DeadlinePolicy deadlinePolicy) {
+        this.deadlinePolicy = deadlinePolicy;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Deadline previous = Deadline.bind(deadlinePolicy.start(request.getRequestURI(), request.getHeader(Deadline.HEADER)));
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            Deadline.bind(previous);
+        }
+    }
+}
@@ -3,32 +3,42 @@ package com.cvurl.usage.example.cvurlusage;
 import com.cvurl.usage.example.cvurlusage.model.GetUsersDto;
 import com.cvurl.usage.example.cvurlusage.model.User;
 import com.cvurl.usage.example.cvurlusage.model.UserDto;
+import com.cvurl.usage.example.cvurlusage.model.UserResult;
 import coresearch.cvurl.io.constant.HttpHeader;
 import coresearch.cvurl.io.constant.HttpStatus;
 import coresearch.cvurl.io.constant.MIMEType;
 import coresearch.cvurl.io.exception.ResponseMappingException;
-import coresearch.cvurl.io.mapper.BodyType;
 import coresearch.cvurl.io.model.Response;
 import coresearch.cvurl.io.multipart.MultipartBody;
 import coresearch.cvurl.io.multipart.Part;
 import coresearch.cvurl.io.request.CVurl;
-import coresearch.cvurl.io.util.Url;
+import cvurl.usage.common.BulkFetch;
+import cvurl.usage.common.DeadlineExceededException;
+import cvurl.usage.common.PhotoCache;
+import cvurl.usage.common.UpstreamGuard;
+import cvurl.usage.common.UpstreamGuard.Route;
+import cvurl.usage.common.UpstreamUnavailableException;
+import cvurl.usage.common.UserCache;
+import cvurl.usage.common.UsersSpliterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.http.HttpResponse;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest.BodyPublishers;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 @RestController
 public class ExampleController {
@@ -37,13 +47,23 @@ public class ExampleController {
     private static final String USERS = "users/";
     private static final String PHOTOS = "photos/";
     private static final int NON_EXISTENT_USER_ID = 23;
+    private static final String DEFAULT_PREFETCH_DEPTH = "2";
 
     private static final Logger logger = LoggerFactory.getLogger(ExampleController.class);
 
     private final CVurl cVurl;
+    private final UpstreamGuard upstreamGuard;
+    private final UserCache<User, GetUsersDto> userCache;
+    private final PhotoCache photoCache;
+    private final BulkFetch bulkFetch;
 
-    public ExampleController(CVurl cVurl) {
+    public ExampleController(CVurl cVurl, UpstreamGuard upstreamGuard, UserCache<User, GetUsersDto> userCache,
+                             PhotoCache photoCache, BulkFetch bulkFetch) {
         this.cVurl = cVurl;
+        this.upstreamGuard = upstreamGuard;
+        this.userCache = userCache;
+        this.photoCache = photoCache;
+        this.bulkFetch = bulkFetch;
     }
 
     @ExceptionHandler(ResponseMappingException.class)
@@ -55,24 +75,75 @@ public class ExampleController {
                 .body(response.getBody());
     }
 
+    /**
+     * Upstream call was rejected by circuit breaker or bulkhead, fail fast with SERVICE_UNAVAILABLE.
+     */
+    @ExceptionHandler(UpstreamUnavailableException.class)
+    public ResponseEntity<String> handleUpstreamUnavailable(UpstreamUnavailableException exception) {
+        return ResponseEntity
+                .status(org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE)
+                .body(exception.getMessage());
+    }
+
+    /**
+     * Time budget of the request ran out while waiting for upstream, respond with GATEWAY_TIMEOUT.
+     */
+    @ExceptionHandler(DeadlineExceededException.class)
+    public ResponseEntity<String> handleDeadlineExceeded(DeadlineExceededException exception) {
+        return ResponseEntity
+                .status(org.springframework.http.HttpStatus.GATEWAY_TIMEOUT)
+                .body(exception.getMessage());
+    }
+
     /**
      * Make GET request to /users to get list of users with query param page (result is paginated) equals to passed parameter
      * page or 1 if none passed. Parse returned response body into {@link GetUsersDto} if response status is OK.
+     * Page is served from {@link UserCache}, concurrent calls for the same page share one upstream request,
+     * slow request is hedged if hedging is enabled.
      */
     @GetMapping("/users")
     public GetUsersDto listUsers(@RequestParam(required = false) Integer page) {
-        return cVurl.get(HOST + USERS)
-                .queryParam("page", Objects.requireNonNullElse(page, 1).toString())
-                .asObject(GetUsersDto.class);
+        return userCache.get(userCache.page(Objects.requireNonNullElse(page, 1)));
+    }
+
+    /**
+     * Get users with given comma separated ids, e.g. /users?ids=1,2,3, making GET request to /users/{userId} per id.
+     * Requests run concurrently up to configured parallelism, each with its own timeout. Result of every id is
+     * returned in request order, id that failed (e.g. NOT_FOUND) has status and error instead of user.
+     * The batch is returned as a future, so no servlet thread waits for it.
+     */
+    @GetMapping(value = "/users", params = "ids")
+    public CompletableFuture<List<UserResult>> bulkUsers(@RequestParam String ids) {
+        List<Integer> userIds;
+        try {
+            userIds = bulkFetch.parseIds(ids);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(org.springframework.http.HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        return bulkFetch.fetch(userIds, userId -> userCache.getAsync(userCache.user(userId)), UserResult::new);
+    }
+
+    /**
+     * Walk all pages of /users through {@link UsersSpliterator}, requesting up to prefetch pages ahead
+     * of the one being consumed, and return all users. Every page is a call of its own to {@link UpstreamGuard},
+     * so the walk holds no bulkhead permit between pages and the breaker sees page latency, not walk duration.
+     */
+    @GetMapping("/users/all")
+    public List<User> allUsers(@RequestParam(defaultValue = DEFAULT_PREFETCH_DEPTH) Integer prefetch) {
+        return UsersSpliterator.stream(page -> upstreamGuard.executeAsync(Route.USERS, () -> cVurl.get(HOST + USERS)
+                .queryParam("page", String.valueOf(page))
+                .asyncAsObject(GetUsersDto.class)), prefetch, false)
+                .collect(Collectors.toList());
     }
 
     /**
      * Make GET request to /users/{userId} to get single user, parse response body to {@link User}.
+     * User is served from {@link UserCache}, concurrent calls for the same user share one upstream request,
+     * slow request is hedged if hedging is enabled.
      */
     @GetMapping("/users/{userId}")
     public User singleUser(@PathVariable Integer userId) {
-        return cVurl.get(HOST + USERS + userId)
-                .asObject(User.class);
+        return userCache.get(userCache.user(userId));
     }
 
     /**
@@ -83,8 +154,8 @@ public class ExampleController {
      */
     @GetMapping("/user-not-found")
     public User singleUserNotFound() {
-        return cVurl.get(HOST + USERS + NON_EXISTENT_USER_ID)
-                .asObject(User.class);
+        return upstreamGuard.execute(Route.USERS, () -> cVurl.get(HOST + USERS + NON_EXISTENT_USER_ID)
+                .asObject(User.class));
     }
 
     /**
@@ -94,9 +165,9 @@ public class ExampleController {
      */
     @GetMapping("/user-as-string/{userId}")
     public ResponseEntity<String> singleUserAsString(@PathVariable String userId) {
-        Response<String> response = cVurl.get(HOST + USERS + userId)
+        Response<String> response = upstreamGuard.execute(Route.USERS, () -> cVurl.get(HOST + USERS + userId)
                 .asString()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
 
         if (response.status() == HttpStatus.OK) {
             return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_JSON).body(response.getBody());
@@ -113,10 +184,10 @@ public class ExampleController {
      */
     @GetMapping("/user-as-string-compressed/{userId}")
     public ResponseEntity<String> singleUserAsStringCompressed(@PathVariable String userId) {
-        Response<String> response = cVurl.get(HOST + USERS + userId)
+        Response<String> response = upstreamGuard.execute(Route.USERS, () -> cVurl.get(HOST + USERS + userId)
                 .acceptCompressed()
                 .asString()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
 
         if (response.status() == HttpStatus.OK) {
             return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_JSON).body(response.getBody());
@@ -132,9 +203,9 @@ public class ExampleController {
      */
     @GetMapping("/user-as-is/{userId}")
     public ResponseEntity<byte[]> singleUserAsInputStream(@PathVariable String userId) throws IOException {
-        Response<InputStream> response = cVurl.get(HOST + USERS + userId)
+        Response<InputStream> response = upstreamGuard.execute(Route.USERS, () -> cVurl.get(HOST + USERS + userId)
                 .asStream()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
 
         if (response.status() == HttpStatus.OK) {
             return ResponseEntity.status(HttpStatus.OK)
@@ -152,11 +223,15 @@ public class ExampleController {
      */
     @PostMapping(value = "/users", consumes = MediaType.APPLICATION_JSON_VALUE)
     public User createUserFromJson(@RequestBody UserDto userDto) {
-        return cVurl.post(HOST + USERS)
-                .body(userDto)
-                .header(HttpHeader.CONTENT_TYPE, MIMEType.APPLICATION_JSON)
-                .asObject(User.class, HttpStatus.CREATED)
-                .orElseThrow(() -> new RuntimeException("User can't be created"));
+        try {
+            return upstreamGuard.execute(Route.USERS, () -> cVurl.post(HOST + USERS)
+                    .body(userDto)
+                    .header(HttpHeader.CONTENT_TYPE, MIMEType.APPLICATION_JSON)
+                    .asObject(User.class, HttpStatus.CREATED)
+                    .orElseThrow(() -> new RuntimeException("User can't be created")));
+        } finally {
+            userCache.invalidateLists();
+        }
     }
 
     /**
@@ -166,10 +241,14 @@ public class ExampleController {
      */
     @PostMapping(value = "/users", consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE)
     public User createUserFromFormUrlencoded(@RequestParam Map<String, String> userMap) {
-        return cVurl.post(HOST + USERS)
-                .formData(userMap)
-                .asObject(User.class, HttpStatus.CREATED)
-                .orElseThrow(() -> new RuntimeException("User can't be created"));
+        try {
+            return upstreamGuard.execute(Route.USERS, () -> cVurl.post(HOST + USERS)
+                    .formData(userMap)
+                    .asObject(User.class, HttpStatus.CREATED)
+                    .orElseThrow(() -> new RuntimeException("User can't be created")));
+        } finally {
+            userCache.invalidateLists();
+        }
     }
 
 
@@ -179,10 +258,14 @@ public class ExampleController {
      */
     @PutMapping("/users/{userId}")
     public User updateUser(@RequestBody UserDto userDto, @PathVariable String userId) {
-        return cVurl.put(HOST + USERS + userId)
-                .body(userDto)
-                .headers(Map.of(HttpHeader.CONTENT_TYPE, MIMEType.APPLICATION_JSON))
-                .asObject(User.class);
+        try {
+            return upstreamGuard.execute(Route.USERS, () -> cVurl.put(HOST + USERS + userId)
+                    .body(userDto)
+                    .headers(Map.of(HttpHeader.CONTENT_TYPE, MIMEType.APPLICATION_JSON))
+                    .asObject(User.class));
+        } finally {
+            userCache.invalidateUser(userId);
+        }
     }
 
     /**
@@ -193,9 +276,14 @@ public class ExampleController {
      */
     @DeleteMapping("/users/{userId}")
     public ResponseEntity deleteUser(@PathVariable String userId) {
-        Response<String> response = cVurl.delete(HOST + USERS + userId)
-                .asString()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+        Response<String> response;
+        try {
+            response = upstreamGuard.execute(Route.USERS, () -> cVurl.delete(HOST + USERS + userId)
+                    .asString()
+                    .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
+        } finally {
+            userCache.invalidateUser(userId);
+        }
 
         if (response.status() == HttpStatus.NO_CONTENT) {
             return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
@@ -207,55 +295,124 @@ public class ExampleController {
     /**
      * Make POST request to /photos with body of content type multipart/form-data which consists of the given
      * photo file and title. Saves photo identified by title in in-memory database on the server.
+     * The servlet container parses the multipart body before this method is called, so the photo is already
+     * buffered, in memory or in a temporary file. Only the upstream request streams it, from the part's input
+     * stream as upstream connection consumes it, without another copy into a byte array.
      */
     @PostMapping("/photos")
-    public ResponseEntity uploadPhoto(@RequestParam MultipartFile photo, @RequestParam String title) throws IOException {
-        Response<String> response = cVurl.post(HOST + PHOTOS)
+    public ResponseEntity uploadPhoto(@RequestParam MultipartFile photo, @RequestParam String title) {
+        Response<String> response = upstreamGuard.execute(Route.PHOTOS, () -> cVurl.post(HOST + PHOTOS)
                 .body(MultipartBody.create()
                         .formPart("title", Part.of(title))
-                        .formPart("photo", Part.of(photo.getName(), photo.getContentType(), photo.getBytes())))
+                        .formPart("photo", Part.of(BodyPublishers.ofInputStream(() -> openStream(photo)))
+                                .fileName(photo.getName())
+                                .contentType(photo.getContentType())))
                 .asString()
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+                .orElseThrow(() -> new RuntimeException("Some error happened during request execution")));
+        photoCache.invalidate(title);
 
         return ResponseEntity.status(response.status()).build();
     }
 
     /**
-     * Create temporary file, and make GET request to /photos/{title} with BodyHandlers.ofFile writing
-     * response content to created file. Returns response with code NOT_FOUND if no photo was found for
-     * provided title or content of temporary file with content type from response. Delete temporary file.
+     * Make GET request to /photos/{title} reading response as input stream. Returns response with code NOT_FOUND
+     * if no photo was found for provided title, otherwise upstream body is streamed straight to the client
+     * with content type and length from upstream response, so photo is never buffered on heap or on disk.
+     * Photo bulkhead permit is held until the body is streamed, see {@link UpstreamGuard#executeStreaming}.
+     * Photo is stored off-heap in {@link PhotoCache} as it is streamed, cached photo is written from its off-heap
+     * pages without asking upstream while it is fresh, after that it is revalidated with If-None-Match and written
+     * if upstream answers NOT_MODIFIED.
      */
     @GetMapping("/photos/{title}")
-    public ResponseEntity getPhoto(@PathVariable String title) throws IOException {
-        Path path = Paths.get("src/main/resources/temp_photo");
-        Files.createFile(path);
-        Response<Path> response = cVurl.get(HOST + PHOTOS + title)
-                .as(HttpResponse.BodyHandlers.ofFile(path))
-                .orElseThrow(() -> new RuntimeException("Some error happened during request execution"));
+    public ResponseEntity<StreamingResponseBody> getPhoto(@PathVariable String title) throws IOException {
+        PhotoCache.CachedPhoto cached = photoCache.get(title);
+        try {
+            return cached != null && cached.isFresh() ? cachedPhoto(cached) : getPhoto(title, cached);
+        } finally {
+            if (cached != null) {
+                cached.release();
+            }
+        }
+    }
 
+    private ResponseEntity<StreamingResponseBody> getPhoto(String title, PhotoCache.CachedPhoto cached) throws IOException {
+        UpstreamGuard.Streaming<Response<InputStream>> streaming = upstreamGuard.executeStreaming(Route.PHOTOS,
+                () -> cVurl.get(HOST + PHOTOS + title)
+                        .headers(cached == null ? Map.of() : Map.of(HttpHeaders.IF_NONE_MATCH, cached.getEtag()))
+                        .asStream()
+                        .orElseThrow(() -> new RuntimeException("Some error happened during request execution")),
+                Response::getBody);
+        Response<InputStream> response = streaming.getResult();
+
+        if (response.status() == HttpStatus.NOT_MODIFIED && cached != null) {
+            streaming.getBody().close();
+            cached.revalidated();
+            return cachedPhoto(cached);
+        }
         if (response.status() == HttpStatus.NOT_FOUND) {
+            streaming.getBody().close();
+            photoCache.invalidate(title);
             return ResponseEntity.notFound().build();
         }
-        String mediaType = response.getHeaderValue(HttpHeader.CONTENT_TYPE).orElseThrow(IllegalStateException::new);
-        ResponseEntity<byte[]> responseEntity = ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(mediaType))
-                .body(Files.readAllBytes(path));
+        String mediaType;
+        long contentLength;
+        try {
+            mediaType = response.getHeaderValue(HttpHeader.CONTENT_TYPE).orElseThrow(IllegalStateException::new);
+            contentLength = response.getHeaderValue(HttpHeaders.CONTENT_LENGTH).map(Long::parseLong).orElse(-1L);
+        } catch (RuntimeException e) {
+            // body is not streamed, close it to release the connection and bulkhead permit
+            streaming.getBody().close();
+            throw e;
+        }
+        ResponseEntity.BodyBuilder responseBuilder = ResponseEntity.ok().contentType(MediaType.parseMediaType(mediaType));
+        if (contentLength >= 0) {
+            responseBuilder.contentLength(contentLength);
+        }
+        InputStream photo = photoCache.caching(title, response.getHeaderValue(HttpHeaders.ETAG).orElse(null),
+                mediaType, contentLength, streaming.getBody());
+
+        return responseBuilder.body(outputStream -> {
+            try (InputStream body = photo) {
+                body.transferTo(outputStream);
+            }
+        });
+    }
 
-        Files.delete(path);
-        return responseEntity;
+    /**
+     * Cached photo written from its off-heap pages, it stays retained until written.
+     */
+    private static ResponseEntity<StreamingResponseBody> cachedPhoto(PhotoCache.CachedPhoto cached) {
+        InputStream photo = cached.openStream();
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(cached.getContentType()))
+                .contentLength(cached.getSize())
+                .body(outputStream -> {
+                    try (InputStream body = photo) {
+                        body.transferTo(outputStream);
+                    }
+                });
     }
 
     /**
      * Makes GET request to /users/list endpoint that return json array of objects.
-     * Parses it to List<User> by using BodyType.
+     * Parses it to List<User> by using BodyType. List is served from {@link UserCache},
+     * concurrent calls share one upstream request.
+     * Body is parsed straight from the response stream, it is never read into a String, see
+     * {@link UpstreamUsers#list()}.
      *
      * @return List of users
      */
     @GetMapping("/users/list")
     public List<User> getUsersAsList() {
-        return cVurl.get(Url.of(HOST).path(USERS).path("list").create())
-                .asObject(new BodyType<>() {
-                });
+        return userCache.get(userCache.list());
+    }
+
+    private static InputStream openStream(MultipartFile file) {
+        try {
+            return file.getInputStream();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
 
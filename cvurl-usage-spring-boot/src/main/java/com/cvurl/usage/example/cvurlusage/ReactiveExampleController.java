@@ -0,0 +1,238 @@
+package com.cvurl.usage.example.cvurlusage;
+
+import com.cvurl.usage.example.cvurlusage.model.GetUsersDto;
+import com.cvurl.usage.example.cvurlusage.model.User;
+import com.cvurl.usage.example.cvurlusage.model.UserDto;
+import coresearch.cvurl.io.constant.HttpHeader;
+import coresearch.cvurl.io.constant.HttpStatus;
+import coresearch.cvurl.io.constant.MIMEType;
+import coresearch.cvurl.io.exception.ResponseMappingException;
+import coresearch.cvurl.io.model.Response;
+import coresearch.cvurl.io.request.CVurl;
+import cvurl.usage.common.Deadline;
+import cvurl.usage.common.DeadlineExceededException;
+import cvurl.usage.common.SmileMapper;
+import cvurl.usage.common.UpstreamGuard;
+import cvurl.usage.common.UpstreamGuard.Route;
+import cvurl.usage.common.UpstreamUnavailableException;
+import cvurl.usage.common.UserCache;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Variant of {@link ExampleController} under /reactive whose routes are built from cVurl async calls and return
+ * {@link Mono} or {@link Flux}. The application runs Spring MVC on Tomcat, Reactor types are served through MVC
+ * async request processing: request thread is released while upstream is in flight, the connection stays open
+ * until the response is written.
+ * <p>
+ * Upstream calls made here go through their own users bulkhead, cvurl.bulkhead.reactive-users, as they hold no
+ * request thread. Cached and coalesced reads are shared with {@link ExampleController}, so their upstream requests
+ * go through the users bulkhead of {@link UpstreamUsers}.
+ * <p>
+ * Photo routes are served by {@link ExampleController} only, they already stream.
+ */
+@RestController
+@RequestMapping("/reactive")
+public class ReactiveExampleController {
+
+    private static final String HOST = "http://localhost:7000/";
+    private static final String USERS = "users/";
+    private static final int NON_EXISTENT_USER_ID = 23;
+    private static final String DEFAULT_PREFETCH_DEPTH = "2";
+    private static final int FIRST_PAGE = 1;
+
+    private final CVurl cVurl;
+    private final SmileMapper mapper;
+    private final UpstreamGuard upstreamGuard;
+    private final UserCache<User, GetUsersDto> userCache;
+
+    public ReactiveExampleController(CVurl cVurl, SmileMapper mapper,
+                                     @Qualifier("reactiveUpstreamGuard") UpstreamGuard upstreamGuard,
+                                     UserCache<User, GetUsersDto> userCache) {
+        this.cVurl = cVurl;
+        this.mapper = mapper;
+        this.upstreamGuard = upstreamGuard;
+        this.userCache = userCache;
+    }
+
+    @ExceptionHandler(ResponseMappingException.class)
+    public ResponseEntity handleException(ResponseMappingException exception) {
+        var response = exception.getResponse();
+
+        return ResponseEntity
+                .status(response.status())
+                .body(response.getBody());
+    }
+
+    @ExceptionHandler(UpstreamUnavailableException.class)
+    public ResponseEntity<String> handleUpstreamUnavailable(UpstreamUnavailableException exception) {
+        return ResponseEntity
+                .status(org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE)
+                .body(exception.getMessage());
+    }
+
+    /**
+     * Time budget of the request ran out while waiting for upstream, respond with GATEWAY_TIMEOUT.
+     */
+    @ExceptionHandler(DeadlineExceededException.class)
+    public ResponseEntity<String> handleDeadlineExceeded(DeadlineExceededException exception) {
+        return ResponseEntity
+                .status(org.springframework.http.HttpStatus.GATEWAY_TIMEOUT)
+                .body(exception.getMessage());
+    }
+
+    /**
+     * Same as {@link ExampleController#listUsers(Integer)}, concurrent calls for the same page share one
+     * upstream request, slow request is hedged if hedging is enabled.
+     */
+    @GetMapping("/users")
+    public Mono<GetUsersDto> listUsers(@RequestParam(required = false) Integer page) {
+        return Mono.fromFuture(userCache.getAsync(userCache.page(Objects.requireNonNullElse(page, FIRST_PAGE))));
+    }
+
+    /**
+     * Stream users of all pages. Total number of pages is taken from the first page, remaining pages are
+     * requested up to prefetch + 1 at a time and emitted in order. Remaining pages are requested from threads
+     * completing the previous ones, so the deadline of the request is bound again for each of them.
+     */
+    @GetMapping("/users/all")
+    public Flux<User> allUsers(@RequestParam(defaultValue = DEFAULT_PREFETCH_DEPTH) Integer prefetch) {
+        Deadline deadline = Deadline.current();
+        return Mono.fromFuture(guardedUsersPage(FIRST_PAGE))
+                .flatMapMany(first -> {
+                    int totalPages = Objects.requireNonNullElse(first.getTotalPages(), FIRST_PAGE);
+                    Flux<GetUsersDto> rest = Flux.range(FIRST_PAGE + 1, Math.max(totalPages - FIRST_PAGE, 0))
+                            .flatMapSequential(page -> Mono.fromFuture(Deadline.with(deadline,
+                                    () -> guardedUsersPage(page))), Math.max(prefetch, 0) + 1);
+                    return Flux.concat(Mono.just(first), rest);
+                })
+                .flatMapIterable(page -> Objects.requireNonNullElse(page.getData(), List.of()));
+    }
+
+    /**
+     * Same as {@link ExampleController#singleUser(Integer)}, concurrent calls for the same user share one
+     * upstream request, slow request is hedged if hedging is enabled.
+     */
+    @GetMapping("/users/{userId}")
+    public Mono<User> singleUser(@PathVariable Integer userId) {
+        return Mono.fromFuture(userCache.getAsync(userCache.user(userId)));
+    }
+
+    /**
+     * Request user which does not exist, {@link ResponseMappingException} is handled by
+     * {@link #handleException(ResponseMappingException)}.
+     */
+    @GetMapping("/user-not-found")
+    public Mono<User> singleUserNotFound() {
+        return Mono.fromFuture(upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.get(HOST + USERS + NON_EXISTENT_USER_ID).asyncAsObject(User.class)));
+    }
+
+    @GetMapping("/user-as-string/{userId}")
+    public Mono<ResponseEntity<String>> singleUserAsString(@PathVariable String userId) {
+        return Mono.fromFuture(upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.get(HOST + USERS + userId).asyncAsString()))
+                .map(ReactiveExampleController::toJsonEntity);
+    }
+
+    @GetMapping("/user-as-string-compressed/{userId}")
+    public Mono<ResponseEntity<String>> singleUserAsStringCompressed(@PathVariable String userId) {
+        return Mono.fromFuture(upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.get(HOST + USERS + userId).acceptCompressed().asyncAsString()))
+                .map(ReactiveExampleController::toJsonEntity);
+    }
+
+    /**
+     * Body is received as bytes by HttpClient itself, no thread blocks reading an input stream.
+     */
+    @GetMapping("/user-as-is/{userId}")
+    public Mono<ResponseEntity<byte[]>> singleUserAsBytes(@PathVariable String userId) {
+        return Mono.fromFuture(upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.get(HOST + USERS + userId).asyncAs(BodyHandlers.ofByteArray())))
+                .map(response -> response.status() == HttpStatus.OK
+                        ? ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(response.getBody())
+                        : ResponseEntity.status(response.status()).body(response.getBody()));
+    }
+
+    @PostMapping(value = "/users", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<User> createUserFromJson(@RequestBody UserDto userDto) {
+        return Mono.fromFuture(upstreamGuard.executeAsync(Route.USERS, () -> cVurl.post(HOST + USERS)
+                .body(userDto)
+                .header(HttpHeader.CONTENT_TYPE, MIMEType.APPLICATION_JSON)
+                .asyncAsString())
+                .whenComplete((response, error) -> userCache.invalidateLists()))
+                .map(this::createdUser);
+    }
+
+    @PostMapping(value = "/users", consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+    public Mono<User> createUserFromFormUrlencoded(@RequestParam Map<String, String> userMap) {
+        return Mono.fromFuture(upstreamGuard.executeAsync(Route.USERS, () -> cVurl.post(HOST + USERS)
+                .formData(userMap)
+                .asyncAsString())
+                .whenComplete((response, error) -> userCache.invalidateLists()))
+                .map(this::createdUser);
+    }
+
+    @PutMapping("/users/{userId}")
+    public Mono<User> updateUser(@RequestBody UserDto userDto, @PathVariable String userId) {
+        return Mono.fromFuture(upstreamGuard.executeAsync(Route.USERS, () -> cVurl.put(HOST + USERS + userId)
+                .body(userDto)
+                .headers(Map.of(HttpHeader.CONTENT_TYPE, MIMEType.APPLICATION_JSON))
+                .asyncAsObject(User.class))
+                .whenComplete((user, error) -> userCache.invalidateUser(userId)));
+    }
+
+    @DeleteMapping("/users/{userId}")
+    public Mono<ResponseEntity<String>> deleteUser(@PathVariable String userId) {
+        return Mono.fromFuture(upstreamGuard.executeAsync(Route.USERS,
+                () -> cVurl.delete(HOST + USERS + userId).asyncAsString())
+                .whenComplete((response, error) -> userCache.invalidateUser(userId)))
+                .map(response -> response.status() == HttpStatus.NO_CONTENT
+                        ? ResponseEntity.<String>status(HttpStatus.NO_CONTENT).build()
+                        : ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response.getBody()));
+    }
+
+    /**
+     * Same as {@link ExampleController#getUsersAsList()}, but users are emitted one by one.
+     * Concurrent calls share one upstream request.
+     */
+    @GetMapping("/users/list")
+    public Flux<User> getUsersAsList() {
+        return Mono.fromFuture(userCache.getAsync(userCache.list()))
+                .flatMapIterable(users -> users);
+    }
+
+    private CompletableFuture<GetUsersDto> usersPage(int page) {
+        return cVurl.get(HOST + USERS)
+                .queryParam("page", String.valueOf(page))
+                .asyncAsObject(GetUsersDto.class);
+    }
+
+    private CompletableFuture<GetUsersDto> guardedUsersPage(int page) {
+        return upstreamGuard.executeAsync(Route.USERS, () -> usersPage(page));
+    }
+
+    private User createdUser(Response<String> response) {
+        if (response.status() != HttpStatus.CREATED) {
+            throw new RuntimeException("User can't be created");
+        }
+        return mapper.readValue(response.getBody(), User.class);
+    }
+
+    private static ResponseEntity<String> toJsonEntity(Response<String> response) {
+        if (response.status() == HttpStatus.OK) {
+            return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_JSON).body(response.getBody());
+        }
+        return ResponseEntity.status(response.status()).body(response.getBody());
+    }
+}
@@ -0,0 +1,50 @@
+#!/usr/bin/env bash
+#
+# Several example-api instances on consecutive local ports, for client side load balancing of the proxies.
+#
+# Build example-api first (mvn package in example-api), then run:
+#   ./example-api-cluster.sh [instances] [first port]
+# and start a proxy with the printed endpoints, e.g.
+#   java -Dcvurl.upstream.endpoints=http://localhost:7000,http://localhost:7001,http://localhost:7002 -jar ...
+# (quarkus and micronaut read the same property, plain-java takes it as a system property as well).
+#
+# Instances do not share state: users and photos created through one of them are unknown to the others.
+# Instances stay in foreground until Ctrl+C. Outlier ejection can be watched by stopping one of them with
+#   kill -STOP <pid> (timeouts) and resuming it with kill -CONT <pid>, health checks mark a killed one unhealthy.
+#
+set -euo pipefail
+
+INSTANCES=${1:-3}
+FIRST_PORT=${2:-7000}
+
+cd "$(dirname "$0")"
+API_JAR=$(ls example-api/target/*.jar 2>/dev/null | grep -v '\.original$' | head -n 1 || true)
+[[ -n "$API_JAR" ]] || { echo "example-api jar not found, run mvn package in example-api" >&2; exit 1; }
+
+PIDS=()
+cleanup() {
+  for pid in "${PIDS[@]}"; do
+    kill "$pid" 2>/dev/null || true
+  done
+}
+trap cleanup EXIT
+
+ENDPOINTS=()
+for (( i = 0; i < INSTANCES; i++ )); do
+  port=$(( FIRST_PORT + i ))
+  log="example-api/target/example-api-$port.log"
+  java -jar "$API_JAR" --server.port="$port" > "$log" 2>&1 &
+  PIDS+=($!)
+  ENDPOINTS+=("http://localhost:$port")
+  echo "example-api pid $! on port $port, log $log"
+done
+
+for (( i = 0; i < INSTANCES; i++ )); do
+  until curl -s -o /dev/null "${ENDPOINTS[$i]}/actuator/health"; do
+    kill -0 "${PIDS[$i]}" 2>/dev/null || { echo "example-api on ${ENDPOINTS[$i]} exited" >&2; exit 1; }
+    sleep 0.2
+  done
+done
+
+echo "cvurl.upstream.endpoints=$(IFS=,; echo "${ENDPOINTS[*]}")"
+wait
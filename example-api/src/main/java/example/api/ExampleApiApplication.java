@@ -1,7 +1,11 @@
 package example.api;
 
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 
 @SpringBootApplication
 public class ExampleApiApplication {
@@ -9,4 +13,13 @@ public class ExampleApiApplication {
     public static void main(String[] args) {
         SpringApplication.run(ExampleApiApplication.class, args);
     }
+
+    /**
+     * Reads and writes bodies of Content-Type and Accept application/x-jackson-smile, Smile is binary JSON.
+     * Its ObjectMapper is built like the JSON one, which stays the default when Accept does not ask for Smile.
+     */
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+    }
 }
@@ -4,9 +4,11 @@ import model.GetUsersDto;
 import model.Photo;
 import model.User;
 import model.UserDto;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -16,10 +18,15 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.stream.Collectors.toList;
 
+/**
+ * Users are read and written as JSON or, by Content-Type and Accept application/x-jackson-smile, as Smile.
+ * JSON is answered unless Accept prefers Smile.
+ */
 @RestController
 public class ExampleController {
 
     private static final Integer PAGE_SIZE = 3;
+    private static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
 
     private AtomicInteger usersCount = new AtomicInteger(7);
 
@@ -66,7 +73,7 @@ public class ExampleController {
         return ResponseEntity.ok(user);
     }
 
-    @PostMapping(value = "/users", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @PostMapping(value = "/users", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_SMILE_VALUE})
     public ResponseEntity createUserFromJson(@RequestBody UserDto createUserDto) {
         int id = usersCount.incrementAndGet();
         User user = new User(id, createUserDto.getEmail(), createUserDto.getName());
@@ -109,19 +116,29 @@ public class ExampleController {
 
     @PostMapping("/photos")
     public ResponseEntity uploadPhoto(@RequestParam MultipartFile photo, @RequestParam String title) throws IOException {
-        photos.put(title, new Photo(photo.getContentType(), photo.getBytes()));
+        byte[] content = photo.getBytes();
+        String etag = '"' + DigestUtils.md5DigestAsHex(content) + '"';
+        photos.put(title, new Photo(photo.getContentType(), content, etag));
         return ResponseEntity.noContent().build();
     }
 
+    /**
+     * Photo is returned with its ETag, NOT_MODIFIED without body is returned if If-None-Match matches it.
+     */
     @GetMapping("/photos/{title}")
-    public ResponseEntity getPhoto(@PathVariable String title) throws IOException {
+    public ResponseEntity getPhoto(@PathVariable String title,
+                                   @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws IOException {
         Photo photo = photos.get(title);
         if (photo == null) {
             return ResponseEntity.notFound().build();
         }
+        if (photo.getEtag().equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(photo.getEtag()).build();
+        }
 
         return ResponseEntity.ok()
                 .contentType(MediaType.parseMediaType(photo.getContentType()))
+                .eTag(photo.getEtag())
                 .body(photo.getContent());
     }
 }
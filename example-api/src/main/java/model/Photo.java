@@ -8,4 +8,5 @@ import lombok.Data;
 public class Photo {
     private String contentType;
     private byte[] content;
+    private String etag;
 }
@@ -0,0 +1,79 @@
+package example.api;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Compressed bodies go through the whole filter chain of the application, HiddenHttpMethodFilter included.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class GzipRequestFilterTests {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void createsUserFromGzippedForm() throws Exception {
+        mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .content(gzip("name=Randy+Marsh&email=randy%40gmail.com")))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.name").value("Randy Marsh"))
+                .andExpect(jsonPath("$.email").value("randy@gmail.com"));
+    }
+
+    @Test
+    public void createsUserFromGzippedJson() throws Exception {
+        mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .content(gzip("{\"name\":\"Sharon Marsh\",\"email\":\"sharon@gmail.com\"}")))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.name").value("Sharon Marsh"));
+    }
+
+    @Test
+    public void rejectsMalformedFormEncoding() throws Exception {
+        mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .content(gzip("name=%E&email=%")))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void rejectsMalformedGzip() throws Exception {
+        mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .content("{\"name\":\"not gzip\"}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private static byte[] gzip(String body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,153 @@
+#!/usr/bin/env bash
+#
+# Cold start comparison of the cVurl usage examples.
+#
+# Build all modules first (mvn install in the repository root), then run:
+#   ./startup-benchmark.sh [runs] [module...]
+# modules: spring-boot micronaut quarkus plain-java (all by default)
+#
+# example-api is forked from example-api/target if nothing listens on port 7000 yet.
+# Every module is started runs times, one at a time. For each run:
+#   ready - ms from process launch until the HTTP port accepts requests
+#   first - ms from process launch until proxied GET /users/1 succeeds
+#   peak RSS - VmHWM of the process at the moment of the first successful request
+#   classes - number of classes loaded by then, from -Xlog:class+load
+# plain-java is a client, not a server: its Main scenario is run to completion, first is time to exit,
+# peak RSS and classes are taken at exit.
+# Extra JVM options for every module can be passed with JAVA_OPTS, e.g. JAVA_OPTS=-XX:TieredStopAtLevel=1.
+# With CDS=1 modules are launched with the AppCDS archives built by ./appcds.sh.
+#
+set -euo pipefail
+
+RUNS=${1:-5}
+shift || true
+if (( $# )); then
+  MODULES=("$@")
+else
+  MODULES=(spring-boot micronaut quarkus plain-java)
+fi
+PORT=8080
+API_PORT=7000
+JAVA_OPTS=${JAVA_OPTS:-}
+CDS=${CDS:-0}
+
+cd "$(dirname "$0")"
+WORK_DIR=$(mktemp -d)
+
+API_PID=""
+APP_PID=""
+cleanup() {
+  [[ -n "$APP_PID" ]] && kill "$APP_PID" 2>/dev/null || true
+  [[ -n "$API_PID" ]] && kill "$API_PID" 2>/dev/null || true
+  rm -rf "$WORK_DIR"
+}
+trap cleanup EXIT
+
+now_ms() {
+  echo $(( $(date +%s%N) / 1000000 ))
+}
+
+# First jar in the directory which is not a leftover of repackaging or shading
+jar_of() {
+  ls "$1"/target/*.jar 2>/dev/null | grep -v -e '\.original$' -e 'original-' -e 'sources' | head -n 1
+}
+
+peak_rss_kb() {
+  awk '/VmHWM/ {print $2}' "/proc/$1/status" 2>/dev/null || echo 0
+}
+
+if ! curl -s -o /dev/null "http://localhost:$API_PORT/users/1"; then
+  api_jar=$(jar_of example-api)
+  [[ -n "$api_jar" ]] || { echo "example-api is not running and not built" >&2; exit 1; }
+  java -jar "$api_jar" >/dev/null 2>&1 &
+  API_PID=$!
+  until curl -sf -o /dev/null "http://localhost:$API_PORT/users/1"; do sleep 0.05; done
+fi
+
+command_of() {
+  local jar dir
+  [[ $1 == example-api ]] && dir=example-api || dir="cvurl-usage-$1"
+  if [[ $CDS == 1 ]]; then
+    [[ -f $dir/target/cds/java-args ]] && cat "$dir/target/cds/java-args"
+    return
+  fi
+  case $1 in
+    spring-boot) jar=$(jar_of cvurl-usage-spring-boot) ;;
+    micronaut) jar=$(jar_of cvurl-usage-micronaut) ;;
+    quarkus) jar=$(ls cvurl-usage-quarkus/target/*-runner.jar 2>/dev/null | head -n 1) ;;
+    plain-java)
+      local classpath_file=cvurl-usage-plain-java/target/classpath.txt
+      if [[ ! -f $classpath_file ]]; then
+        (cd cvurl-usage-plain-java && mvn -q dependency:build-classpath -Dmdep.outputFile=target/classpath.txt)
+      fi
+      echo "-cp $PWD/cvurl-usage-plain-java/target/classes:$(cat $classpath_file) cvurl.usage.plain.java.Main"
+      return
+      ;;
+  esac
+  [[ -n "$jar" ]] && echo "-jar $jar"
+}
+
+run_server() {
+  local args=$1 class_log=$2 start ready first
+  start=$(now_ms)
+  # shellcheck disable=SC2086
+  java $JAVA_OPTS -Xlog:class+load:file="$class_log" $args >/dev/null 2>&1 &
+  APP_PID=$!
+  until [[ $(curl -s -o /dev/null -w '%{http_code}' "http://localhost:$PORT/") != 000 ]]; do
+    sleep 0.005
+  done
+  ready=$(( $(now_ms) - start ))
+  until curl -sf -o /dev/null "http://localhost:$PORT/users/1"; do
+    sleep 0.005
+  done
+  first=$(( $(now_ms) - start ))
+  echo "$ready $first $(peak_rss_kb $APP_PID) $(wc -l < "$class_log")"
+  kill "$APP_PID"
+  wait "$APP_PID" 2>/dev/null || true
+  APP_PID=""
+}
+
+run_client() {
+  local args=$1 class_log=$2 start first peak=0
+  start=$(now_ms)
+  # peak RSS is polled, /proc entry of the process disappears once it exits,
+  # Main reads test photo relative to the module directory
+  # shellcheck disable=SC2086
+  (cd cvurl-usage-plain-java && exec java $JAVA_OPTS -Xlog:class+load:file="$class_log" $args >/dev/null 2>&1) &
+  APP_PID=$!
+  while kill -0 "$APP_PID" 2>/dev/null; do
+    local current
+    current=$(peak_rss_kb $APP_PID)
+    (( current > peak )) && peak=$current
+    sleep 0.005
+  done
+  wait "$APP_PID" 2>/dev/null || true
+  APP_PID=""
+  first=$(( $(now_ms) - start ))
+  echo "- $first $peak $(wc -l < "$class_log")"
+}
+
+printf "%-12s %10s %10s %14s %10s\n" "module" "ready, ms" "first, ms" "peak RSS, MB" "classes"
+for module in "${MODULES[@]}"; do
+  args=$(command_of "$module") || true
+  if [[ -z "$args" ]]; then
+    echo "$module: not built, run mvn install in the repository root$([[ $CDS == 1 ]] && echo ' and ./appcds.sh')" >&2
+    continue
+  fi
+  total_ready=0 total_first=0 total_rss=0 total_classes=0 ready="-"
+  for ((run = 1; run <= RUNS; run++)); do
+    class_log="$WORK_DIR/$module-$run.log"
+    if [[ $module == plain-java ]]; then
+      read -r ready first rss classes < <(run_client "$args" "$class_log")
+    else
+      read -r ready first rss classes < <(run_server "$args" "$class_log")
+      total_ready=$((total_ready + ready))
+    fi
+    total_first=$((total_first + first))
+    total_rss=$((total_rss + rss))
+    total_classes=$((total_classes + classes))
+  done
+  [[ $module == plain-java ]] && ready="-" || ready=$((total_ready / RUNS))
+  printf "%-12s %10s %10d %14d %10d\n" "$module" "$ready" $((total_first / RUNS)) \
+    $((total_rss / RUNS / 1024)) $((total_classes / RUNS))
+done